@@ -0,0 +1,179 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.service;
+
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResult;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only local journal of the event results which are not acknowledged by the server yet.
+ * A finished stage is recorded before it is sent, so it is not executed again after the agent restarts.
+ *
+ * Each line is a json HeartBeatEventResult, the last line of the same event wins.
+ * Appends are not synced one by one, sync() is called once before the results are sent.
+ */
+@Slf4j
+@Component
+public class EventResultJournal implements DisposableBean {
+
+    private static final String JOURNAL_DIR = "agent.result.journal.dir";
+
+    private static final String JOURNAL_FILE = "event_result.journal";
+
+    @Autowired
+    private Environment environment;
+
+    private Path journalPath;
+
+    private FileChannel channel;
+
+    private boolean dirty = false;
+
+    /**
+     * Read the results not acknowledged before the agent stopped, and open the journal for appending
+     *
+     * @return event id -> result
+     */
+    public synchronized Map<Long, HeartBeatEventResult> replay() {
+        Map<Long, HeartBeatEventResult> results = new HashMap<>();
+        journalPath = Paths.get(environment.getProperty(JOURNAL_DIR, "journal"), JOURNAL_FILE);
+        try {
+            Files.createDirectories(journalPath.getParent());
+            if (Files.exists(journalPath)) {
+                List<String> lines = Files.readAllLines(journalPath, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+                    try {
+                        HeartBeatEventResult result = JSON.parseObject(line, HeartBeatEventResult.class);
+                        HeartBeatEventResult exist = results.get(result.getEventId());
+                        if (exist == null || exist.getEventStage() <= result.getEventStage()) {
+                            results.put(result.getEventId(), result);
+                        }
+                    } catch (Exception e) {
+                        // the last line may be partially written when the agent crashed
+                        log.warn("skip broken journal line: {}", line);
+                    }
+                }
+            }
+            log.info("replay {} event results from journal {}", results.size(), journalPath);
+            // rewrite the journal, which also drops the broken lines
+            rewrite(results.values());
+        } catch (IOException e) {
+            log.error("open event result journal {} error", journalPath, e);
+        }
+        return results;
+    }
+
+    public synchronized void append(HeartBeatEventResult result) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            byte[] line = (JSON.toJSONString(result) + "\n").getBytes(StandardCharsets.UTF_8);
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            dirty = true;
+        } catch (IOException e) {
+            log.error("append event {} result to journal error", result.getEventId(), e);
+        }
+    }
+
+    // Force the appended results to disk, called once for all the results sent in a heartbeat
+    public synchronized void sync() {
+        if (channel == null || !dirty) {
+            return;
+        }
+        try {
+            channel.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            log.error("sync event result journal error", e);
+        }
+    }
+
+    /**
+     * Compact the journal after the server acknowledged some results
+     *
+     * @param unacknowledged results still waiting for the acknowledgement of the server
+     */
+    public synchronized void compact(Collection<HeartBeatEventResult> unacknowledged) {
+        if (channel == null) {
+            return;
+        }
+        try {
+            rewrite(unacknowledged);
+        } catch (IOException e) {
+            log.error("compact event result journal error", e);
+        }
+    }
+
+    @Override
+    public synchronized void destroy() throws Exception {
+        if (channel != null) {
+            sync();
+            channel.close();
+        }
+    }
+
+    private void rewrite(Collection<HeartBeatEventResult> results) throws IOException {
+        Path tmpPath = journalPath.resolveSibling(JOURNAL_FILE + ".tmp");
+        StringBuilder content = new StringBuilder();
+        for (HeartBeatEventResult result : results) {
+            content.append(JSON.toJSONString(result)).append("\n");
+        }
+        try (FileChannel tmp = FileChannel.open(tmpPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                tmp.write(buffer);
+            }
+            tmp.force(false);
+        }
+
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(tmpPath, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        dirty = false;
+    }
+}
@@ -22,29 +22,69 @@ import org.apache.doris.manager.agent.exceptions.InstanceNotInstallException;
 import org.apache.doris.manager.agent.exceptions.InstanceNotRunningException;
 import org.apache.doris.manager.agent.exceptions.InstanceServiceException;
 import org.apache.doris.manager.agent.service.heartbeat.DorisInstanceOperator;
+import org.apache.doris.manager.agent.service.heartbeat.EventProgressRegistry;
 import org.apache.doris.manager.agent.service.heartbeat.HeartbeatEventHandler;
+import org.apache.doris.manager.agent.util.AgentMetrics;
 import org.apache.doris.manager.agent.util.Request;
 import org.apache.doris.manager.common.heartbeat.HeartBeatContext;
 import org.apache.doris.manager.common.heartbeat.HeartBeatEventInfo;
 import org.apache.doris.manager.common.heartbeat.HeartBeatEventResult;
 import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventType;
 import org.apache.doris.manager.common.heartbeat.HeartBeatResult;
 import org.apache.doris.manager.common.heartbeat.InstanceInfo;
 import org.apache.doris.manager.common.heartbeat.InstanceStateResult;
 import org.apache.doris.stack.control.ModelControlState;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.env.Environment;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
-public class HeartBeatService {
+public class HeartBeatService implements InitializingBean, DisposableBean {
+    private static final String EVENT_THREADS = "agent.heartbeat.event.threads";
+    private static final String EVENT_QUEUE_SIZE = "agent.heartbeat.event.queue.size";
+    // default concurrency of each event type, can be overridden by
+    // agent.heartbeat.event.concurrency.<event type>, such as agent.heartbeat.event.concurrency.instance_install
+    private static final String EVENT_CONCURRENCY = "agent.heartbeat.event.concurrency";
+    private static final String INSTANCE_CHECK_THREADS = "agent.instance.check.threads";
+    private static final String INSTANCE_CHECK_TIMEOUT = "agent.instance.check.timeout";
+    // get the full instance infos every n heartbeats even if the server reports no change
+    private static final String FULL_CONTEXT_INTERVAL = "agent.heartbeat.full.context.interval";
+    // send heartbeat result and get the next context in one request
+    private static final String COMBINED = "agent.heartbeat.combined";
+    // the max time(ms) server holds a combined heartbeat request until a new event comes, 0 to disable
+    private static final String LONG_POLL_TIMEOUT = "agent.heartbeat.long.poll.timeout";
+    // the time(ms) a failed event is not handled again, server sends it in every heartbeat until it has a result
+    private static final String EVENT_RETRY_BACKOFF = "agent.heartbeat.event.retry.backoff";
+
     @Autowired
     private HeartbeatEventHandler heartbeatEventHandler;
 
@@ -54,13 +94,71 @@ public class HeartBeatService {
     @Autowired
     private Environment environment;
 
+    @Autowired
+    private Request request;
+
     private ConcurrentHashMap<Long, HeartBeatEventInfo> events = new ConcurrentHashMap<>();  // event id
     private ConcurrentHashMap<Long, InstanceInfo>  instanceInfos = new ConcurrentHashMap<>(); // instance id
 
-    // cache event result in case of http post result failure
-    // some event is not reentrant
+    // event id -> the time a failed event can be handled again
+    private ConcurrentHashMap<Long, Long> failedEvents = new ConcurrentHashMap<>();
+
+    private long eventRetryBackoff;
+
+    // cache event result until the server acknowledges it, in case of http post result failure
+    // some event is not reentrant, so the cached results are also kept in the journal across agent restarts
     private ConcurrentHashMap<Long, HeartBeatEventResult> cacheResults = new ConcurrentHashMap<>();
 
+    @Autowired
+    private EventResultJournal resultJournal;
+
+    @Autowired
+    private EventProgressRegistry progressRegistry;
+
+    // results of finished events, they will be sent to server by the next context task
+    private ConcurrentLinkedQueue<HeartBeatEventResult> finishedResults = new ConcurrentLinkedQueue<>();
+
+    // Only one context task runs at a time, a tick is skipped when the previous task is still running,
+    // the skipped events will be returned by server again in the next tick
+    private ExecutorService contextExecutor;
+
+    private AtomicBoolean contextTaskRunning = new AtomicBoolean(false);
+
+    private AtomicLong skippedTicks = new AtomicLong();
+
+    // Events are handled asynchronously, so a slow install event does not block instance state reporting
+    private ThreadPoolExecutor eventExecutor;
+
+    private Map<HeartBeatEventType, Semaphore> eventPermits = new EnumMap<>(HeartBeatEventType.class);
+
+    // Released when an event result is ready, the combined heartbeat loop sends it without waiting for the interval,
+    // so the next stage of the event, such as config after download, is got and started right away
+    private Semaphore resultReady = new Semaphore(0);
+
+    // Instance states are checked concurrently, a hung health check only loses its own result
+    private ExecutorService instanceCheckExecutor;
+
+    private long instanceCheckTimeout;
+
+    // instance infos of the last applied context and their version, used when the server reports no change
+    private volatile String instanceVersion;
+
+    private volatile List<InstanceInfo> cachedInstanceInfos = new ArrayList<>();
+
+    private int fullContextInterval;
+
+    private int contextTicks = 0;
+
+    // falls back to the separate context and result requests for the agent lifetime,
+    // if the server is older than the combined heartbeat
+    private volatile boolean combined;
+
+    private long longPollTimeout;
+
+    // the time of the last instance check of the combined loop, the loop may run faster or wait longer
+    // than the heartbeat interval, but the instances are still checked once an interval
+    private long lastInstanceCheck = 0L;
+
     // When the agent starts, it needs to complete the registration before it can handle other heartbeats
     private String agentNodeId = "";
 
@@ -68,62 +166,302 @@ public class HeartBeatService {
 
     private String heartBeatUrl = "";
 
+    private String combinedHeartBeatUrl = "";
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        cacheResults.putAll(resultJournal.replay());
+
+        contextExecutor = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("heartbeat-context-"));
+
+        int eventThreads = environment.getProperty(EVENT_THREADS, Integer.class, 4);
+        int eventQueueSize = environment.getProperty(EVENT_QUEUE_SIZE, Integer.class, 16);
+        eventExecutor = new ThreadPoolExecutor(eventThreads, eventThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(eventQueueSize), new CustomizableThreadFactory("heartbeat-event-"));
+
+        int defaultConcurrency = environment.getProperty(EVENT_CONCURRENCY, Integer.class, 2);
+        for (HeartBeatEventType type : HeartBeatEventType.values()) {
+            String key = EVENT_CONCURRENCY + "." + type.name().toLowerCase();
+            eventPermits.put(type, new Semaphore(environment.getProperty(key, Integer.class, defaultConcurrency)));
+        }
+
+        instanceCheckExecutor = Executors.newFixedThreadPool(
+                environment.getProperty(INSTANCE_CHECK_THREADS, Integer.class, 3),
+                new CustomizableThreadFactory("instance-check-"));
+        instanceCheckTimeout = environment.getProperty(INSTANCE_CHECK_TIMEOUT, Long.class, 3000L);
+        fullContextInterval = environment.getProperty(FULL_CONTEXT_INTERVAL, Integer.class, 12);
+        eventRetryBackoff = environment.getProperty(EVENT_RETRY_BACKOFF, Long.class, 30000L);
+
+        AgentMetrics.gauge("agent_heartbeat_event_queue_depth", "Events waiting for an event thread",
+                this::getEventQueueDepth);
+        AgentMetrics.gauge("agent_heartbeat_running_events", "Events being handled", this::getRunningEventCount);
+        AgentMetrics.counter("agent_heartbeat_skipped_ticks_total",
+                "Heartbeat ticks skipped because the last one is running", this::getSkippedTickCount);
+        AgentMetrics.gauge("agent_heartbeat_cached_results", "Event results not acknowledged by server",
+                cacheResults::size);
+
+        combined = environment.getProperty(COMBINED, Boolean.class, true);
+        longPollTimeout = environment.getProperty(LONG_POLL_TIMEOUT, Long.class, 0L);
+        if (combined) {
+            // the combined heartbeat loop takes the context thread for the whole agent lifetime
+            contextExecutor.execute(this::combinedHeartBeatLoop);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        contextExecutor.shutdownNow();
+        eventExecutor.shutdownNow();
+        instanceCheckExecutor.shutdownNow();
+    }
+
     @Scheduled(cron = "0/${agent.heartbeat.interval:5} * * * * ?")
     public void handleHeartBeatContextLoop() {
-        if (agentNodeId.isEmpty() || serverEndpoint.isEmpty()) {
-            agentNodeId = environment.getProperty("agent.node.id");
-            serverEndpoint = environment.getProperty("manager.server.endpoint");
-            heartBeatUrl = "http://" + serverEndpoint + "/api/control/node/" + agentNodeId + "/agent/context";
+        if (combined) {
+            // handled by combinedHeartBeatLoop
+            return;
         }
+        initHeartBeatUrl();
 
         log.info("agent node is " + agentNodeId);
         log.info("heartBeatUrl is " + heartBeatUrl);
 
-        HeartBeatContext ctx = Request.getHeartBeatContext(heartBeatUrl);
+        log.debug("heartbeat event queue depth {}, running events {}, skipped ticks {}", getEventQueueDepth(),
+                getRunningEventCount(), getSkippedTickCount());
+
+        // checked before the context is got, so a skipped tick does not cost a request to the server
+        if (!contextTaskRunning.compareAndSet(false, true)) {
+            log.warn("previous heartbeat context task is still running, skip this tick");
+            skippedTicks.incrementAndGet();
+            return;
+        }
+
+        HeartBeatContext newCtx;
+        try {
+            HeartBeatContext ctx = request.getHeartBeatContext(heartBeatUrl, nextInstanceVersion());
+            applyInstanceInfos(ctx);
+            // duplicate task
+            newCtx = addAndFilterContextTask(ctx);
+        } catch (RuntimeException e) {
+            log.error("get heartbeat context error {}", e.getMessage());
+            contextTaskRunning.set(false);
+            return;
+        }
+
+        try {
+            contextExecutor.execute(() -> {
+                try {
+                    handleContextTask(newCtx);
+                } finally {
+                    contextTaskRunning.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.error("submit heartbeat context task error {}", e.getMessage());
+            newCtx.getEvents().forEach((event) -> events.remove(event.getEventId()));
+            newCtx.getInstanceInfos().forEach((ins) -> instanceInfos.remove(ins.getInstanceId()));
+            contextTaskRunning.set(false);
+        }
+    }
 
-        // duplicate task
-        HeartBeatContext newCtx = addAndFilterContextTask(ctx);
+    private void applyInstanceInfos(HeartBeatContext ctx) {
+        AgentMetrics.set("agent_heartbeat_context_events", "Events of the last heartbeat context",
+                ctx.getEvents() == null ? 0 : ctx.getEvents().size());
+        if (ctx.isInstanceChanged()) {
+            AgentMetrics.set("agent_heartbeat_context_instances", "Instance infos of the last changed heartbeat context",
+                    ctx.getInstanceInfos() == null ? 0 : ctx.getInstanceInfos().size());
+            instanceVersion = ctx.getInstanceVersion();
+            cachedInstanceInfos = ctx.getInstanceInfos() == null ? new ArrayList<>() : ctx.getInstanceInfos();
+        } else {
+            log.debug("instances are not changed since version {}", ctx.getInstanceVersion());
+            ctx.setInstanceInfos(cachedInstanceInfos);
+        }
+    }
 
-        Thread contextTask = new Thread(() -> {
-            HeartBeatResult res = executeContextTask(newCtx);
+    public int getEventQueueDepth() {
+        return eventExecutor.getQueue().size();
+    }
 
-            cacheResults.clear();
+    public int getRunningEventCount() {
+        return eventExecutor.getActiveCount();
+    }
+
+    public long getSkippedTickCount() {
+        return skippedTicks.get();
+    }
+
+    /*
+     * Send the result of the last context and get the next context in one request.
+     * The next context is handled right away if the server returned it because of a new event,
+     * or the result of a finished event was sent and it has events which can be handled now,
+     * such as the next stage of the event. Otherwise it is handled after the heartbeat interval,
+     * or as soon as a running event finishes.
+     */
+    private void combinedHeartBeatLoop() {
+        long interval = environment.getProperty("agent.heartbeat.interval", Long.class, 5L) * 1000;
+        HeartBeatContext ctx = new HeartBeatContext();
+        boolean waited = false;
+        while (!Thread.currentThread().isInterrupted()) {
+            // a failed event does not release it, so the events server sends again do not spin the loop
+            boolean released = false;
+            if (!waited) {
+                try {
+                    released = resultReady.tryAcquire(interval, TimeUnit.MILLISECONDS);
+                    resultReady.drainPermits();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+
+            initHeartBeatUrl();
+            boolean hasEvents = ctx.getEvents() != null && !ctx.getEvents().isEmpty();
+            long now = System.currentTimeMillis();
+            boolean checkInstances = now - lastInstanceCheck >= interval;
+            if (checkInstances) {
+                lastInstanceCheck = now;
+            }
+            HeartBeatResult res = executeContextTask(addAndFilterContextTask(ctx), checkInstances);
+
+            // wait for new events on server only if there is nothing running, otherwise results are sent in time,
+            // and the wait ends when the next instance check is due
+            long wait = 0L;
+            if (!hasEvents && events.isEmpty()) {
+                wait = Math.min(longPollTimeout,
+                        Math.max(0L, lastInstanceCheck + interval - System.currentTimeMillis()));
+            }
+            resultJournal.sync();
             try {
-                String dealRes = Request.sendHeartBeatContextResult(heartBeatUrl, res);
-                log.info("server return context deal result: {}", dealRes);
-            } catch (IOException e) {
-                log.warn("send heartbeat context result error: {}", e.getMessage());
-                res.getEventResults().forEach((eventRes) -> {
-                    if (eventRes.getResultType() != HeartBeatEventResultType.FAIL) {
-                        log.info("cache event {} result, event type {}, stage {}", eventRes.getEventId(),
-                                eventRes.getEventType(), eventRes.getEventStage());
-                        cacheResults.put(eventRes.getEventId(), eventRes);
-                    }
-                });
+                ctx = request.exchangeHeartBeat(combinedHeartBeatUrl, res, nextInstanceVersion(), wait);
+                applyInstanceInfos(ctx);
+                afterResultSent(res, true);
+                waited = wait > 0 || (released && hasNewEvents(ctx));
+            } catch (HttpResponseException e) {
+                afterResultSent(res, false);
+                if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
+                    log.warn("server does not support the combined heartbeat, fall back to the separate requests");
+                    combined = false;
+                    break;
+                }
+                log.warn("exchange heartbeat error: {}", e.getMessage());
+                ctx = new HeartBeatContext();
+                waited = false;
+            } catch (IOException | RuntimeException e) {
+                log.warn("exchange heartbeat error: {}", e.getMessage());
+                afterResultSent(res, false);
+                ctx = new HeartBeatContext();
+                waited = false;
             }
+        }
+        log.info("combined heartbeat loop exit");
+    }
 
-            // clear completed tasks
-            newCtx.getEvents().forEach((e) -> {
-                log.info("remove finished [event {}] task", e.getEventId());
-                events.remove(e.getEventId());
-            });
-            newCtx.getInstanceInfos().forEach((ins) -> {
-                instanceInfos.remove(ins.getInstanceId());
-            });
+    // Whether the context has events which are not running and can be handled now
+    private boolean hasNewEvents(HeartBeatContext ctx) {
+        if (ctx.getEvents() == null || eventExecutor.getQueue().remainingCapacity() == 0) {
+            return false;
+        }
+        for (HeartBeatEventInfo eventInfo : ctx.getEvents()) {
+            Semaphore permits = eventPermits.get(eventInfo.getEventType());
+            if (!events.containsKey(eventInfo.getEventId()) && !failedEvents.containsKey(eventInfo.getEventId())
+                    && (permits == null || permits.availablePermits() > 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void handleContextTask(HeartBeatContext ctx) {
+        HeartBeatResult res = executeContextTask(ctx, true);
+
+        resultJournal.sync();
+        boolean sent = true;
+        try {
+            String dealRes = request.sendHeartBeatContextResult(heartBeatUrl, res);
+            log.info("server return context deal result: {}", dealRes);
+        } catch (IOException e) {
+            log.warn("send heartbeat context result error: {}", e.getMessage());
+            sent = false;
+        }
+        afterResultSent(res, sent);
+    }
+
+    private HeartBeatResult executeContextTask(HeartBeatContext ctx, boolean checkInstances) {
+        submitEvents(ctx.getEvents());
+
+        HeartBeatResult res = new HeartBeatResult();
+        // the server only updates the instances in the state results
+        res.setStateResults(checkInstances ? checkInstancesState(ctx.getInstanceInfos()) : new ArrayList<>());
+        ctx.getInstanceInfos().forEach((ins) -> {
+            instanceInfos.remove(ins.getInstanceId());
         });
 
-        contextTask.start();
+        // results not acknowledged by the server are sent again, after a server outage
+        // all of them are caught up in one request
+        Map<Long, HeartBeatEventResult> eventResults = new LinkedHashMap<>(cacheResults);
+        HeartBeatEventResult finished;
+        while ((finished = finishedResults.poll()) != null) {
+            eventResults.put(finished.getEventId(), finished);
+        }
+        // progress of the running long stages
+        for (HeartBeatEventResult progress : progressRegistry.getProgress()) {
+            eventResults.putIfAbsent(progress.getEventId(), progress);
+        }
+        res.setEventResults(new ArrayList<>(eventResults.values()));
+        return res;
     }
 
-    private HeartBeatResult executeContextTask(HeartBeatContext ctx) {
-        List<HeartBeatEventResult> eventResults = new ArrayList<>();
-        List<InstanceStateResult> insStateResults = new ArrayList<>();
+    private void afterResultSent(HeartBeatResult res, boolean sent) {
+        if (sent) {
+            boolean acknowledged = false;
+            for (HeartBeatEventResult eventRes : res.getEventResults()) {
+                HeartBeatEventResult cr = cacheResults.get(eventRes.getEventId());
+                if (cr != null && cr.getEventStage() <= eventRes.getEventStage()
+                        && cacheResults.remove(eventRes.getEventId(), cr)) {
+                    acknowledged = true;
+                }
+            }
+            if (acknowledged) {
+                resultJournal.compact(cacheResults.values());
+            }
+        } else {
+            log.warn("{} event results are not acknowledged, {} cached", res.getEventResults().size(),
+                    cacheResults.size());
+        }
 
-        //TODO find from cache before
+        // clear completed tasks
+        res.getEventResults().forEach((e) -> {
+            if (progressRegistry.isRunning(e.getEventId())) {
+                return;
+            }
+            log.info("remove finished [event {}] task", e.getEventId());
+            events.remove(e.getEventId());
+        });
+    }
 
-        for (HeartBeatEventInfo eventInfo : ctx.getEvents()) {
+    private void initHeartBeatUrl() {
+        if (agentNodeId.isEmpty() || serverEndpoint.isEmpty()) {
+            agentNodeId = environment.getProperty("agent.node.id");
+            serverEndpoint = environment.getProperty("manager.server.endpoint");
+            heartBeatUrl = "http://" + serverEndpoint + "/api/control/node/" + agentNodeId + "/agent/context";
+            combinedHeartBeatUrl = "http://" + serverEndpoint + "/api/control/node/" + agentNodeId
+                    + "/agent/heartbeat";
+        }
+    }
+
+    // the instance version sent to server, null every fullContextInterval heartbeats to get all instance infos
+    private String nextInstanceVersion() {
+        if (++contextTicks >= fullContextInterval) {
+            contextTicks = 0;
+            return null;
+        }
+        return instanceVersion;
+    }
+
+    private void submitEvents(List<HeartBeatEventInfo> eventInfos) {
+        for (HeartBeatEventInfo eventInfo : eventInfos) {
             log.info("handle event {}: resource:{} type:{} stage:{}", eventInfo.getEventId(),
-                    eventInfo.getResourceType(), eventInfo.getEventStage(), eventInfo.getEventStage());
+                    eventInfo.getResourceType(), eventInfo.getEventType(), eventInfo.getEventStage());
 
             // get result from cache if it has been executed
             long eventId = eventInfo.getEventId();
@@ -134,49 +472,127 @@ public class HeartBeatService {
                 if (cr.getResultType() == HeartBeatEventResultType.PROCESSING
                         && eventInfo.getEventStage() < cr.getEventStage()) {
                     log.info("return result from result cache");
-                    eventResults.add(cr);
+                    finishedResults.add(cr);
                     continue;
-                } else if (cr.getResultType() == HeartBeatEventResultType.SUCCESS
-                        && cr.getEventStage() == cr.getEventStage()) {
+                } else if (cr.getResultType() != HeartBeatEventResultType.PROCESSING
+                        && eventInfo.getEventStage() == cr.getEventStage()) {
+                    // the stage is done, a failed stage is not executed again before server knows it failed
                     log.info("return result form result cache");
-                    eventResults.add(cr);
+                    finishedResults.add(cr);
                     continue;
                 }
             }
 
-            HeartBeatEventResult result = heartbeatEventHandler.handHeartBeatEvent(eventInfo);
-            if (result != null) {
-                eventResults.add(result);
+            Semaphore permits = eventPermits.get(eventInfo.getEventType());
+            if (permits != null && !permits.tryAcquire()) {
+                log.warn("too many {} events are running, event {} will be handled later",
+                        eventInfo.getEventType(), eventId);
+                events.remove(eventId);
+                continue;
             }
-        }
 
-        for (InstanceInfo instanceInfo : ctx.getInstanceInfos()) {
-            log.info("check module {} instance {} state", instanceInfo.getModuleName(), instanceInfo.getInstanceId());
-            InstanceStateResult stateResult = new InstanceStateResult(instanceInfo);
             try {
-                instanceOpera.checkInstanceProcessState(instanceInfo.getModuleName(), instanceInfo.getInstallDir(),
-                        instanceInfo.getHttpPort());
-
-                stateResult.setState(ModelControlState.RUNNING);
-            } catch (InstanceNotInstallException e) {
-                log.error("{} instance check exception {}", instanceInfo.getModuleName(), e.getMessage());
-                // maybe instance has noe be installed
-                stateResult.setState(ModelControlState.INIT);
-                stateResult.setErrMsg(e.getMessage());
-            } catch (InstanceNotRunningException | InstanceServiceException e) {
-                log.error("{} instance check exception {}", instanceInfo.getModuleName(), e.getMessage());
-                stateResult.setState(ModelControlState.STOPPED);
-                stateResult.setErrMsg(e.getMessage());
+                eventExecutor.execute(() -> {
+                    long start = System.currentTimeMillis();
+                    String resultType = "ERROR";
+                    try {
+                        HeartBeatEventResult result = heartbeatEventHandler.handHeartBeatEvent(eventInfo);
+                        progressRegistry.finish(eventId);
+                        if (result != null) {
+                            resultType = result.getResultType().name();
+                        }
+                        if (result != null) {
+                            // failed results are cached too, the failure must reach server
+                            log.info("cache event {} result, event type {}, stage {}, result type {}",
+                                    result.getEventId(), result.getEventType(), result.getEventStage(), resultType);
+                            cacheResults.put(eventId, result);
+                            resultJournal.append(result);
+                            finishedResults.add(result);
+                            resultReady.release();
+                        } else {
+                            retryLater(eventId);
+                        }
+                    } catch (Exception e) {
+                        log.error("handle event {} error", eventId, e);
+                        progressRegistry.finish(eventId);
+                        retryLater(eventId);
+                    } finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                        AgentMetrics.observe("agent_heartbeat_event_duration_seconds", "Execution time of the events",
+                                System.currentTimeMillis() - start, "type", eventInfo.getEventType().name(),
+                                "stage", String.valueOf(eventInfo.getEventStage()), "result", resultType);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.warn("heartbeat event queue is full, event {} will be handled later", eventId);
+                events.remove(eventId);
+                if (permits != null) {
+                    permits.release();
+                }
             }
+        }
+    }
+
+    // the failed event is handled again when server sends it after the backoff
+    private void retryLater(long eventId) {
+        failedEvents.put(eventId, System.currentTimeMillis() + eventRetryBackoff);
+        events.remove(eventId);
+    }
 
-            insStateResults.add(stateResult);
+    private List<InstanceStateResult> checkInstancesState(List<InstanceInfo> insInfos) {
+        Map<InstanceInfo, Future<InstanceStateResult>> checkFutures = new LinkedHashMap<>();
+        for (InstanceInfo instanceInfo : insInfos) {
+            checkFutures.put(instanceInfo, instanceCheckExecutor.submit(() -> checkInstanceState(instanceInfo)));
         }
 
-        HeartBeatResult res = new HeartBeatResult();
-        res.setEventResults(eventResults);
-        res.setStateResults(insStateResults);
+        // all checks run concurrently, the results of checks which do not finish in time are not reported
+        long deadline = System.currentTimeMillis() + instanceCheckTimeout;
+        List<InstanceStateResult> insStateResults = new ArrayList<>();
+        for (Map.Entry<InstanceInfo, Future<InstanceStateResult>> entry : checkFutures.entrySet()) {
+            InstanceInfo instanceInfo = entry.getKey();
+            try {
+                long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+                insStateResults.add(entry.getValue().get(remaining, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                log.warn("check module {} instance {} state timeout", instanceInfo.getModuleName(),
+                        instanceInfo.getInstanceId());
+                entry.getValue().cancel(true);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                entry.getValue().cancel(true);
+            } catch (ExecutionException e) {
+                log.error("check module {} instance {} state error", instanceInfo.getModuleName(),
+                        instanceInfo.getInstanceId(), e.getCause());
+            }
+        }
+        return insStateResults;
+    }
 
-        return res;
+    private InstanceStateResult checkInstanceState(InstanceInfo instanceInfo) {
+        log.info("check module {} instance {} state", instanceInfo.getModuleName(), instanceInfo.getInstanceId());
+        long start = System.currentTimeMillis();
+        InstanceStateResult stateResult = new InstanceStateResult(instanceInfo);
+        try {
+            instanceOpera.checkInstanceProcessState(instanceInfo.getModuleName(), instanceInfo.getInstallDir(),
+                    instanceInfo.getHttpPort());
+
+            stateResult.setState(ModelControlState.RUNNING);
+        } catch (InstanceNotInstallException e) {
+            log.error("{} instance check exception {}", instanceInfo.getModuleName(), e.getMessage());
+            // maybe instance has noe be installed
+            stateResult.setState(ModelControlState.INIT);
+            stateResult.setErrMsg(e.getMessage());
+        } catch (InstanceNotRunningException | InstanceServiceException e) {
+            log.error("{} instance check exception {}", instanceInfo.getModuleName(), e.getMessage());
+            stateResult.setState(ModelControlState.STOPPED);
+            stateResult.setErrMsg(e.getMessage());
+        }
+        AgentMetrics.observe("agent_instance_check_duration_seconds", "Health check time of the instances",
+                System.currentTimeMillis() - start, "module", instanceInfo.getModuleName(),
+                "state", stateResult.getState().name());
+        return stateResult;
     }
 
     private HeartBeatContext addAndFilterContextTask(HeartBeatContext ctx) {
@@ -184,12 +600,18 @@ public class HeartBeatService {
         List<HeartBeatEventInfo> newEvents = new ArrayList<>();
         List<InstanceInfo> newInsInfos = new ArrayList<>();
 
+        long now = System.currentTimeMillis();
+        failedEvents.values().removeIf(retryTime -> retryTime <= now);
         if (ctx.getEvents() != null) {
             for (HeartBeatEventInfo eventInfo : ctx.getEvents()) {
                 if (events.containsKey(eventInfo.getEventId())) {
                     log.warn("heartbeat event {} is running", eventInfo.getEventId());
                     continue;
                 }
+                if (failedEvents.containsKey(eventInfo.getEventId())) {
+                    log.debug("heartbeat event {} failed recently, retry it later", eventInfo.getEventId());
+                    continue;
+                }
                 log.info("add event {}", eventInfo.getEventId());
                 events.put(eventInfo.getEventId(), eventInfo);
                 newEvents.add(eventInfo);
@@ -25,10 +25,13 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.doris.manager.agent.exceptions.InstanceNotInstallException;
 import org.apache.doris.manager.agent.exceptions.InstanceNotRunningException;
 import org.apache.doris.manager.agent.exceptions.InstanceServiceException;
+import org.apache.doris.manager.agent.util.ProcessTable;
 import org.apache.doris.manager.agent.util.Request;
 import org.apache.doris.manager.agent.util.ShellUtil;
 import org.apache.doris.manager.common.util.ConfigDefault;
 import org.apache.doris.manager.common.util.ServerAndAgentConstant;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import java.io.BufferedReader;
@@ -40,10 +43,26 @@ import java.nio.charset.Charset;
 import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 @Slf4j
 @Component
 public class DorisInstanceOperator {
+    // timeout of the http health check(ms), keep it below agent.instance.check.timeout so that a check
+    // cancelled at the deadline does not hold a check thread in a blocking read
+    private static final String HEALTH_CHECK_TIMEOUT = "agent.instance.health.check.timeout";
+
+    @Autowired
+    private Request request;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private ProcessTable processTable;
+
+    @Autowired
+    private PackageDownloader packageDownloader;
 
     // Actual broker installation path
     // For compatibility, the actual broker deployment folder name may be baidu_doris_broker
@@ -51,24 +70,18 @@ public class DorisInstanceOperator {
     private String brokerInstallationPath = "";
 
     // Download installation package
-    public boolean downloadInstancePackage(String moudleName, String installInfo, String packageInfo) {
+    public boolean downloadInstancePackage(String moudleName, String installInfo, String packageInfo,
+                                           String packageChecksum, Consumer<String> progressListener) {
         File packageFile = Paths.get(installInfo, moudleName).toFile();
-        if (packageFile.exists()) {
+        // an existing dir may be left by an interrupted download, it is only skipped if completely installed
+        if (packageDownloader.isInstalled(packageFile.toPath())) {
             log.info("The {} package {} is already exist", moudleName, packageFile.getAbsolutePath());
             return true;
         } else {
             // download package
-            // Set the parameters, installation path and download link of the download script
-            StringBuffer downloadScript = new StringBuffer();
-            downloadScript.append(ServerAndAgentConstant.PACKAGE_DOWNLOAD_SCRIPT);
-            downloadScript.append(" ");
-            downloadScript.append(packageInfo);
-            downloadScript.append(" ");
-            downloadScript.append(installInfo);
-            log.info("download Script is {}", downloadScript);
+            log.info("download {} package from {} to {}", moudleName, packageInfo, installInfo);
             try {
-                executePkgShellScript(downloadScript.toString(), installInfo,
-                        ServerAndAgentConstant.AGENT_NAME, Maps.newHashMap());
+                packageDownloader.download(packageInfo, packageChecksum, installInfo, moudleName, progressListener);
                 return true;
             } catch (Exception e) {
                 log.error("download doris package error." , e);
@@ -277,7 +290,8 @@ public class DorisInstanceOperator {
 
         String stateRes;
         try {
-            stateRes = Request.sendGetRequest(statusURL, new HashMap<>());
+            stateRes = request.sendGetRequest(statusURL, new HashMap<>(),
+                    environment.getProperty(HEALTH_CHECK_TIMEOUT, Integer.class, 2000));
         } catch (URISyntaxException e) {
             log.error("{} syntax error {}", statusURL, e.getMessage());
             return;
@@ -304,7 +318,8 @@ public class DorisInstanceOperator {
     }
 
     /*
-     * 1. use `ps ux | grep process |grep -v grep |awk '{print $2}'` to get the real pid of the process
+     * 1. find the real pid of the process running from the module dir in /proc,
+     *      use `ps ux | grep process |grep -v grep |awk '{print $2}'` if /proc is not available
      * 2. if process is not running, delete the pid file if exist.
      * 3. if process is running, get and check pid in pid file,
      *      if pid file does not exist or pid is incorrect, recreate the pid file
@@ -331,7 +346,13 @@ public class DorisInstanceOperator {
             }
         }
 
-        int pid = getPid(processName);
+        int pid;
+        if (processTable.isSupported()) {
+            pid = processTable.findPid(processName, Paths.get(runningDir, moduleName).toString());
+            log.info("doris {} pid in process table is {}", processName, pid);
+        } else {
+            pid = getPid(processName);
+        }
         if (pid == -1) {
             if (pidFileName != null) {
                 // process is not running, if pid file exist, delete it
@@ -0,0 +1,59 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.service.heartbeat;
+
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventInfo;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResult;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Progress of the long running event stages, such as package download.
+ * The progress is sent to server as a PROCESSING result of the current stage until the stage finishes.
+ */
+@Component
+public class EventProgressRegistry {
+
+    // event id -> latest progress
+    private ConcurrentHashMap<Long, HeartBeatEventResult> progress = new ConcurrentHashMap<>();
+
+    public void report(HeartBeatEventInfo eventInfo, Object progressInfo) {
+        HeartBeatEventResult result = new HeartBeatEventResult(eventInfo);
+        result.setEventStage(eventInfo.getEventStage());
+        result.setResultType(HeartBeatEventResultType.PROCESSING);
+        result.setResultInfo(progressInfo);
+        result.setCompleted(false);
+        progress.put(eventInfo.getEventId(), result);
+    }
+
+    public void finish(long eventId) {
+        progress.remove(eventId);
+    }
+
+    public boolean isRunning(long eventId) {
+        return progress.containsKey(eventId);
+    }
+
+    public List<HeartBeatEventResult> getProgress() {
+        return new ArrayList<>(progress.values());
+    }
+}
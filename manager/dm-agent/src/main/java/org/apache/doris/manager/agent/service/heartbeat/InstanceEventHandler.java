@@ -37,6 +37,9 @@ public class InstanceEventHandler {
     @Autowired
     private DorisInstanceOperator instanceOperator;
 
+    @Autowired
+    private EventProgressRegistry progressRegistry;
+
     public HeartBeatEventResult handleInstanceHeartBeat(HeartBeatEventInfo eventInfo) {
         switch (eventInfo.getEventType()) {
             case INSTANCE_DEPLOY_CHECK:
@@ -86,7 +89,8 @@ public class InstanceEventHandler {
 
         if (eventInfo.getEventStage() == InstanceDeployEventStage.PACKAGE_DEPLOY.getStage()) {
             boolean isDownload = instanceOperator.downloadInstancePackage(configInfo.getModuleName(),
-                    configInfo.getInstallInfo(), configInfo.getPackageDir());
+                    configInfo.getInstallInfo(), configInfo.getPackageDir(), configInfo.getPackageChecksum(),
+                    progress -> progressRegistry.report(eventInfo, progress));
             setOperationResult(isDownload, result, InstanceDeployEventStage.PACKAGE_DEPLOY.getMessage(),
                     InstanceDeployEventStage.PACKAGE_DEPLOY.getError(), eventInfo.getEventStage(),
                     InstanceDeployEventStage.PACKAGE_DEPLOY.isLast());
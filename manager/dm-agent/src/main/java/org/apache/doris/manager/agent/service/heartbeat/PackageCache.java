@@ -0,0 +1,292 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.service.heartbeat;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Local cache of the extracted doris packages, shared by all the install dirs of the agent.
+ *
+ * An entry is keyed by the package url and its sha256, and holds the fe, be and broker modules of the package.
+ * Only the files under bin and lib of a module, which are never written after install, are hard linked into
+ * the install dir, all the other files are copied, so a file written in place can not corrupt the cache.
+ * Files are also copied if the install dir is on another file system.
+ * The least recently used entries are evicted when the cache is larger than the max size, the size of an entry
+ * only counts the files not linked into any install dir, because the others are not freed by eviction.
+ * The cache is disabled by default.
+ */
+@Slf4j
+@Component
+public class PackageCache {
+
+    private static final String CACHE_DIR = "agent.package.cache.dir";
+
+    private static final String CACHE_MAX_SIZE = "agent.package.cache.max.size";
+
+    // written after the entry is complete, its modify time is the last access time of the entry
+    private static final String COMPLETE_FILE = ".complete";
+
+    private static final String STAGING_SUFFIX = ".download";
+
+    // top level dirs of a module which are linked, the other files are copied
+    private static final Set<String> LINKED_DIRS = ImmutableSet.of("bin", "lib");
+
+    @Autowired
+    private Environment environment;
+
+    // cache key -> lock of the entry, held while the entry is created or materialized
+    private ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return getMaxSize() > 0;
+    }
+
+    public String getKey(String packageUrl, String sha256) {
+        String source = packageUrl + "\n" + Strings.nullToEmpty(sha256).toLowerCase();
+        return Hashing.sha256().hashString(source, StandardCharsets.UTF_8).toString();
+    }
+
+    public ReentrantLock getLock(String key) {
+        return locks.computeIfAbsent(key, k -> new ReentrantLock());
+    }
+
+    /**
+     * Get a complete cache entry and mark it as recently used
+     *
+     * @param key cache key
+     * @return entry dir, null if the package is not cached
+     */
+    public Path get(String key) {
+        Path entry = getRoot().resolve(key);
+        Path complete = entry.resolve(COMPLETE_FILE);
+        if (!Files.exists(complete)) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(complete, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            log.warn("update access time of package cache {} error: {}", key, e.getMessage());
+        }
+        return entry;
+    }
+
+    public Path getStagingDir(String key) {
+        return getRoot().resolve(key + STAGING_SUFFIX);
+    }
+
+    /**
+     * Add the extracted modules into the cache, and evict the least recently used entries if the cache is full
+     *
+     * @param key cache key
+     * @param packageUrl package url, recorded for troubleshooting
+     * @param modulesDir dir of the fe, be and broker modules, it is moved into the cache
+     * @return entry dir
+     * @throws IOException
+     */
+    public Path put(String key, String packageUrl, Path modulesDir) throws IOException {
+        Path entry = getRoot().resolve(key);
+        deleteRecursively(entry);
+        Files.move(modulesDir, entry, StandardCopyOption.ATOMIC_MOVE);
+        Files.write(entry.resolve(COMPLETE_FILE), packageUrl.getBytes(StandardCharsets.UTF_8));
+        log.info("package {} is cached in {}", packageUrl, entry);
+        evict(key);
+        return entry;
+    }
+
+    /**
+     * Link the modules of the cache entry into the install dir, the modules already in the install dir are skipped
+     *
+     * @param entry entry dir
+     * @param installDir install dir
+     * @return the module dirs linked into the install dir
+     * @throws IOException
+     */
+    public List<Path> materialize(Path entry, Path installDir) throws IOException {
+        List<Path> materialized = new ArrayList<>();
+        Files.createDirectories(installDir);
+        try (Stream<Path> modules = Files.list(entry)) {
+            for (Path module : (Iterable<Path>) modules::iterator) {
+                if (module.getFileName().toString().equals(COMPLETE_FILE)) {
+                    continue;
+                }
+                Path target = installDir.resolve(module.getFileName().toString());
+                if (Files.exists(target)) {
+                    log.info("{} already exists, skip it", target);
+                    continue;
+                }
+                linkTree(module, target);
+                materialized.add(target);
+            }
+        }
+        return materialized;
+    }
+
+    private void linkTree(Path source, Path target) throws IOException {
+        AtomicLong copied = new AtomicLong();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path targetDir = target.resolve(source.relativize(dir).toString());
+                Files.createDirectories(targetDir);
+                Files.setPosixFilePermissions(targetDir, Files.getPosixFilePermissions(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = source.relativize(file);
+                Path targetFile = target.resolve(relative.toString());
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(targetFile, Files.readSymbolicLink(file));
+                } else if (!isLinkedFile(relative)) {
+                    Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                } else {
+                    try {
+                        Files.createLink(targetFile, file);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // different file system
+                        Files.copy(file, targetFile, StandardCopyOption.COPY_ATTRIBUTES);
+                        copied.incrementAndGet();
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        log.info("materialize {} from package cache, {} files copied", target, copied.get());
+    }
+
+    // relative is the path in a module, such as lib/palo_be
+    private boolean isLinkedFile(Path relative) {
+        return relative.getNameCount() > 1 && LINKED_DIRS.contains(relative.getName(0).toString());
+    }
+
+    private void evict(String currentKey) {
+        long maxSize = getMaxSize();
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(getRoot())) {
+            paths.filter(path -> Files.exists(path.resolve(COMPLETE_FILE))).forEach(entries::add);
+        } catch (IOException e) {
+            log.warn("list package cache error: {}", e.getMessage());
+            return;
+        }
+
+        long totalSize = 0L;
+        List<Path> candidates = new ArrayList<>();
+        for (Path entry : entries) {
+            totalSize += sizeOf(entry);
+            if (!entry.getFileName().toString().equals(currentKey)) {
+                candidates.add(entry);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(this::lastAccessTime));
+
+        for (Path entry : candidates) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            String key = entry.getFileName().toString();
+            ReentrantLock lock = getLock(key);
+            // skip the entry which is being materialized
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                long size = sizeOf(entry);
+                // remove the complete file first, a half deleted entry is never used
+                Files.deleteIfExists(entry.resolve(COMPLETE_FILE));
+                deleteRecursively(entry);
+                totalSize -= size;
+                log.info("evict package cache {}, {} bytes", key, size);
+            } catch (IOException e) {
+                log.warn("evict package cache {} error: {}", key, e.getMessage());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private long lastAccessTime(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry.resolve(COMPLETE_FILE)).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    // the space freed by evicting the entry, files hard linked into install dirs are not counted
+    private long sizeOf(Path entry) {
+        try (Stream<Path> paths = Files.walk(entry)) {
+            return paths.filter(path -> Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS) && !isLinked(path))
+                    .mapToLong(path -> path.toFile().length()).sum();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private boolean isLinked(Path file) {
+        try {
+            return ((Number) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue() > 1;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private Path getRoot() {
+        return Paths.get(environment.getProperty(CACHE_DIR, "package_cache")).toAbsolutePath();
+    }
+
+    private long getMaxSize() {
+        return environment.getProperty(CACHE_MAX_SIZE, Long.class, 0L);
+    }
+
+    private void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
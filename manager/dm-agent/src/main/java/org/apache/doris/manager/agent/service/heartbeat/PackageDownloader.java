@@ -0,0 +1,489 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.service.heartbeat;
+
+import com.google.common.base.Strings;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.manager.agent.util.AgentHttpClientPool;
+import org.apache.doris.manager.common.util.ServerAndAgentConstant;
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Download the doris package with parallel http range requests and extract it while downloading.
+ *
+ * The package is split into chunks which are downloaded concurrently into one file,
+ * the finished chunks are recorded in a progress file, so an interrupted download only fetches the rest.
+ * The chunks are fed to `tar` in order as soon as they finish, and the sha256 is computed on the way,
+ * the extracted package is only moved into the install dir after the checksum is verified.
+ * If the package cache is enabled, the package is extracted into the cache once and linked into every install dir.
+ * A module is only treated as installed when its installed file exists, which is written after the module
+ * is completely put into the install dir, a module dir without it is left by an interrupted install.
+ */
+@Slf4j
+@Component
+public class PackageDownloader {
+
+    private static final String DOWNLOAD_THREADS = "agent.package.download.threads";
+
+    private static final String MIN_CHUNK_SIZE = "agent.package.download.min.chunk.size";
+
+    private static final String STAGING_DIR = ".palo_download";
+
+    private static final String PACKAGE_FILE = "palo.tar.gz";
+
+    private static final String PROGRESS_FILE = "palo.tar.gz.progress";
+
+    private static final String EXTRACT_DIR = "palo";
+
+    // fe, be and broker moved out of the extracted package, which become a package cache entry
+    private static final String MODULES_DIR = "modules";
+
+    // written into a module dir after the module is completely installed, records the package url and sha256
+    private static final String INSTALLED_FILE = ".palo_installed";
+
+    private static final String INCOMPLETE_SUFFIX = ".incomplete";
+
+    private static final int CHUNK_RETRY = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Autowired
+    private AgentHttpClientPool httpClientPool;
+
+    @Autowired
+    private PackageCache packageCache;
+
+    @Autowired
+    private Environment environment;
+
+    private static class Chunk {
+        private final int index;
+
+        private final long start;
+
+        // inclusive, -1 if the package length is unknown
+        private final long end;
+
+        Chunk(int index, long start, long end) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Whether the module dir is completely installed by a download
+     *
+     * @param moduleDir module dir in the install dir, such as /root/doris/be
+     * @return
+     */
+    public boolean isInstalled(Path moduleDir) {
+        return Files.exists(moduleDir.resolve(INSTALLED_FILE));
+    }
+
+    /**
+     * Download the package and put fe, be and broker of it into installDir
+     *
+     * @param packageUrl package download url
+     * @param expectedSha256 hex sha256 of the package, if it is empty, <packageUrl>.sha256 is used if it exists
+     * @param installDir install dir
+     * @param moduleName the module to install, its dir left by an interrupted install is replaced
+     * @param progressListener receive download progress
+     * @throws Exception
+     */
+    public void download(String packageUrl, String expectedSha256, String installDir, String moduleName,
+                         Consumer<String> progressListener) throws Exception {
+        if (Strings.isNullOrEmpty(expectedSha256)) {
+            expectedSha256 = getSidecarSha256(packageUrl);
+        }
+        if (Strings.isNullOrEmpty(expectedSha256)) {
+            log.warn("NO SHA256 OF PACKAGE {}: the server does not give one and {}.sha256 does not exist, "
+                    + "the package is installed WITHOUT integrity check", packageUrl, packageUrl);
+            progressListener.accept("package sha256 is unknown, integrity check skipped");
+        }
+
+        Path installPath = Paths.get(installDir);
+        moveAsideIncomplete(installPath.resolve(moduleName));
+
+        List<Path> installed;
+        if (!packageCache.isEnabled()) {
+            Path stagingDir = installPath.resolve(STAGING_DIR);
+            fetch(packageUrl, expectedSha256, stagingDir, progressListener);
+            installed = installModules(stagingDir.resolve(EXTRACT_DIR), installPath);
+            deleteRecursively(stagingDir);
+        } else {
+            String key = packageCache.getKey(packageUrl, expectedSha256);
+            ReentrantLock lock = packageCache.getLock(key);
+            lock.lock();
+            try {
+                Path entry = packageCache.get(key);
+                if (entry == null) {
+                    Path stagingDir = packageCache.getStagingDir(key);
+                    fetch(packageUrl, expectedSha256, stagingDir, progressListener);
+                    Path modulesDir = stagingDir.resolve(MODULES_DIR);
+                    deleteRecursively(modulesDir);
+                    Files.createDirectories(modulesDir);
+                    installModules(stagingDir.resolve(EXTRACT_DIR), modulesDir);
+                    entry = packageCache.put(key, packageUrl, modulesDir);
+                    deleteRecursively(stagingDir);
+                } else {
+                    log.info("package {} is found in cache {}", packageUrl, entry);
+                    progressListener.accept("package found in local cache");
+                }
+                installed = packageCache.materialize(entry, installPath);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        String record = packageUrl + " " + (Strings.isNullOrEmpty(expectedSha256) ? "unverified" : expectedSha256);
+        for (Path moduleDir : installed) {
+            Files.write(moduleDir.resolve(INSTALLED_FILE), record.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    // Keep the module dir of an interrupted install aside instead of deleting it, in case it has user data
+    private void moveAsideIncomplete(Path moduleDir) throws IOException {
+        if (!Files.exists(moduleDir) || isInstalled(moduleDir)) {
+            return;
+        }
+        Path aside = moduleDir.resolveSibling(moduleDir.getFileName() + INCOMPLETE_SUFFIX);
+        log.warn("{} is not completely installed, move it to {} and install again", moduleDir, aside);
+        deleteRecursively(aside);
+        Files.move(moduleDir, aside);
+    }
+
+    // Download and extract the package into <stagingDir>/palo, the download is resumed from the progress file
+    private void fetch(String packageUrl, String expectedSha256, Path stagingDir,
+                       Consumer<String> progressListener) throws Exception {
+        Path packageFile = stagingDir.resolve(PACKAGE_FILE);
+        Path progressFile = stagingDir.resolve(PROGRESS_FILE);
+        Path extractDir = stagingDir.resolve(EXTRACT_DIR);
+        Files.createDirectories(stagingDir);
+        // the partially extracted files of last download are useless
+        deleteRecursively(extractDir);
+        Files.createDirectories(extractDir);
+
+        long length = getContentLength(packageUrl);
+        List<Chunk> chunks = splitChunks(length);
+        Set<Integer> doneChunks = readProgress(progressFile, packageUrl, length, chunks.size());
+        if (doneChunks.isEmpty()) {
+            Files.deleteIfExists(packageFile);
+            Files.write(progressFile, (packageUrl + " " + length + " " + chunks.size() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        if (!Files.exists(packageFile)) {
+            Files.createFile(packageFile);
+        }
+        log.info("download package {} to {}, length {}, {} chunks, {} finished before", packageUrl, packageFile,
+                length, chunks.size(), doneChunks.size());
+
+        AtomicLong downloaded = new AtomicLong();
+        int threads = Math.min(chunks.size(), environment.getProperty(DOWNLOAD_THREADS, Integer.class, 4));
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new CustomizableThreadFactory("package-download-"));
+        Process tar = null;
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (Chunk chunk : chunks) {
+                if (doneChunks.contains(chunk.index)) {
+                    downloaded.addAndGet(chunk.end - chunk.start + 1);
+                    futures.add(CompletableFuture.completedFuture(null));
+                    continue;
+                }
+                futures.add(CompletableFuture.runAsync(() -> {
+                    downloadChunkWithRetry(packageUrl, packageFile, chunk, downloaded);
+                    markChunkDone(progressFile, chunk.index);
+                }, executor));
+            }
+
+            tar = new ProcessBuilder("tar", "-xzf", "-", "--strip-components", "1", "-C", extractDir.toString())
+                    .redirectErrorStream(true)
+                    .redirectOutput(stagingDir.resolve("tar.log").toFile())
+                    .start();
+            String actualSha256 = feedChunks(tar, packageFile, chunks, futures, length, downloaded,
+                    progressListener);
+            int exitCode = tar.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("extract package failed, tar exit with " + exitCode);
+            }
+
+            if (!Strings.isNullOrEmpty(expectedSha256) && !expectedSha256.equalsIgnoreCase(actualSha256)) {
+                // the downloaded data is corrupted, download it again next time
+                Files.deleteIfExists(progressFile);
+                Files.deleteIfExists(packageFile);
+                throw new IOException("package sha256 mismatch, expected " + expectedSha256 + ", actual "
+                        + actualSha256);
+            }
+            log.info("package {} downloaded and extracted, sha256 {}", packageUrl, actualSha256);
+
+        } finally {
+            executor.shutdownNow();
+            if (tar != null && tar.isAlive()) {
+                tar.destroyForcibly();
+            }
+        }
+    }
+
+    private String feedChunks(Process tar, Path packageFile, List<Chunk> chunks, List<CompletableFuture<Void>> futures,
+                              long length, AtomicLong downloaded, Consumer<String> progressListener)
+            throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (OutputStream tarInput = tar.getOutputStream();
+             FileChannel channel = FileChannel.open(packageFile, StandardOpenOption.READ)) {
+            for (Chunk chunk : chunks) {
+                try {
+                    futures.get(chunk.index).get();
+                } catch (ExecutionException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    throw new IOException("download package chunk " + chunk.index + " failed", e.getCause());
+                }
+
+                long position = chunk.start;
+                long end = chunk.end >= 0 ? chunk.end + 1 : channel.size();
+                while (position < end) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+                    int n = channel.read(buffer, position);
+                    if (n < 0) {
+                        break;
+                    }
+                    digest.update(buffer.array(), 0, n);
+                    tarInput.write(buffer.array(), 0, n);
+                    position += n;
+                }
+                progressListener.accept(length > 0
+                        ? String.format("package downloaded %d%%", downloaded.get() * 100 / length)
+                        : String.format("package downloaded %d bytes", downloaded.get()));
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private void downloadChunkWithRetry(String packageUrl, Path packageFile, Chunk chunk, AtomicLong downloaded) {
+        IOException lastError = null;
+        for (int i = 0; i < CHUNK_RETRY; i++) {
+            AtomicLong chunkDownloaded = new AtomicLong();
+            try {
+                downloadChunk(packageUrl, packageFile, chunk, downloaded, chunkDownloaded);
+                return;
+            } catch (IOException e) {
+                log.warn("download package chunk {} failed {} times: {}", chunk.index, i + 1, e.getMessage());
+                downloaded.addAndGet(-chunkDownloaded.get());
+                lastError = e;
+            }
+        }
+        throw new RuntimeException(lastError);
+    }
+
+    private void downloadChunk(String packageUrl, Path packageFile, Chunk chunk, AtomicLong downloaded,
+                               AtomicLong chunkDownloaded) throws IOException {
+        HttpGet httpGet = new HttpGet(packageUrl);
+        if (chunk.end >= 0) {
+            httpGet.addHeader("Range", "bytes=" + chunk.start + "-" + chunk.end);
+        }
+        httpClientPool.execute(httpGet, response -> {
+            int status = response.getStatusLine().getStatusCode();
+            if ((chunk.end >= 0 && status != 206) || (chunk.end < 0 && status != 200)) {
+                EntityUtils.consume(response.getEntity());
+                throw new IOException("unexpected http status " + status);
+            }
+
+            long position = chunk.start;
+            byte[] bytes = new byte[BUFFER_SIZE];
+            try (InputStream input = response.getEntity().getContent();
+                 FileChannel channel = FileChannel.open(packageFile, StandardOpenOption.WRITE)) {
+                if (chunk.end < 0) {
+                    channel.truncate(0);
+                }
+                int n;
+                while ((n = input.read(bytes)) != -1) {
+                    ByteBuffer buffer = ByteBuffer.wrap(bytes, 0, n);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    downloaded.addAndGet(n);
+                    chunkDownloaded.addAndGet(n);
+                }
+                channel.force(false);
+            }
+            if (chunk.end >= 0 && position != chunk.end + 1) {
+                throw new IOException("chunk " + chunk.index + " is incomplete");
+            }
+            return null;
+        });
+    }
+
+    // -1 if the server does not support range requests or does not return the length
+    private long getContentLength(String packageUrl) throws IOException {
+        return httpClientPool.execute(new HttpHead(packageUrl), response -> {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("get package info failed, status " + response.getStatusLine().getStatusCode());
+            }
+            Header acceptRanges = response.getFirstHeader("Accept-Ranges");
+            Header contentLength = response.getFirstHeader("Content-Length");
+            if (acceptRanges == null || !"bytes".equalsIgnoreCase(acceptRanges.getValue()) || contentLength == null) {
+                return -1L;
+            }
+            return Long.parseLong(contentLength.getValue());
+        });
+    }
+
+    private String getSidecarSha256(String packageUrl) {
+        try {
+            return httpClientPool.execute(new HttpGet(packageUrl + ".sha256"), response -> {
+                if (response.getStatusLine().getStatusCode() != 200) {
+                    EntityUtils.consume(response.getEntity());
+                    return null;
+                }
+                // same format as sha256sum output: <sha256> <file name>
+                String content = EntityUtils.toString(response.getEntity()).trim();
+                return content.isEmpty() ? null : content.split("\\s+")[0];
+            });
+        } catch (IOException e) {
+            log.warn("no sha256 of package {}, skip checking", packageUrl);
+            return null;
+        }
+    }
+
+    private List<Chunk> splitChunks(long length) {
+        List<Chunk> chunks = new ArrayList<>();
+        if (length <= 0) {
+            chunks.add(new Chunk(0, 0, -1));
+            return chunks;
+        }
+
+        long minChunkSize = environment.getProperty(MIN_CHUNK_SIZE, Long.class, 16L * 1024 * 1024);
+        int threads = environment.getProperty(DOWNLOAD_THREADS, Integer.class, 4);
+        // more chunks than threads, so the extraction can start early
+        int count = (int) Math.max(1, Math.min(threads * 4L, length / minChunkSize));
+        long chunkSize = (length + count - 1) / count;
+        for (int i = 0; i < count; i++) {
+            long start = i * chunkSize;
+            chunks.add(new Chunk(i, start, Math.min(length, start + chunkSize) - 1));
+        }
+        return chunks;
+    }
+
+    // The first line is `<url> <length> <chunk count>`, and then the index of one finished chunk per line
+    private Set<Integer> readProgress(Path progressFile, String packageUrl, long length, int chunkCount)
+            throws IOException {
+        Set<Integer> doneChunks = new HashSet<>();
+        if (length <= 0 || !Files.exists(progressFile)) {
+            return doneChunks;
+        }
+        List<String> lines = Files.readAllLines(progressFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(packageUrl + " " + length + " " + chunkCount)) {
+            log.info("package changed since last download, download it again");
+            return doneChunks;
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            try {
+                doneChunks.add(Integer.parseInt(line.trim()));
+            } catch (NumberFormatException e) {
+                log.warn("skip broken progress line: {}", line);
+            }
+        }
+        return doneChunks;
+    }
+
+    private synchronized void markChunkDone(Path progressFile, int index) {
+        try {
+            Files.write(progressFile, (index + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            log.warn("record chunk {} progress error: {}", index, e.getMessage());
+        }
+    }
+
+    // Same layout as download_doris.sh, return the module dirs moved into installDir
+    private List<Path> installModules(Path extractDir, Path installDir) throws IOException {
+        List<Path> installed = new ArrayList<>();
+        moveIfAbsent(extractDir.resolve(ServerAndAgentConstant.FE_NAME),
+                installDir.resolve(ServerAndAgentConstant.FE_NAME), installed);
+        moveIfAbsent(extractDir.resolve(ServerAndAgentConstant.BE_NAME),
+                installDir.resolve(ServerAndAgentConstant.BE_NAME), installed);
+
+        Path broker = extractDir.resolve("apache_hdfs_broker");
+        if (Files.isDirectory(broker.resolve("output"))) {
+            broker = broker.resolve("output").resolve("apache_hdfs_broker");
+        }
+        moveIfAbsent(broker, installDir.resolve(ServerAndAgentConstant.BROKER_NAME), installed);
+        return installed;
+    }
+
+    private void moveIfAbsent(Path source, Path target, List<Path> installed) throws IOException {
+        if (!Files.exists(source)) {
+            log.warn("{} does not exist in package", source.getFileName());
+            return;
+        }
+        if (Files.exists(target)) {
+            log.info("{} already exists, skip it", target);
+            return;
+        }
+        Files.move(source, target);
+        installed.add(target);
+    }
+
+    private void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.util;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.HttpConnectionFactory;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.ManagedHttpClientConnectionFactory;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived keep-alive http client shared by the heartbeat loop and the instance health checks,
+ * so the agent does not open a new connection for every request.
+ */
+@Component
+@Slf4j
+public class AgentHttpClientPool implements InitializingBean, DisposableBean {
+
+    private static final String MAX_TOTAL = "agent.http.pool.max.total";
+    private static final String MAX_PER_ROUTE = "agent.http.pool.max.per.route";
+    private static final String CONNECT_TIMEOUT = "agent.http.connect.timeout";
+    private static final String REQUEST_TIMEOUT = "agent.http.connection.request.timeout";
+    private static final String SOCKET_TIMEOUT = "agent.http.socket.timeout";
+    private static final String KEEP_ALIVE = "agent.http.keep.alive";
+    private static final String IDLE_TIMEOUT = "agent.http.idle.timeout";
+
+    @Autowired
+    private Environment environment;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+
+    private CloseableHttpClient client;
+
+    private RequestConfig requestConfig;
+
+    // number of requests which leased a connection from the pool
+    private final AtomicLong leaseCount = new AtomicLong();
+
+    // number of physical connections created, a lease that did not create one reused a pooled connection
+    private final AtomicLong connectionCount = new AtomicLong();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection> connFactory =
+                new HttpConnectionFactory<HttpRoute, ManagedHttpClientConnection>() {
+                    @Override
+                    public ManagedHttpClientConnection create(HttpRoute route, ConnectionConfig config) {
+                        connectionCount.incrementAndGet();
+                        return ManagedHttpClientConnectionFactory.INSTANCE.create(route, config);
+                    }
+                };
+
+        connectionManager = new PoolingHttpClientConnectionManager(connFactory);
+        connectionManager.setMaxTotal(environment.getProperty(MAX_TOTAL, Integer.class, 20));
+        connectionManager.setDefaultMaxPerRoute(environment.getProperty(MAX_PER_ROUTE, Integer.class, 5));
+        // connections kept in the pool across heartbeat interval may be closed by the peer
+        connectionManager.setValidateAfterInactivity(2000);
+
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(environment.getProperty(CONNECT_TIMEOUT, Integer.class, 5000))
+                .setConnectionRequestTimeout(environment.getProperty(REQUEST_TIMEOUT, Integer.class, 5000))
+                .setSocketTimeout(environment.getProperty(SOCKET_TIMEOUT, Integer.class, 5000))
+                .build();
+
+        long idleTimeout = environment.getProperty(IDLE_TIMEOUT, Long.class, 30000L);
+        client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(initKeepAliveStrategy(environment.getProperty(KEEP_ALIVE, Long.class, 60000L)))
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.MILLISECONDS)
+                .build();
+
+        AgentMetrics.gauge("agent_http_pool_leased", "Leased connections of the http client pool",
+                () -> getPoolStats().getLeased());
+        AgentMetrics.gauge("agent_http_pool_available", "Idle connections of the http client pool",
+                () -> getPoolStats().getAvailable());
+        AgentMetrics.counter("agent_http_pool_requests_total", "Requests sent by the http client pool",
+                this::getLeaseCount);
+        AgentMetrics.counter("agent_http_pool_connections_created_total",
+                "Connections created by the http client pool", this::getConnectionCount);
+
+        log.info("agent http client pool init, max total {}, max per route {}", connectionManager.getMaxTotal(),
+                connectionManager.getDefaultMaxPerRoute());
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        try {
+            client.close();
+        } catch (IOException e) {
+            log.error("close http client pool failed", e);
+        }
+    }
+
+    /**
+     * Execute the request and return the response body
+     *
+     * @param request
+     * @return response body
+     * @throws IOException if the request fails or the response status is not 2xx, an error body is not a response
+     */
+    public String execute(HttpUriRequest request) throws IOException {
+        // the response handler consumes the entity, which releases the connection back to the pool
+        return execute(request, httpResponse -> {
+            StatusLine statusLine = httpResponse.getStatusLine();
+            if (statusLine.getStatusCode() < 200 || statusLine.getStatusCode() >= 300) {
+                EntityUtils.consume(httpResponse.getEntity());
+                throw new HttpResponseException(statusLine.getStatusCode(),
+                        "unexpected http status " + statusLine.getStatusCode() + " from " + request.getURI());
+            }
+            return httpResponse.getEntity() == null ? null : EntityUtils.toString(httpResponse.getEntity());
+        });
+    }
+
+    public <T> T execute(HttpUriRequest request, ResponseHandler<? extends T> responseHandler) throws IOException {
+        leaseCount.incrementAndGet();
+        return client.execute(request, responseHandler);
+    }
+
+    public RequestConfig getRequestConfig() {
+        return requestConfig;
+    }
+
+    public long getLeaseCount() {
+        return leaseCount.get();
+    }
+
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public long getHitCount() {
+        return Math.max(0, leaseCount.get() - connectionCount.get());
+    }
+
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Use the keep-alive timeout returned by the peer, or the configured default
+     */
+    private ConnectionKeepAliveStrategy initKeepAliveStrategy(long defaultKeepAlive) {
+        return (HttpResponse response, HttpContext context) -> {
+            HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+            while (it.hasNext()) {
+                HeaderElement he = it.nextElement();
+                if (he.getValue() != null && "timeout".equalsIgnoreCase(he.getName())) {
+                    try {
+                        return Long.parseLong(he.getValue()) * 1000;
+                    } catch (NumberFormatException e) {
+                        log.warn("invalid keep alive timeout {}", he.getValue());
+                    }
+                }
+            }
+            return defaultKeepAlive;
+        };
+    }
+}
@@ -0,0 +1,184 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.util;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the agent in Prometheus text format, exposed by /metrics.
+ * It is static like ShellUtil, so the static utilities can record metrics without a spring bean.
+ *
+ * Labels are given as name/value pairs, such as observe("agent_shell_seconds", help, ms, "command", "start_fe.sh").
+ */
+public class AgentMetrics {
+
+    // upper bounds(s) of the latency histogram buckets
+    private static final double[] BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 300};
+
+    // metric name -> family, sorted to keep the output stable
+    private static final ConcurrentSkipListMap<String, Family> FAMILIES = new ConcurrentSkipListMap<>();
+
+    private AgentMetrics() {
+        throw new UnsupportedOperationException();
+    }
+
+    private static class Family {
+        private final String type;
+
+        private final String help;
+
+        // labels text -> value
+        private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder sumMillis = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void observe(long millis) {
+            double seconds = millis / 1000.0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                if (seconds <= BUCKETS[i]) {
+                    buckets[i].increment();
+                }
+            }
+            count.increment();
+            sumMillis.add(millis);
+        }
+    }
+
+    /**
+     * Record a latency into a histogram
+     *
+     * @param name metric name, should end with _seconds
+     * @param help
+     * @param millis latency in milliseconds
+     * @param labels name/value pairs
+     */
+    public static void observe(String name, String help, long millis, String... labels) {
+        Family family = family(name, "histogram", help);
+        ((Histogram) family.values.computeIfAbsent(labelsText(labels), k -> new Histogram())).observe(millis);
+    }
+
+    public static void increment(String name, String help, String... labels) {
+        Family family = family(name, "counter", help);
+        ((LongAdder) family.values.computeIfAbsent(labelsText(labels), k -> new LongAdder())).increment();
+    }
+
+    // Set the current value of a gauge, such as the size of the last heartbeat context
+    public static void set(String name, String help, long value, String... labels) {
+        Family family = family(name, "gauge", help);
+        ((AtomicLong) family.values.computeIfAbsent(labelsText(labels), k -> new AtomicLong())).set(value);
+    }
+
+    // Register a gauge whose value is read when it is scraped, registering the same gauge again replaces it
+    public static void gauge(String name, String help, Supplier<Number> supplier, String... labels) {
+        family(name, "gauge", help).values.put(labelsText(labels), supplier);
+    }
+
+    // Register a counter whose value is read from a monotonic source when it is scraped, such as a total count
+    // kept by a library, the name should end with _total
+    public static void counter(String name, String help, Supplier<Number> supplier, String... labels) {
+        family(name, "counter", help).values.put(labelsText(labels), supplier);
+    }
+
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Family> entry : FAMILIES.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> value : new TreeMap<>(family.values).entrySet()) {
+                writeValue(out, name, value.getKey(), value.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeValue(StringBuilder out, String name, String labels, Object value) {
+        if (value instanceof Histogram) {
+            Histogram histogram = (Histogram) value;
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            for (int i = 0; i < BUCKETS.length; i++) {
+                line(out, name + "_bucket", prefix + "le=\"" + BUCKETS[i] + "\"", histogram.buckets[i].sum());
+            }
+            line(out, name + "_bucket", prefix + "le=\"+Inf\"", histogram.count.sum());
+            line(out, name + "_sum", labels, histogram.sumMillis.sum() / 1000.0);
+            line(out, name + "_count", labels, histogram.count.sum());
+        } else if (value instanceof Supplier) {
+            Object current;
+            try {
+                current = ((Supplier<?>) value).get();
+            } catch (RuntimeException e) {
+                // the source is not ready yet
+                return;
+            }
+            if (current != null) {
+                line(out, name, labels, current);
+            }
+        } else {
+            line(out, name, labels, value);
+        }
+    }
+
+    private static void line(StringBuilder out, String name, String labels, Object value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    private static Family family(String name, String type, String help) {
+        return FAMILIES.computeIfAbsent(name, k -> new Family(type, help));
+    }
+
+    private static String labelsText(String... labels) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            text.append(labels[i]).append("=\"")
+                    .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return text.toString();
+    }
+}
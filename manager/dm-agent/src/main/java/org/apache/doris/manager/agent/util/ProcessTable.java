@@ -0,0 +1,156 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.util;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read the processes of the agent user from /proc instead of forking `ps | grep`.
+ * The snapshot is cached for a short time, so all instance checks in one heartbeat share one scan.
+ */
+@Slf4j
+@Component
+public class ProcessTable {
+
+    private static final Path PROC = Paths.get("/proc");
+
+    // instance checks of one heartbeat are finished within this time
+    private static final long SNAPSHOT_TTL_MS = 1000L;
+
+    private List<ProcessEntry> snapshot = Collections.emptyList();
+
+    private long snapshotTime = 0L;
+
+    private Object currentUid;
+
+    @Data
+    @AllArgsConstructor
+    public static class ProcessEntry {
+        private int pid;
+
+        // arguments joined by space
+        private String cmdline;
+
+        // null if it can not be read
+        private String cwd;
+    }
+
+    public boolean isSupported() {
+        return Files.isDirectory(PROC.resolve("self"));
+    }
+
+    /**
+     * Find the pid of the process whose command line contains processName and which runs from moduleRoot.
+     * A process only matching the name is never accepted, it may be another instance of the same module
+     * deployed on this node, e.g. a stopped be must not resolve to the pid of a running one.
+     *
+     * return -1 if process is not running
+     */
+    public int findPid(String processName, String moduleRoot) {
+        String root = new File(moduleRoot).getAbsolutePath();
+        for (ProcessEntry entry : getSnapshot()) {
+            if (!entry.getCmdline().contains(processName)) {
+                continue;
+            }
+            if (entry.getCmdline().contains(root + File.separator)
+                    || (entry.getCwd() != null && isUnder(entry.getCwd(), root))) {
+                return entry.getPid();
+            }
+        }
+        return -1;
+    }
+
+    public synchronized List<ProcessEntry> getSnapshot() {
+        long now = System.currentTimeMillis();
+        if (now - snapshotTime > SNAPSHOT_TTL_MS) {
+            snapshot = scan();
+            snapshotTime = now;
+        }
+        return snapshot;
+    }
+
+    private List<ProcessEntry> scan() {
+        List<ProcessEntry> entries = new ArrayList<>();
+        File[] procDirs = PROC.toFile().listFiles();
+        if (procDirs == null) {
+            return entries;
+        }
+
+        for (File procDir : procDirs) {
+            int pid;
+            try {
+                pid = Integer.parseInt(procDir.getName());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            // the process may exit at any time during the scan
+            try {
+                Path path = procDir.toPath();
+                // same as `ps x`, only processes of the agent user
+                if (!getCurrentUid().equals(Files.getAttribute(path, "unix:uid"))) {
+                    continue;
+                }
+                byte[] cmdBytes = Files.readAllBytes(path.resolve("cmdline"));
+                if (cmdBytes.length == 0) {
+                    // kernel thread or zombie
+                    continue;
+                }
+                for (int i = 0; i < cmdBytes.length; i++) {
+                    if (cmdBytes[i] == 0) {
+                        cmdBytes[i] = ' ';
+                    }
+                }
+                String cwd = null;
+                try {
+                    cwd = Files.readSymbolicLink(path.resolve("cwd")).toString();
+                } catch (IOException | UnsupportedOperationException e) {
+                    log.debug("can not read cwd of process {}", pid);
+                }
+                entries.add(new ProcessEntry(pid, new String(cmdBytes, StandardCharsets.UTF_8).trim(), cwd));
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("skip process {}: {}", pid, e.getMessage());
+            }
+        }
+        return entries;
+    }
+
+    private Object getCurrentUid() throws IOException {
+        if (currentUid == null) {
+            currentUid = Files.getAttribute(PROC.resolve("self"), "unix:uid");
+        }
+        return currentUid;
+    }
+
+    private boolean isUnder(String path, String root) {
+        return path.equals(root) || path.startsWith(root + File.separator);
+    }
+}
@@ -18,19 +18,19 @@
 package org.apache.doris.manager.agent.util;
 
 import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.doris.manager.common.heartbeat.HeartBeatContext;
 import org.apache.doris.manager.common.heartbeat.HeartBeatResult;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.net.URI;
@@ -38,17 +38,35 @@ import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 
+@Component
 @Slf4j
 public class Request {
-    public static HeartBeatContext getHeartBeatContext(String requestUrl) {
+    // the body of the server when a heartbeat result is handled
+    private static final String ACKNOWLEDGED = "SUCCESS";
+
+    @Autowired
+    private AgentHttpClientPool httpClientPool;
+
+    public HeartBeatContext getHeartBeatContext(String requestUrl) {
+        return getHeartBeatContext(requestUrl, null);
+    }
+
+    public HeartBeatContext getHeartBeatContext(String requestUrl, String instanceVersion) {
         String ctx = null;
 
+        Map<String, Object> params = new HashMap<>();
+        if (instanceVersion != null) {
+            params.put("version", instanceVersion);
+        }
+
+        long start = System.currentTimeMillis();
         try {
-            ctx = sendGetRequest(requestUrl, new HashMap<>());
+            ctx = sendGetRequest(requestUrl, params);
             log.info("getHeartBeatContextResults:" + ctx);
         } catch (Exception e) {
             log.error("get heartbeat context error {}", e.getMessage());
         }
+        recordHeartBeatMetrics("context", start, false, ctx);
 
         if (ctx == null) {
             log.warn("no context return");
@@ -57,14 +75,97 @@ public class Request {
         return JSON.parseObject(ctx, HeartBeatContext.class);
     }
 
-    public static String sendHeartBeatContextResult(String requestUrl, HeartBeatResult res) throws IOException {
+    /**
+     * Send heartbeat result, the results are acknowledged only if the server returns SUCCESS
+     *
+     * @param requestUrl
+     * @param res
+     * @return
+     * @throws IOException if the result is not acknowledged, such as a non-2xx response or an error body
+     */
+    public String sendHeartBeatContextResult(String requestUrl, HeartBeatResult res) throws IOException {
         log.info("send heart beat context result {} to {}", JSON.toJSONString(res), requestUrl);
-        return sendPostRequest(requestUrl, JSON.toJSONString(res));
+        long start = System.currentTimeMillis();
+        String dealRes;
+        try {
+            dealRes = sendPostRequest(requestUrl, JSON.toJSONString(res));
+        } finally {
+            recordHeartBeatMetrics("result", start, false, null);
+        }
+        // the server returns errors as a 200 response with an error code body
+        if (dealRes == null || !ACKNOWLEDGED.equals(dealRes.trim().replace("\"", ""))) {
+            throw new IOException("heartbeat result is not acknowledged: " + dealRes);
+        }
+        return dealRes;
     }
 
-    public static String sendPostRequest(String requestUrl, String bodyJson) throws IOException {
+    /**
+     * Send heartbeat result and get the next heartbeat context in one request
+     *
+     * @param requestUrl
+     * @param res
+     * @param instanceVersion the instance version of last context the agent applied, null to get all
+     * @param waitMs the max time server waits for new events if there are none, 0 to return immediately
+     * @return
+     * @throws IOException
+     */
+    public HeartBeatContext exchangeHeartBeat(String requestUrl, HeartBeatResult res, String instanceVersion,
+                                              long waitMs) throws IOException {
+        URI url;
+        try {
+            URIBuilder uriBuilder = new URIBuilder(requestUrl);
+            if (instanceVersion != null) {
+                uriBuilder.addParameter("version", instanceVersion);
+            }
+            uriBuilder.addParameter("wait", String.valueOf(waitMs));
+            url = uriBuilder.build();
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+
+        HttpPost httpPost = new HttpPost(url);
+        RequestConfig defaultConfig = httpClientPool.getRequestConfig();
+        // the server may hold the request until waitMs
+        httpPost.setConfig(RequestConfig.copy(defaultConfig)
+                .setSocketTimeout((int) (defaultConfig.getSocketTimeout() + waitMs)).build());
+        httpPost.setEntity(new StringEntity(JSON.toJSONString(res), "utf-8"));
+        httpPost.addHeader("Content-Type", "application/json");
+
+        log.info("exchange heart beat result {} with {}", JSON.toJSONString(res), requestUrl);
+        long start = System.currentTimeMillis();
+        String ctx = null;
+        try {
+            // a non-2xx response is thrown here, the body of an error response is never parsed as a context
+            ctx = request(httpPost);
+        } finally {
+            recordHeartBeatMetrics("exchange", start, waitMs > 0, ctx);
+        }
+        return parseHeartBeatContext(ctx);
+    }
+
+    private HeartBeatContext parseHeartBeatContext(String ctx) throws IOException {
+        if (ctx == null || ctx.isEmpty()) {
+            throw new IOException("no context return");
+        }
+        HeartBeatContext heartBeatContext;
+        try {
+            JSONObject ctxJson = JSON.parseObject(ctx);
+            // the server returns errors as a 200 response with an error code body
+            if (ctxJson != null && ctxJson.containsKey("code")) {
+                throw new IOException("server error return: " + ctx);
+            }
+            heartBeatContext = ctxJson == null ? null : ctxJson.toJavaObject(HeartBeatContext.class);
+        } catch (JSONException e) {
+            throw new IOException("invalid context return: " + e.getMessage(), e);
+        }
+        if (heartBeatContext == null) {
+            throw new IOException("invalid context return: " + ctx);
+        }
+        return heartBeatContext;
+    }
+
+    public String sendPostRequest(String requestUrl, String bodyJson) throws IOException {
         HttpPost httpPost = new HttpPost(requestUrl);
-        httpPost.setConfig(timeout());
 
         httpPost.setEntity(new StringEntity(bodyJson, "utf-8"));
         httpPost.addHeader("Content-Type", "application/json");
@@ -77,9 +178,8 @@ public class Request {
         }
     }
 
-    public static String sendPostRequest(String requestUrl, Map<String, Object> params) {
+    public String sendPostRequest(String requestUrl, Map<String, Object> params) {
         HttpPost httpPost = new HttpPost(requestUrl);
-        httpPost.setConfig(timeout());
 
         httpPost.setEntity(new StringEntity(JSON.toJSONString(params), "utf-8"));
         httpPost.addHeader("Content-Type", "application/json");
@@ -92,7 +192,22 @@ public class Request {
         }
     }
 
-    public static String sendGetRequest(String requestUrl, Map<String, Object> params)
+    public String sendGetRequest(String requestUrl, Map<String, Object> params)
+            throws URISyntaxException, IOException {
+        return sendGetRequest(requestUrl, params, 0);
+    }
+
+    /**
+     * Send a get request
+     *
+     * @param requestUrl
+     * @param params
+     * @param timeoutMs the connect and socket timeout of this request, 0 to use the default of the pool
+     * @return
+     * @throws URISyntaxException
+     * @throws IOException
+     */
+    public String sendGetRequest(String requestUrl, Map<String, Object> params, int timeoutMs)
             throws URISyntaxException, IOException {
         URI url = null;
         try {
@@ -108,7 +223,12 @@ public class Request {
         }
 
         HttpGet httpGet = new HttpGet(url);
-        httpGet.setConfig(timeout());
+        if (timeoutMs > 0) {
+            httpGet.setConfig(RequestConfig.copy(httpClientPool.getRequestConfig())
+                    .setConnectTimeout(timeoutMs)
+                    .setConnectionRequestTimeout(timeoutMs)
+                    .setSocketTimeout(timeoutMs).build());
+        }
 
         try {
             return request(httpGet);
@@ -118,32 +238,16 @@ public class Request {
         }
     }
 
-    public static String request(HttpUriRequest request) throws IOException {
-        CloseableHttpClient httpclient = HttpClients.createDefault();
-        CloseableHttpResponse response = httpclient.execute(request);
-        String result = EntityUtils.toString(response.getEntity());
-        close(response, httpclient);
-        return result;
+    public String request(HttpUriRequest request) throws IOException {
+        return httpClientPool.execute(request);
     }
 
-    public static void close(CloseableHttpResponse response, CloseableHttpClient httpClient) {
-        try {
-            if (response != null) {
-                response.close();
-            }
-            if (httpClient != null) {
-                httpClient.close();
-            }
-        } catch (IOException e) {
-            log.error("close http connection failed", e);
+    // the round trip of a long polling request includes the time the server waits for new events
+    private void recordHeartBeatMetrics(String requestType, long start, boolean longPoll, String ctx) {
+        AgentMetrics.observe("agent_heartbeat_request_duration_seconds", "Round trip time of the heartbeat requests",
+                System.currentTimeMillis() - start, "request", requestType, "long_poll", String.valueOf(longPoll));
+        if (ctx != null) {
+            AgentMetrics.set("agent_heartbeat_context_bytes", "Size of the last heartbeat context", ctx.length());
         }
     }
-
-    public static RequestConfig timeout() {
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setConnectTimeout(5000)
-                .setConnectionRequestTimeout(5000)
-                .setSocketTimeout(5000).build();
-        return requestConfig;
-    }
 }
@@ -20,11 +20,13 @@ package org.apache.doris.manager.agent.util;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.exec.CommandLine;
 import org.apache.commons.exec.DefaultExecutor;
+import org.apache.commons.exec.ExecuteException;
 import org.apache.commons.exec.ExecuteWatchdog;
 import org.apache.commons.exec.PumpStreamHandler;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.Map;
@@ -36,6 +38,7 @@ public class ShellUtil {
     }
 
     public static int cmdExecute(String cmd) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
         Runtime rt = Runtime.getRuntime();
         String[] commands = {"/bin/bash", "-c", ""};
         commands[2] = cmd;
@@ -55,6 +58,7 @@ public class ShellUtil {
         }
 
         int exitVal = proc.waitFor();
+        recordMetrics(cmd, start, String.valueOf(exitVal));
         return exitVal;
     }
 
@@ -68,12 +72,15 @@ public class ShellUtil {
         ExecuteWatchdog watchdog = new ExecuteWatchdog(shellTimeout * 60 * 1000);
         executor.setWatchdog(watchdog);
         executor.setExitValues(succExitValue);
+        long start = System.currentTimeMillis();
         int exitValue = 0;
         try {
             exitValue = executor.execute(cmdLine, environment);
+            recordMetrics(shellCmd, start, String.valueOf(exitValue));
             return exitValue;
         } catch (IOException e) {
             log.error("execute shell Exception ", e);
+            recordMetrics(shellCmd, start, exitCodeOf(e));
             throw e;
         } finally {
             log.info("shell_cmd {} exit_value {}", shellCmd, exitValue);
@@ -96,16 +103,42 @@ public class ShellUtil {
         ExecuteWatchdog watchdog = new ExecuteWatchdog(shellTimeout * 60 * 1000);
         executor.setWatchdog(watchdog);
         executor.setExitValues(succExitValue);
+        long start = System.currentTimeMillis();
         int exitValue = 0;
         try {
             exitValue = executor.execute(cmdLine);
+            recordMetrics(shellCmd, start, String.valueOf(exitValue));
             return exitValue;
         } catch (IOException e) {
             log.info("ioexception", e);
+            recordMetrics(shellCmd, start, exitCodeOf(e));
             throw e;
         } finally {
             log.info("shell_cmd {} exit_value {} stdout {} stderr {}", shellCmd, exitValue,
                     outputStream.toString("UTF-8"), errorStream.toString("UTF-8"));
         }
     }
+
+    private static void recordMetrics(String shellCmd, long start, String exitCode) {
+        String command = commandName(shellCmd);
+        AgentMetrics.observe("agent_shell_command_duration_seconds", "Duration of the shell commands run by agent",
+                System.currentTimeMillis() - start, "command", command);
+        AgentMetrics.increment("agent_shell_command_exit_total", "Exit codes of the shell commands run by agent",
+                "command", command, "exit_code", exitCode);
+    }
+
+    private static String exitCodeOf(IOException e) {
+        return e instanceof ExecuteException ? String.valueOf(((ExecuteException) e).getExitValue()) : "error";
+    }
+
+    // The script name, such as start_fe.sh of `cd /opt/fe && sh bin/start_fe.sh`, or the first program
+    private static String commandName(String shellCmd) {
+        String[] tokens = shellCmd.trim().split("\\s+");
+        for (String token : tokens) {
+            if (token.endsWith(".sh")) {
+                return new File(token).getName();
+            }
+        }
+        return tokens.length == 0 ? "" : new File(tokens[0]).getName();
+    }
 }
@@ -0,0 +1,131 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.service;
+
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResult;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Map;
+
+public class EventResultJournalTest {
+
+    @TempDir
+    Path journalDir;
+
+    private EventResultJournal journal;
+
+    @BeforeEach
+    public void setUp() {
+        journal = newJournal();
+        Assertions.assertTrue(journal.replay().isEmpty());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        journal.destroy();
+    }
+
+    @Test
+    public void testReplayUnacknowledgedResults() throws Exception {
+        journal.append(result(1L, 1));
+        journal.append(result(2L, 1));
+        journal.sync();
+
+        Map<Long, HeartBeatEventResult> results = restart();
+        Assertions.assertEquals(2, results.size());
+        Assertions.assertEquals(1, results.get(1L).getEventStage());
+        Assertions.assertEquals(HeartBeatEventResultType.SUCCESS, results.get(2L).getResultType());
+    }
+
+    @Test
+    public void testLastStageWins() throws Exception {
+        journal.append(result(1L, 1));
+        journal.append(result(1L, 2));
+        journal.sync();
+
+        Map<Long, HeartBeatEventResult> results = restart();
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertEquals(2, results.get(1L).getEventStage());
+    }
+
+    @Test
+    public void testCompactDropsAcknowledgedResults() throws Exception {
+        HeartBeatEventResult unacknowledged = result(2L, 1);
+        journal.append(result(1L, 1));
+        journal.append(unacknowledged);
+        journal.sync();
+
+        journal.compact(Collections.singletonList(unacknowledged));
+        // appends still go to the compacted journal
+        journal.append(result(3L, 1));
+        journal.sync();
+
+        Map<Long, HeartBeatEventResult> results = restart();
+        Assertions.assertEquals(2, results.size());
+        Assertions.assertFalse(results.containsKey(1L));
+        Assertions.assertTrue(results.containsKey(2L));
+        Assertions.assertTrue(results.containsKey(3L));
+    }
+
+    @Test
+    public void testSkipBrokenLine() throws Exception {
+        journal.append(result(1L, 1));
+        journal.sync();
+        // the agent crashed while writing the last line
+        Files.write(journalDir.resolve("event_result.journal"),
+                "{\"eventId\":2,\"even".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        Map<Long, HeartBeatEventResult> results = restart();
+        Assertions.assertEquals(1, results.size());
+        Assertions.assertTrue(results.containsKey(1L));
+    }
+
+    private Map<Long, HeartBeatEventResult> restart() throws Exception {
+        journal.destroy();
+        journal = newJournal();
+        return journal.replay();
+    }
+
+    private EventResultJournal newJournal() {
+        EventResultJournal eventResultJournal = new EventResultJournal();
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("agent.result.journal.dir", journalDir.toString());
+        ReflectionTestUtils.setField(eventResultJournal, "environment", environment);
+        return eventResultJournal;
+    }
+
+    private HeartBeatEventResult result(long eventId, int stage) {
+        HeartBeatEventResult result = new HeartBeatEventResult();
+        result.setEventId(eventId);
+        result.setEventStage(stage);
+        result.setResultType(HeartBeatEventResultType.SUCCESS);
+        return result;
+    }
+}
@@ -0,0 +1,234 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.service;
+
+import org.apache.doris.manager.agent.service.heartbeat.DorisInstanceOperator;
+import org.apache.doris.manager.agent.service.heartbeat.EventProgressRegistry;
+import org.apache.doris.manager.agent.service.heartbeat.HeartbeatEventHandler;
+import org.apache.doris.manager.agent.util.Request;
+import org.apache.doris.manager.common.heartbeat.HeartBeatContext;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventInfo;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResult;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventType;
+import org.apache.http.client.HttpResponseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HeartBeatServiceTest {
+
+    private HeartBeatService heartBeatService;
+
+    private HeartbeatEventHandler eventHandler = Mockito.mock(HeartbeatEventHandler.class);
+
+    private Request request = Mockito.mock(Request.class);
+
+    private EventResultJournal resultJournal = Mockito.mock(EventResultJournal.class);
+
+    // the stage of the event server sends
+    private AtomicInteger eventStage = new AtomicInteger(1);
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        heartBeatService.destroy();
+    }
+
+    @Test
+    public void testFailedEventNotRetriedUntilBackoff() throws Exception {
+        heartBeatService = newHeartBeatService(60000L);
+        Mockito.when(eventHandler.handHeartBeatEvent(ArgumentMatchers.any()))
+                .thenThrow(new IllegalStateException("handle error"));
+
+        heartbeat();
+        // server sends the failed event again in the next heartbeats
+        heartbeat();
+        heartbeat();
+
+        Mockito.verify(eventHandler, Mockito.times(1)).handHeartBeatEvent(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testFailedEventRetriedAfterBackoff() throws Exception {
+        heartBeatService = newHeartBeatService(0L);
+        Mockito.when(eventHandler.handHeartBeatEvent(ArgumentMatchers.any())).thenReturn(null);
+
+        heartbeat();
+        heartbeat();
+
+        Mockito.verify(eventHandler, Mockito.times(2)).handHeartBeatEvent(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testNextStageOfCachedEvent() throws Exception {
+        heartBeatService = newHeartBeatService(60000L);
+        Mockito.when(eventHandler.handHeartBeatEvent(ArgumentMatchers.any()))
+                .thenAnswer(invocation -> result(invocation.getArgument(0), HeartBeatEventResultType.SUCCESS));
+        // server receives the results, but the agent does not know it
+        Mockito.when(request.sendHeartBeatContextResult(ArgumentMatchers.anyString(), ArgumentMatchers.any()))
+                .thenThrow(new IOException("read timeout"));
+
+        heartbeat();
+        heartbeat();
+        eventStage.set(2);
+        heartbeat();
+
+        Mockito.verify(eventHandler, Mockito.times(1)).handHeartBeatEvent(
+                ArgumentMatchers.argThat(eventInfo -> eventInfo.getEventStage() == 1));
+        Mockito.verify(eventHandler, Mockito.times(1)).handHeartBeatEvent(
+                ArgumentMatchers.argThat(eventInfo -> eventInfo.getEventStage() == 2));
+    }
+
+    @Test
+    public void testFailedResultCachedUntilAcknowledged() throws Exception {
+        heartBeatService = newHeartBeatService(60000L);
+        Mockito.when(eventHandler.handHeartBeatEvent(ArgumentMatchers.any()))
+                .thenAnswer(invocation -> result(invocation.getArgument(0), HeartBeatEventResultType.FAIL));
+        Mockito.when(request.sendHeartBeatContextResult(ArgumentMatchers.anyString(), ArgumentMatchers.any()))
+                .thenThrow(new IOException("server is down")).thenThrow(new IOException("server is down"))
+                .thenReturn("SUCCESS");
+
+        heartbeat();
+        // server sends the event again, it never got the failure
+        heartbeat();
+
+        Mockito.verify(eventHandler, Mockito.times(1)).handHeartBeatEvent(ArgumentMatchers.any());
+        Mockito.verify(resultJournal).append(
+                ArgumentMatchers.argThat(result -> result.getResultType() == HeartBeatEventResultType.FAIL));
+        Assertions.assertEquals(HeartBeatEventResultType.FAIL, cacheResults().get(1L).getResultType());
+
+        heartbeat();
+        Assertions.assertTrue(cacheResults().isEmpty());
+        Mockito.verify(resultJournal).compact(ArgumentMatchers.any());
+        Mockito.verify(eventHandler, Mockito.times(1)).handHeartBeatEvent(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testFallBackToSeparateRequests() throws Exception {
+        // the server is older than the combined heartbeat
+        Mockito.when(request.exchangeHeartBeat(ArgumentMatchers.anyString(), ArgumentMatchers.any(),
+                ArgumentMatchers.any(), ArgumentMatchers.anyLong()))
+                .thenThrow(new HttpResponseException(404, "unexpected http status 404"));
+        heartBeatService = newHeartBeatService(60000L, true);
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (isCombined()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "heartbeat does not fall back in time");
+            Thread.sleep(10L);
+        }
+
+        heartbeat();
+
+        Mockito.verify(request, Mockito.times(1)).exchangeHeartBeat(ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyLong());
+        Mockito.verify(request).getHeartBeatContext(ArgumentMatchers.anyString(), ArgumentMatchers.any());
+        Mockito.verify(eventHandler).handHeartBeatEvent(ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testCombinedKeptAfterServerError() throws Exception {
+        Mockito.when(request.exchangeHeartBeat(ArgumentMatchers.anyString(), ArgumentMatchers.any(),
+                ArgumentMatchers.any(), ArgumentMatchers.anyLong()))
+                .thenThrow(new HttpResponseException(502, "unexpected http status 502"));
+        heartBeatService = newHeartBeatService(60000L, true);
+
+        Mockito.verify(request, Mockito.timeout(10000L).atLeast(2)).exchangeHeartBeat(ArgumentMatchers.anyString(),
+                ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.anyLong());
+        Assertions.assertTrue(isCombined());
+    }
+
+    // one heartbeat tick, returns after the context task and the events of the tick are done
+    private void heartbeat() throws Exception {
+        heartBeatService.handleHeartBeatContextLoop();
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (isRunning()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "heartbeat is not done in time");
+            Thread.sleep(10L);
+        }
+    }
+
+    private boolean isRunning() {
+        // the events whose results are cached are done, they are removed after their results are sent
+        Map<?, ?> events = (Map<?, ?>) ReflectionTestUtils.getField(heartBeatService, "events");
+        return heartBeatService.getRunningEventCount() > 0 || heartBeatService.getEventQueueDepth() > 0
+                || !cacheResults().keySet().containsAll(events.keySet())
+                || ((AtomicBoolean) ReflectionTestUtils.getField(heartBeatService, "contextTaskRunning")).get();
+    }
+
+    private boolean isCombined() {
+        return (boolean) ReflectionTestUtils.getField(heartBeatService, "combined");
+    }
+
+    private Map<Long, HeartBeatEventResult> cacheResults() {
+        return (Map<Long, HeartBeatEventResult>) ReflectionTestUtils.getField(heartBeatService, "cacheResults");
+    }
+
+    private HeartBeatEventResult result(HeartBeatEventInfo eventInfo, HeartBeatEventResultType resultType) {
+        HeartBeatEventResult result = new HeartBeatEventResult(eventInfo);
+        result.setEventStage(eventInfo.getEventStage());
+        result.setResultType(resultType);
+        result.setCompleted(true);
+        return result;
+    }
+
+    private HeartBeatService newHeartBeatService(long retryBackoff) throws Exception {
+        return newHeartBeatService(retryBackoff, false);
+    }
+
+    private HeartBeatService newHeartBeatService(long retryBackoff, boolean combined) throws Exception {
+        HeartBeatService service = new HeartBeatService();
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("agent.heartbeat.combined", String.valueOf(combined));
+        environment.setProperty("agent.heartbeat.interval", "1");
+        environment.setProperty("agent.heartbeat.event.retry.backoff", String.valueOf(retryBackoff));
+        environment.setProperty("agent.node.id", "1");
+        environment.setProperty("manager.server.endpoint", "127.0.0.1:8080");
+
+        Mockito.when(resultJournal.replay()).thenReturn(Collections.emptyMap());
+        Mockito.when(request.getHeartBeatContext(ArgumentMatchers.anyString(), ArgumentMatchers.any()))
+                .thenAnswer(invocation -> {
+                    HeartBeatEventInfo eventInfo = new HeartBeatEventInfo();
+                    eventInfo.setEventId(1L);
+                    eventInfo.setEventType(HeartBeatEventType.INSTANCE_START);
+                    eventInfo.setEventStage(eventStage.get());
+                    HeartBeatContext ctx = new HeartBeatContext();
+                    ctx.setEvents(new ArrayList<>(Collections.singletonList(eventInfo)));
+                    ctx.setInstanceInfos(new ArrayList<>());
+                    return ctx;
+                });
+
+        ReflectionTestUtils.setField(service, "environment", environment);
+        ReflectionTestUtils.setField(service, "heartbeatEventHandler", eventHandler);
+        ReflectionTestUtils.setField(service, "instanceOpera", Mockito.mock(DorisInstanceOperator.class));
+        ReflectionTestUtils.setField(service, "request", request);
+        ReflectionTestUtils.setField(service, "resultJournal", resultJournal);
+        ReflectionTestUtils.setField(service, "progressRegistry", new EventProgressRegistry());
+        service.afterPropertiesSet();
+        return service;
+    }
+}
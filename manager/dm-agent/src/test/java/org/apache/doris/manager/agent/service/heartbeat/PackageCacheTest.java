@@ -0,0 +1,89 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.service.heartbeat;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class PackageCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    private PackageCache packageCache;
+
+    @BeforeEach
+    public void setUp() {
+        packageCache = new PackageCache();
+        MockEnvironment environment = new MockEnvironment();
+        environment.setProperty("agent.package.cache.dir", tempDir.resolve("cache").toString());
+        environment.setProperty("agent.package.cache.max.size", String.valueOf(1024L * 1024));
+        ReflectionTestUtils.setField(packageCache, "environment", environment);
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        PackageCache defaultCache = new PackageCache();
+        ReflectionTestUtils.setField(defaultCache, "environment", new MockEnvironment());
+        Assertions.assertFalse(defaultCache.isEnabled());
+    }
+
+    @Test
+    public void testOnlyBinAndLibAreLinked() throws Exception {
+        String key = packageCache.getKey("http://package", "sha256");
+        Path modulesDir = packageCache.getStagingDir(key).resolve("modules");
+        write(modulesDir.resolve("be/lib/palo_be"), "binary");
+        write(modulesDir.resolve("be/bin/start_be.sh"), "script");
+        write(modulesDir.resolve("be/conf/be.conf"), "conf");
+        write(modulesDir.resolve("be/www/index.html"), "www");
+
+        Path entry = packageCache.put(key, "http://package", modulesDir);
+        Path installDir = tempDir.resolve("install");
+        List<Path> materialized = packageCache.materialize(entry, installDir);
+
+        Path be = installDir.resolve("be");
+        Assertions.assertEquals(1, materialized.size());
+        Assertions.assertEquals(be, materialized.get(0));
+        Assertions.assertTrue(Files.isSameFile(entry.resolve("be/lib/palo_be"), be.resolve("lib/palo_be")));
+        Assertions.assertTrue(Files.isSameFile(entry.resolve("be/bin/start_be.sh"), be.resolve("bin/start_be.sh")));
+        Assertions.assertFalse(Files.isSameFile(entry.resolve("be/conf/be.conf"), be.resolve("conf/be.conf")));
+        Assertions.assertFalse(Files.isSameFile(entry.resolve("be/www/index.html"), be.resolve("www/index.html")));
+
+        // writing a copied file in place does not change the cache
+        write(be.resolve("www/index.html"), "changed");
+        Assertions.assertEquals("www", new String(Files.readAllBytes(entry.resolve("be/www/index.html")),
+                StandardCharsets.UTF_8));
+
+        // the modules already installed are skipped
+        Assertions.assertTrue(packageCache.materialize(entry, installDir).isEmpty());
+    }
+
+    private void write(Path file, String content) throws Exception {
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
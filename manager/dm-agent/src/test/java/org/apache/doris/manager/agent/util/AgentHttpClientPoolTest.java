@@ -0,0 +1,102 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+public class AgentHttpClientPoolTest {
+
+    private HttpServer server;
+
+    private AgentHttpClientPool httpClientPool;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/ok", exchange -> respond(exchange, 200, "{\"code\":0}"));
+        server.createContext("/error", exchange -> respond(exchange, 500, "{\"code\":500,\"msg\":\"error\"}"));
+        server.createContext("/missing", exchange -> respond(exchange, 404, "not found"));
+        server.start();
+
+        httpClientPool = new AgentHttpClientPool();
+        ReflectionTestUtils.setField(httpClientPool, "environment", new MockEnvironment());
+        httpClientPool.afterPropertiesSet();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        httpClientPool.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void testSuccessBodyIsReturned() throws Exception {
+        Assertions.assertEquals("{\"code\":0}", httpClientPool.execute(new HttpGet(url("/ok"))));
+    }
+
+    @Test
+    public void testErrorStatusIsNotAResponse() throws Exception {
+        HttpResponseException e = Assertions.assertThrows(HttpResponseException.class,
+                () -> httpClientPool.execute(new HttpGet(url("/error"))));
+        Assertions.assertEquals(500, e.getStatusCode());
+
+        e = Assertions.assertThrows(HttpResponseException.class,
+                () -> httpClientPool.execute(new HttpGet(url("/missing"))));
+        Assertions.assertEquals(404, e.getStatusCode());
+
+        // the connection of the error response is released, the pool still works
+        Assertions.assertEquals("{\"code\":0}", httpClientPool.execute(new HttpGet(url("/ok"))));
+        Assertions.assertEquals(0, httpClientPool.getPoolStats().getLeased());
+    }
+
+    @Test
+    public void testMonotonicCountsAreCounters() throws Exception {
+        httpClientPool.execute(new HttpGet(url("/ok")));
+
+        String metrics = AgentMetrics.scrape();
+        Assertions.assertTrue(metrics.contains("# TYPE agent_http_pool_requests_total counter"));
+        Assertions.assertTrue(metrics.contains("# TYPE agent_http_pool_connections_created_total counter"));
+        Assertions.assertFalse(metrics.contains("agent_http_pool_requests "));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.util;
+
+import org.apache.doris.manager.agent.util.ProcessTable.ProcessEntry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class ProcessTableTest {
+
+    private static final String BE_PROCESS = "palo_be";
+
+    // a fixed snapshot instead of reading /proc
+    private static class FakeProcessTable extends ProcessTable {
+        private final List<ProcessEntry> entries;
+
+        FakeProcessTable(ProcessEntry... entries) {
+            this.entries = Arrays.asList(entries);
+        }
+
+        @Override
+        public synchronized List<ProcessEntry> getSnapshot() {
+            return entries;
+        }
+    }
+
+    @Test
+    public void testFindPidByCmdline() {
+        ProcessTable processTable = new FakeProcessTable(
+                new ProcessEntry(100, "/data/be1/be/lib/palo_be", "/"),
+                new ProcessEntry(200, "/data/be2/be/lib/palo_be", "/"));
+
+        Assertions.assertEquals(100, processTable.findPid(BE_PROCESS, "/data/be1/be"));
+        Assertions.assertEquals(200, processTable.findPid(BE_PROCESS, "/data/be2/be"));
+    }
+
+    @Test
+    public void testFindPidByCwd() {
+        ProcessTable processTable = new FakeProcessTable(
+                new ProcessEntry(100, "./lib/palo_be", "/data/be1/be/bin"),
+                new ProcessEntry(200, "./lib/palo_be", "/data/be2/be/bin"));
+
+        Assertions.assertEquals(100, processTable.findPid(BE_PROCESS, "/data/be1/be"));
+        Assertions.assertEquals(200, processTable.findPid(BE_PROCESS, "/data/be2/be"));
+    }
+
+    @Test
+    public void testStoppedBeNotResolvedToOther() {
+        // be1 is stopped, only be2 is running
+        ProcessTable processTable = new FakeProcessTable(
+                new ProcessEntry(200, "/data/be2/be/lib/palo_be", "/data/be2/be"));
+
+        Assertions.assertEquals(-1, processTable.findPid(BE_PROCESS, "/data/be1/be"));
+        Assertions.assertEquals(200, processTable.findPid(BE_PROCESS, "/data/be2/be"));
+    }
+
+    @Test
+    public void testNameOnlyMatchIsNotAccepted() {
+        ProcessTable processTable = new FakeProcessTable(
+                new ProcessEntry(200, "./lib/palo_be", null));
+
+        Assertions.assertEquals(-1, processTable.findPid(BE_PROCESS, "/data/be1/be"));
+    }
+
+    @Test
+    public void testSiblingRootWithSamePrefix() {
+        ProcessTable processTable = new FakeProcessTable(
+                new ProcessEntry(200, "/data/be10/be/lib/palo_be", "/data/be10/be"));
+
+        Assertions.assertEquals(-1, processTable.findPid(BE_PROCESS, "/data/be1"));
+    }
+}
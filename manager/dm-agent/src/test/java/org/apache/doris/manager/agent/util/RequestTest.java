@@ -0,0 +1,114 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.manager.agent.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.doris.manager.common.heartbeat.HeartBeatContext;
+import org.apache.doris.manager.common.heartbeat.HeartBeatResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+public class RequestTest {
+
+    private static final String ERROR_BODY = "{\"msg\":\"ERROR:deal heartbeat error\",\"code\":1,\"count\":0}";
+
+    private HttpServer server;
+
+    private AgentHttpClientPool httpClientPool;
+
+    private Request request;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/result/ok", exchange -> respond(exchange, 200, "SUCCESS"));
+        server.createContext("/result/error", exchange -> respond(exchange, 200, ERROR_BODY));
+        server.createContext("/result/fail", exchange -> respond(exchange, 500, "SUCCESS"));
+        server.createContext("/heartbeat/ok", exchange -> respond(exchange, 200,
+                "{\"events\":[],\"instanceInfos\":[],\"instanceVersion\":\"1\",\"instanceChanged\":true}"));
+        server.createContext("/heartbeat/error", exchange -> respond(exchange, 200, ERROR_BODY));
+        server.createContext("/heartbeat/fail", exchange -> respond(exchange, 500, "{}"));
+        server.createContext("/heartbeat/broken", exchange -> respond(exchange, 200, "{\"events\":["));
+        server.start();
+
+        httpClientPool = new AgentHttpClientPool();
+        ReflectionTestUtils.setField(httpClientPool, "environment", new MockEnvironment());
+        httpClientPool.afterPropertiesSet();
+        request = new Request();
+        ReflectionTestUtils.setField(request, "httpClientPool", httpClientPool);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        httpClientPool.destroy();
+        server.stop(0);
+    }
+
+    @Test
+    public void testResultAcknowledged() throws Exception {
+        Assertions.assertEquals("SUCCESS", request.sendHeartBeatContextResult(url("/result/ok"),
+                new HeartBeatResult()));
+    }
+
+    @Test
+    public void testResultNotAcknowledged() {
+        Assertions.assertThrows(IOException.class,
+                () -> request.sendHeartBeatContextResult(url("/result/error"), new HeartBeatResult()));
+        Assertions.assertThrows(IOException.class,
+                () -> request.sendHeartBeatContextResult(url("/result/fail"), new HeartBeatResult()));
+    }
+
+    @Test
+    public void testExchangeHeartBeat() throws Exception {
+        HeartBeatContext ctx = request.exchangeHeartBeat(url("/heartbeat/ok"), new HeartBeatResult(), null, 0L);
+        Assertions.assertEquals("1", ctx.getInstanceVersion());
+        Assertions.assertTrue(ctx.getEvents().isEmpty());
+    }
+
+    @Test
+    public void testExchangeHeartBeatNotAcknowledged() {
+        Assertions.assertThrows(IOException.class,
+                () -> request.exchangeHeartBeat(url("/heartbeat/error"), new HeartBeatResult(), null, 0L));
+        Assertions.assertThrows(IOException.class,
+                () -> request.exchangeHeartBeat(url("/heartbeat/fail"), new HeartBeatResult(), null, 0L));
+        Assertions.assertThrows(IOException.class,
+                () -> request.exchangeHeartBeat(url("/heartbeat/broken"), new HeartBeatResult(), null, 0L));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+}
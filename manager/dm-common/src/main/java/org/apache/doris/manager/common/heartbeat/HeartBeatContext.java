@@ -29,4 +29,11 @@ import java.util.List;
 public class HeartBeatContext {
     List<HeartBeatEventInfo> events;
     List<InstanceInfo> instanceInfos;
+
+    // The version of instanceInfos, the agent sends it back with the next heartbeat
+    String instanceVersion;
+
+    // If the instances are not changed since the version sent by the agent,
+    // instanceInfos is empty and the agent uses the instances it cached
+    boolean instanceChanged = true;
 }
@@ -36,6 +36,9 @@ public class InstanceInstallEventConfigInfo {
 
     private String packageDir;
 
+    // Hex sha256 of the package, if it is empty, the agent checks the package by <packageDir>.sha256 if it exists
+    private String packageChecksum;
+
     // If it is a Observer node of Fe, it is not empty here. If it is a Follower node, it is empty
     private String followerEndpoint;
 
@@ -0,0 +1,97 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Wake up the long-polling heartbeat requests of an agent when a new heartbeat event is created for it,
+ * so the agent gets the event immediately instead of waiting for its next heartbeat.
+ */
+@Component
+@Slf4j
+public class AgentHeartBeatNotifyComponent implements DisposableBean {
+
+    // agent node id -> waiters of the long-polling heartbeat requests of the agent
+    private ConcurrentHashMap<Long, Set<Runnable>> waiters = new ConcurrentHashMap<>();
+
+    private ExecutorService notifyExecutor =
+            Executors.newFixedThreadPool(2, new CustomizableThreadFactory("heartbeat-notify-"));
+
+    public void addWaiter(long nodeId, Runnable waiter) {
+        waiters.computeIfAbsent(nodeId, k -> ConcurrentHashMap.newKeySet()).add(waiter);
+    }
+
+    public void removeWaiter(long nodeId, Runnable waiter) {
+        waiters.computeIfPresent(nodeId, (k, nodeWaiters) -> {
+            nodeWaiters.remove(waiter);
+            return nodeWaiters.isEmpty() ? null : nodeWaiters;
+        });
+    }
+
+    /**
+     * Notify the agent that a new heartbeat event is created.
+     * If it is called in a transaction, the agent is notified after the transaction is committed,
+     * otherwise the agent may not see the event yet.
+     *
+     * @param nodeId agent node id
+     */
+    public void notifyNewEvent(long nodeId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp(nodeId);
+                }
+            });
+        } else {
+            wakeUp(nodeId);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        notifyExecutor.shutdownNow();
+    }
+
+    private void wakeUp(long nodeId) {
+        Set<Runnable> nodeWaiters = waiters.remove(nodeId);
+        if (nodeWaiters == null) {
+            return;
+        }
+        log.debug("wake up {} heartbeat requests of agent {}", nodeWaiters.size(), nodeId);
+        for (Runnable waiter : nodeWaiters) {
+            try {
+                notifyExecutor.execute(waiter);
+            } catch (RejectedExecutionException e) {
+                log.warn("notify agent {} heartbeat error {}", nodeId, e.getMessage());
+            }
+        }
+    }
+}
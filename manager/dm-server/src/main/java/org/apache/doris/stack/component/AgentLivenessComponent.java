@@ -0,0 +1,156 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.stack.dao.ResourceNodeRepository;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Last heartbeat time of the agents, kept in memory and written to resource_node behind the heartbeats.
+ *
+ * A heartbeat only puts the current time into a map, the nodes seen since the last flush are written
+ * by one update statement every flush interval. The timestamp written is the earliest heartbeat of the batch,
+ * so the database never shows a node fresher than it is.
+ * After the manager restarts, the nodes not seen yet fall back to the timestamp in the database.
+ */
+@Component
+@Slf4j
+public class AgentLivenessComponent implements DisposableBean {
+
+    // max node ids in the in clause of one update statement
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    // cache of ResourceNodeRepository.findById
+    private static final String NODE_CACHE = "node_agent";
+
+    // agent node id -> System.nanoTime() of the last heartbeat
+    private ConcurrentHashMap<Long, Long> lastSeen = new ConcurrentHashMap<>();
+
+    // agent node id -> System.nanoTime() of the first heartbeat not flushed yet
+    private ConcurrentHashMap<Long, Long> unflushed = new ConcurrentHashMap<>();
+
+    // used to convert nano time to wall clock time
+    private final long baseMillis = System.currentTimeMillis();
+
+    private final long baseNanos = System.nanoTime();
+
+    @Autowired
+    private ResourceNodeRepository nodeRepository;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    public void heartbeat(long nodeId) {
+        long now = System.nanoTime();
+        lastSeen.put(nodeId, now);
+        unflushed.putIfAbsent(nodeId, now);
+    }
+
+    /**
+     * Get the time since the last heartbeat of the agent
+     *
+     * @param nodeId agent node id
+     * @return elapsed milliseconds, -1 if no heartbeat is received since the manager started
+     */
+    public long getElapsedMillis(long nodeId) {
+        Long seen = lastSeen.get(nodeId);
+        if (seen == null) {
+            return -1L;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - seen);
+    }
+
+    /**
+     * Get the wall clock time of the last heartbeat of the agent
+     *
+     * @param nodeId agent node id
+     * @return null if no heartbeat is received since the manager started
+     */
+    public Timestamp getLastHeartBeatTimestamp(long nodeId) {
+        Long seen = lastSeen.get(nodeId);
+        return seen == null ? null : toTimestamp(seen);
+    }
+
+    @Scheduled(fixedDelayString = "${agent.heartbeat.flush.interval:10000}")
+    public void flush() {
+        if (unflushed.isEmpty()) {
+            return;
+        }
+
+        List<Long> nodeIds = new ArrayList<>();
+        long earliest = Long.MAX_VALUE;
+        for (Long nodeId : unflushed.keySet()) {
+            // a heartbeat coming after the node is removed stays for the next flush
+            Long seen = unflushed.remove(nodeId);
+            if (seen != null) {
+                nodeIds.add(nodeId);
+                earliest = Math.min(earliest, seen);
+            }
+        }
+        if (nodeIds.isEmpty()) {
+            return;
+        }
+
+        Timestamp timestamp = toTimestamp(earliest);
+        for (int from = 0; from < nodeIds.size(); from += MAX_BATCH_SIZE) {
+            List<Long> batch = nodeIds.subList(from, Math.min(nodeIds.size(), from + MAX_BATCH_SIZE));
+            try {
+                int updated = nodeRepository.updateLastHeartBeatTimestamp(batch, timestamp);
+                log.debug("flush last heartbeat time of {} agent nodes, {} updated", batch.size(), updated);
+                evictNodes(batch);
+            } catch (Exception e) {
+                log.warn("flush last heartbeat time of {} agent nodes error: {}", batch.size(), e.getMessage());
+                for (Long nodeId : batch) {
+                    unflushed.putIfAbsent(nodeId, earliest);
+                }
+            }
+        }
+    }
+
+    // the update statement bypasses the cache, the cached entities would keep the old heartbeat time
+    private void evictNodes(List<Long> nodeIds) {
+        Cache cache = cacheManager.getCache(NODE_CACHE);
+        if (cache == null) {
+            return;
+        }
+        for (Long nodeId : nodeIds) {
+            cache.evict(nodeId);
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        flush();
+    }
+
+    private Timestamp toTimestamp(long nanos) {
+        return new Timestamp(baseMillis + TimeUnit.NANOSECONDS.toMillis(nanos - baseNanos));
+    }
+}
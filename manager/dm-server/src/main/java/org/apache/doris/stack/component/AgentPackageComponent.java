@@ -0,0 +1,133 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import com.google.common.hash.Hashing;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.stack.exceptions.ServerException;
+import org.apache.doris.stack.shell.TAR;
+import org.springframework.boot.system.ApplicationHome;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+/**
+ * The agent package distributed to the nodes, the agent dir of the manager home packed into one gzip archive.
+ *
+ * The archive is built once and rebuilt only after the agent dir is changed,
+ * its sha256 is the version of the agent, so the nodes with the same version installed can be skipped.
+ */
+@Component
+@Slf4j
+public class AgentPackageComponent {
+
+    public static final String AGENT_DIR = "agent";
+
+    public static final String ARCHIVE_NAME = "agent.tar.gz";
+
+    private static final String PACKAGE_DIR = "agent-package";
+
+    private static final String CHECKSUM_SUFFIX = ".sha256";
+
+    private AgentPackage agentPackage;
+
+    // the newest modify time of the files in the agent dir when the archive is built
+    private long builtModifyTime = -1L;
+
+    @Data
+    @AllArgsConstructor
+    public static class AgentPackage {
+        private File archive;
+
+        private String sha256;
+    }
+
+    public String getAgentHome() {
+        ApplicationHome applicationHome = new ApplicationHome();
+        String dorisManagerHome = applicationHome.getSource().getParentFile().getParentFile().getParentFile().toString();
+        return dorisManagerHome + File.separator + AGENT_DIR;
+    }
+
+    /**
+     * Get the archive of the agent package, it is built if the agent dir is changed
+     *
+     * @return agent package
+     */
+    public synchronized AgentPackage getPackage() {
+        File agentHome = new File(getAgentHome());
+        if (!agentHome.isDirectory()) {
+            log.error("agent dir {} does not exist", agentHome);
+            throw new ServerException("agent package does not exist");
+        }
+
+        long modifyTime = newestModifyTime(agentHome.toPath());
+        if (agentPackage != null && agentPackage.getArchive().exists() && modifyTime == builtModifyTime) {
+            return agentPackage;
+        }
+
+        File packageDir = new File(agentHome.getParentFile(), PACKAGE_DIR);
+        File archive = new File(packageDir, ARCHIVE_NAME);
+        File checksum = new File(packageDir, ARCHIVE_NAME + CHECKSUM_SUFFIX);
+        // write into a temp file first, the archive being downloaded is not changed
+        File tempArchive = new File(packageDir, ARCHIVE_NAME + ".tmp");
+        try {
+            // reuse the archive built before the manager restarts, so the version of the agent stays the same
+            if (archive.exists() && checksum.exists() && archive.lastModified() >= modifyTime) {
+                String sha256 = new String(Files.readAllBytes(checksum.toPath()), StandardCharsets.UTF_8).trim();
+                agentPackage = new AgentPackage(archive, sha256);
+                builtModifyTime = modifyTime;
+                return agentPackage;
+            }
+
+            Files.createDirectories(packageDir.toPath());
+            TAR tar = new TAR(tempArchive.getAbsolutePath(), agentHome.getParent(), agentHome.getName());
+            if (!tar.run()) {
+                throw new IOException("pack agent dir error: " + tar.getErrorResponse());
+            }
+            String sha256 = com.google.common.io.Files.asByteSource(tempArchive).hash(Hashing.sha256()).toString();
+            Files.move(tempArchive.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.write(checksum.toPath(), sha256.getBytes(StandardCharsets.UTF_8));
+
+            agentPackage = new AgentPackage(archive, sha256);
+            builtModifyTime = modifyTime;
+            log.info("build agent package {}, {} bytes, sha256 {}", archive, archive.length(), sha256);
+            return agentPackage;
+        } catch (IOException e) {
+            log.error("build agent package error:", e);
+            throw new ServerException("build agent package error: " + e.getMessage());
+        }
+    }
+
+    private long newestModifyTime(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.mapToLong(path -> path.toFile().lastModified()).max().orElse(0L);
+        } catch (IOException e) {
+            log.warn("walk agent dir {} error: {}", dir, e.getMessage());
+            return System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.stack.driver.JdbcSampleClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Register the fe observers, be and brokers of a doris cluster by ALTER SYSTEM.
+ *
+ * The nodes already registered are got from SHOW PROC first and skipped, so the registration can be retried.
+ * The backends and brokers are added with many hosts in one statement, a failed statement is retried
+ * with the hosts not registered yet. After that all the nodes are waited to be alive together.
+ */
+@Component
+@Slf4j
+public class DorisTopologyRegistrationComponent {
+
+    public enum NodeType {
+        FRONTEND("'/frontends'", "EditLogPort"),
+        BACKEND("'/backends'", "HeartbeatPort"),
+        BROKER("'/brokers'", "Port");
+
+        private final String procPath;
+
+        // the port of the address the node is registered with
+        private final String portColumn;
+
+        NodeType(String procPath, String portColumn) {
+            this.procPath = procPath;
+            this.portColumn = portColumn;
+        }
+    }
+
+    @Value("${topology.register.batch.size:100}")
+    private int batchSize;
+
+    @Value("${topology.register.retries:3}")
+    private int retries;
+
+    @Value("${topology.register.retry.interval.ms:1000}")
+    private long retryIntervalMs;
+
+    @Value("${topology.register.alive.timeout.seconds:300}")
+    private long aliveTimeoutSeconds;
+
+    @Value("${topology.register.check.interval.ms:3000}")
+    private long checkIntervalMs;
+
+    @Autowired
+    private JdbcSampleClient jdbcClient;
+
+    /**
+     * Register the nodes which are not registered yet and wait until all the nodes are alive
+     *
+     * @param stmt statement of the fe master
+     * @param nodes node type -> host:port of the nodes
+     * @throws Exception if a node can not be registered or is not alive in time
+     */
+    public void registerNodes(Statement stmt, Map<NodeType, List<String>> nodes) throws Exception {
+        for (Map.Entry<NodeType, List<String>> entry : nodes.entrySet()) {
+            NodeType type = entry.getKey();
+            List<String> newNodes = getNotRegistered(stmt, type, entry.getValue());
+            log.info("register {} {} nodes, {} are registered already", newNodes.size(), type,
+                    entry.getValue().size() - newNodes.size());
+
+            // an observer is added by one statement
+            int size = type == NodeType.FRONTEND ? 1 : Math.max(batchSize, 1);
+            for (List<String> batch : Lists.partition(newNodes, size)) {
+                addWithRetry(stmt, type, batch);
+            }
+        }
+        waitNodesAlive(stmt, nodes);
+    }
+
+    private void addWithRetry(Statement stmt, NodeType type, List<String> hostPorts) throws Exception {
+        List<String> pending = hostPorts;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                add(stmt, type, pending);
+                return;
+            } catch (Exception e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                log.warn("add {} {} error, retry {}: {}", type, pending, attempt, e.getMessage());
+                Thread.sleep(retryIntervalMs * attempt);
+                // the statement may fail after some nodes are added, such as by timeout
+                pending = getNotRegistered(stmt, type, pending);
+                if (pending.isEmpty()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void add(Statement stmt, NodeType type, List<String> hostPorts) throws Exception {
+        switch (type) {
+            case FRONTEND:
+                jdbcClient.addFeObserver(hostPorts, stmt);
+                break;
+            case BACKEND:
+                jdbcClient.addBe(hostPorts, stmt);
+                break;
+            default:
+                jdbcClient.addBrokerName(hostPorts, stmt);
+                break;
+        }
+    }
+
+    // All the nodes are checked by one query of each type, until they are all alive
+    private void waitNodesAlive(Statement stmt, Map<NodeType, List<String>> nodes) throws Exception {
+        long deadline = System.currentTimeMillis() + aliveTimeoutSeconds * 1000;
+        Map<NodeType, List<String>> notAlive = new EnumMap<>(NodeType.class);
+        nodes.forEach((type, hostPorts) -> notAlive.put(type, new ArrayList<>(hostPorts)));
+        while (true) {
+            for (Map.Entry<NodeType, List<String>> entry : notAlive.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    continue;
+                }
+                Map<String, Boolean> registered = jdbcClient.getNodesAlive(stmt, entry.getKey().procPath,
+                        entry.getKey().portColumn);
+                entry.getValue().removeIf(hostPort -> registered.getOrDefault(hostPort, false));
+            }
+            notAlive.values().removeIf(List::isEmpty);
+            if (notAlive.isEmpty()) {
+                log.info("all the registered nodes are alive");
+                return;
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                log.error("nodes {} are not alive in {}s", notAlive, aliveTimeoutSeconds);
+                throw new Exception("The nodes " + notAlive + " are not alive after registered, please check them"
+                        + " and retry");
+            }
+            log.debug("wait for nodes {} to be alive", notAlive);
+            Thread.sleep(checkIntervalMs);
+        }
+    }
+
+    private List<String> getNotRegistered(Statement stmt, NodeType type, List<String> hostPorts) throws Exception {
+        if (hostPorts.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<String, Boolean> registered = jdbcClient.getNodesAlive(stmt, type.procPath, type.portColumn);
+        List<String> notRegistered = new ArrayList<>();
+        for (String hostPort : hostPorts) {
+            if (!registered.containsKey(hostPort)) {
+                notRegistered.add(hostPort);
+            }
+        }
+        return notRegistered;
+    }
+}
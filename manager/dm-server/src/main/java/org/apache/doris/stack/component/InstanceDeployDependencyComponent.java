@@ -0,0 +1,111 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventType;
+import org.apache.doris.manager.common.heartbeat.stage.InstanceDeployEventStage;
+import org.apache.doris.stack.control.ModelControlState;
+import org.apache.doris.stack.dao.ClusterInstanceRepository;
+import org.apache.doris.stack.dao.HeartBeatEventRepository;
+import org.apache.doris.stack.entity.ClusterInstanceEntity;
+import org.apache.doris.stack.entity.HeartBeatEventEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The dependencies between the install events of the instances of a cluster.
+ *
+ * Every instance goes through download, config and start on its own, so an instance whose package is downloaded
+ * is configured and started while the other nodes are still downloading.
+ * The only stage which depends on other instances is the start of a fe observer, it joins the cluster
+ * by the follower given in its extra info, so it is held back until the install of the follower is completed.
+ */
+@Component
+@Slf4j
+public class InstanceDeployDependencyComponent {
+
+    @Autowired
+    private ClusterInstanceRepository instanceRepository;
+
+    @Autowired
+    private HeartBeatEventRepository heartBeatEventRepository;
+
+    @Autowired
+    private AgentHeartBeatNotifyComponent heartBeatNotifyComponent;
+
+    // nodes with held back events, they are notified when an install event is completed
+    private final Set<Long> waitingNodes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether the event of the instance should be held back until the instances it depends on are installed
+     *
+     * @param instance
+     * @param eventEntity current event of the instance
+     * @return true if the event can not be sent to the agent yet
+     */
+    public boolean isWaiting(ClusterInstanceEntity instance, HeartBeatEventEntity eventEntity) {
+        if (!eventEntity.getType().equals(HeartBeatEventType.INSTANCE_INSTALL.name())
+                || eventEntity.getStage() != InstanceDeployEventStage.INSTANCE_START.getStage()
+                || StringUtils.isEmpty(instance.getExtraInfo())) {
+            return false;
+        }
+
+        // the followers of the module are the instances without follower endpoint
+        Set<Long> followerEventIds = new HashSet<>();
+        for (ClusterInstanceEntity moduleInstance : instanceRepository.getByModuleId(instance.getModuleId())) {
+            if (StringUtils.isEmpty(moduleInstance.getExtraInfo())
+                    && moduleInstance.getCurrentState() != ModelControlState.RUNNING.getValue()
+                    && moduleInstance.getCurrentEventId() >= 1L) {
+                followerEventIds.add(moduleInstance.getCurrentEventId());
+            }
+        }
+        for (HeartBeatEventEntity followerEvent : heartBeatEventRepository.findAllById(followerEventIds)) {
+            // a failed follower does not hold back the observer, its start fails and is reported instead
+            if (followerEvent.getType().equals(HeartBeatEventType.INSTANCE_INSTALL.name())
+                    && !followerEvent.isCompleted()) {
+                log.debug("instance {} start waits for the follower install event {}", instance.getId(),
+                        followerEvent.getId());
+                waitingNodes.add(instance.getNodeId());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called when events are completed, the agents with held back events get their context again
+     *
+     * @param eventEntity completed event
+     */
+    public void eventCompleted(HeartBeatEventEntity eventEntity) {
+        if (waitingNodes.isEmpty() || !eventEntity.getType().equals(HeartBeatEventType.INSTANCE_INSTALL.name())) {
+            return;
+        }
+        for (Long nodeId : waitingNodes) {
+            // the event is checked again when the agent gets its context, and the node is added again if it waits
+            waitingNodes.remove(nodeId);
+            heartBeatNotifyComponent.notifyNewEvent(nodeId);
+        }
+    }
+}
@@ -0,0 +1,219 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.stack.shell.BaseCommand;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Executor of the blocking operations on the remote nodes, such as ssh and scp to install or uninstall agents.
+ *
+ * At most remote.node.executor.threads operations run at the same time, so they do not use up
+ * the common ForkJoinPool shared by the parallel streams of the server.
+ * The waiting operations are queued per resource cluster and taken from the clusters in turn,
+ * so a cluster onboarding hundreds of hosts does not hold back the operations of other clusters.
+ */
+@Component
+@Slf4j
+public class RemoteNodeExecutor implements InitializingBean, DisposableBean {
+
+    @Value("${remote.node.executor.threads:32}")
+    private int maxThreads;
+
+    @Value("${remote.node.executor.queue.size:10000}")
+    private int maxQueueSize;
+
+    private ExecutorService workers;
+
+    // resource cluster id -> waiting operations, the order of the keys is the turn of the clusters
+    private final LinkedHashMap<Long, Deque<Operation>> waiting = new LinkedHashMap<>();
+
+    private int queued = 0;
+
+    private int running = 0;
+
+    private final AtomicLong submittedCount = new AtomicLong();
+
+    private final AtomicLong completedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    // accumulated milliseconds the operations waited in the queue
+    private final AtomicLong waitMillis = new AtomicLong();
+
+    // a waiting operation, its future is failed if the operation is dropped without running
+    private static class Operation {
+        private final Runnable task;
+
+        private final CompletableFuture<?> future;
+
+        Operation(Runnable task, CompletableFuture<?> future) {
+            this.task = task;
+            this.future = future;
+        }
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        // the workers queue stays empty, operations are handed over only when a thread is free
+        workers = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("remote-node-"));
+        ((ThreadPoolExecutor) workers).allowCoreThreadTimeOut(true);
+        log.info("remote node executor threads {}, max queue size {}", maxThreads, maxQueueSize);
+    }
+
+    public CompletableFuture<Void> runAsync(long resourceClusterId, Runnable operation) {
+        return supplyAsync(resourceClusterId, () -> {
+            operation.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run an operation on a node of the resource cluster
+     *
+     * @param resourceClusterId
+     * @param operation
+     * @return future of the operation result, it fails with RejectedExecutionException if the queue is full
+     */
+    public <T> CompletableFuture<T> supplyAsync(long resourceClusterId, Supplier<T> operation) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long submitTime = System.currentTimeMillis();
+        Runnable task = () -> {
+            waitMillis.addAndGet(System.currentTimeMillis() - submitTime);
+            try {
+                future.complete(operation.get());
+            } catch (CompletionException e) {
+                future.completeExceptionally(e.getCause() == null ? e : e.getCause());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                completedCount.incrementAndGet();
+                finished();
+            }
+        };
+
+        synchronized (waiting) {
+            if (queued >= maxQueueSize) {
+                rejectedCount.incrementAndGet();
+                log.warn("remote node executor queue is full, reject operation of resource cluster {}",
+                        resourceClusterId);
+                future.completeExceptionally(new RejectedExecutionException(
+                        "too many remote node operations are waiting, please retry later"));
+                return future;
+            }
+            waiting.computeIfAbsent(resourceClusterId, k -> new ArrayDeque<>()).addLast(new Operation(task, future));
+            queued++;
+            submittedCount.incrementAndGet();
+            dispatch();
+        }
+        return future;
+    }
+
+    public int getQueuedCount() {
+        synchronized (waiting) {
+            return queued;
+        }
+    }
+
+    public int getRunningCount() {
+        synchronized (waiting) {
+            return running;
+        }
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void logStatistics() {
+        long completed = completedCount.get();
+        if (submittedCount.get() == 0) {
+            return;
+        }
+        log.info("remote node executor: running {}, queued {}, submitted {}, completed {}, rejected {}, "
+                        + "average wait {} ms", getRunningCount(), getQueuedCount(), submittedCount.get(), completed,
+                rejectedCount.get(), completed == 0 ? 0 : waitMillis.get() / completed);
+        BaseCommand.getStatistics().forEach((name, statistics) -> log.info("command {}: {}", name, statistics));
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        synchronized (waiting) {
+            // the callers waiting for the operations are not blocked forever
+            for (Deque<Operation> operations : waiting.values()) {
+                for (Operation operation : operations) {
+                    operation.future.completeExceptionally(
+                            new RejectedExecutionException("remote node executor is shut down"));
+                }
+            }
+            waiting.clear();
+            queued = 0;
+        }
+        workers.shutdownNow();
+    }
+
+    private void finished() {
+        synchronized (waiting) {
+            running--;
+            dispatch();
+        }
+    }
+
+    // Hand the waiting operations over to the free threads, one operation of each cluster in turn
+    private void dispatch() {
+        while (running < maxThreads && queued > 0) {
+            Map.Entry<Long, Deque<Operation>> next = waiting.entrySet().iterator().next();
+            Long resourceClusterId = next.getKey();
+            Deque<Operation> operations = waiting.remove(resourceClusterId);
+            Operation operation = operations.pollFirst();
+            if (!operations.isEmpty()) {
+                // move the cluster to the end of the turn
+                waiting.put(resourceClusterId, operations);
+            }
+            queued--;
+            running++;
+            try {
+                workers.execute(operation.task);
+            } catch (RejectedExecutionException e) {
+                // the executor is shutting down
+                running--;
+                log.warn("remote node executor is shut down, drop operation of resource cluster {}",
+                        resourceClusterId);
+                operation.future.completeExceptionally(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.stack.model.response.control.RequestProgressInfo;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Fan out the progress of the control requests to the server-sent-events streams watching them.
+ * The progress is published once when the heartbeat results are ingested,
+ * and sent to all the watchers of the request from memory, so watchers do not poll the database.
+ */
+@Component
+@Slf4j
+public class RequestProgressHub implements DisposableBean {
+
+    public static final String EVENT_PROGRESS = "event";
+
+    public static final String REQUEST_PROGRESS = "request";
+
+    // a watcher reconnects after the stream times out
+    private static final long STREAM_TIMEOUT_MS = 30 * 60 * 1000L;
+
+    // request id -> streams watching the request
+    private ConcurrentHashMap<Long, Set<SseEmitter>> watchers = new ConcurrentHashMap<>();
+
+    // one thread keeps the messages of a request in order, and a slow watcher does not block the heartbeats
+    private ExecutorService sendExecutor =
+            Executors.newSingleThreadExecutor(new CustomizableThreadFactory("request-progress-"));
+
+    public SseEmitter subscribe(long requestId) {
+        SseEmitter emitter = new SseEmitter(STREAM_TIMEOUT_MS);
+        watchers.computeIfAbsent(requestId, k -> ConcurrentHashMap.newKeySet()).add(emitter);
+        emitter.onCompletion(() -> unsubscribe(requestId, emitter));
+        emitter.onTimeout(() -> unsubscribe(requestId, emitter));
+        emitter.onError(e -> unsubscribe(requestId, emitter));
+        return emitter;
+    }
+
+    public boolean hasWatchers(long requestId) {
+        return watchers.containsKey(requestId);
+    }
+
+    // Send the current state to a new watcher, which may be followed by the progress published in the meantime
+    public void sendSnapshot(SseEmitter emitter, List<RequestProgressInfo> progressInfos, boolean completed) {
+        execute(() -> {
+            for (RequestProgressInfo progressInfo : progressInfos) {
+                String name = progressInfo.getEventId() > 0 ? EVENT_PROGRESS : REQUEST_PROGRESS;
+                if (!send(emitter, name, progressInfo)) {
+                    return;
+                }
+            }
+            if (completed) {
+                emitter.complete();
+            }
+        });
+    }
+
+    /**
+     * Publish the progress of a heartbeat event of the request
+     *
+     * @param progressInfo event progress
+     */
+    public void publishEvent(RequestProgressInfo progressInfo) {
+        publish(progressInfo.getRequestId(), EVENT_PROGRESS, progressInfo, false);
+    }
+
+    /**
+     * Publish the state of the request, the streams are closed if the request is completed
+     *
+     * @param progressInfo request state
+     */
+    public void publishRequest(RequestProgressInfo progressInfo) {
+        publish(progressInfo.getRequestId(), REQUEST_PROGRESS, progressInfo, progressInfo.isCompleted());
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        sendExecutor.shutdownNow();
+        watchers.values().forEach(emitters -> emitters.forEach(SseEmitter::complete));
+        watchers.clear();
+    }
+
+    private void publish(long requestId, String name, RequestProgressInfo progressInfo, boolean completed) {
+        if (!hasWatchers(requestId)) {
+            return;
+        }
+        execute(() -> {
+            Set<SseEmitter> emitters = completed ? watchers.remove(requestId) : watchers.get(requestId);
+            if (emitters == null) {
+                return;
+            }
+            for (SseEmitter emitter : emitters) {
+                if (send(emitter, name, progressInfo) && completed) {
+                    emitter.complete();
+                }
+            }
+        });
+    }
+
+    private boolean send(SseEmitter emitter, String name, RequestProgressInfo progressInfo) {
+        try {
+            emitter.send(SseEmitter.event().name(name).data(progressInfo, MediaType.APPLICATION_JSON));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            // the watcher has gone
+            log.debug("send request {} progress error: {}", progressInfo.getRequestId(), e.getMessage());
+            emitter.completeWithError(e);
+            return false;
+        }
+    }
+
+    private void execute(Runnable task) {
+        try {
+            sendExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.warn("send request progress error {}", e.getMessage());
+        }
+    }
+
+    private void unsubscribe(long requestId, SseEmitter emitter) {
+        watchers.computeIfPresent(requestId, (k, emitters) -> {
+            emitters.remove(emitter);
+            return emitters.isEmpty() ? null : emitters;
+        });
+    }
+}
@@ -26,6 +26,7 @@ import org.apache.doris.manager.common.heartbeat.config.InstanceInstallEventConf
 import org.apache.doris.manager.common.heartbeat.config.InstanceRestartEventConfigInfo;
 import org.apache.doris.manager.common.heartbeat.config.InstanceStartEventConfigInfo;
 import org.apache.doris.manager.common.heartbeat.config.InstanceStopEventConfigInfo;
+import org.apache.doris.stack.component.AgentHeartBeatNotifyComponent;
 import org.apache.doris.stack.dao.ClusterInstanceRepository;
 import org.apache.doris.stack.dao.HeartBeatEventRepository;
 import org.apache.doris.stack.dao.ResourceNodeRepository;
@@ -34,7 +35,17 @@ import org.apache.doris.stack.entity.ClusterModuleEntity;
 import org.apache.doris.stack.entity.HeartBeatEventEntity;
 import org.apache.doris.stack.entity.ResourceNodeEntity;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Slf4j
 @Component
@@ -49,6 +60,15 @@ public class DorisClusterInstanceManager {
     @Autowired
     private HeartBeatEventRepository heartBeatEventRepository;
 
+    @Autowired
+    private AgentHeartBeatNotifyComponent heartBeatNotifyComponent;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private CacheManager cacheManager;
+
     public long initOperation(long clusterId, ClusterModuleEntity moudle, long nodeId) {
         // TODO:Judge whether node can deploy this instance
         log.info("create a new instance for cluster {} moudle {} on node {}", clusterId, moudle.getModuleName(), nodeId);
@@ -76,6 +96,7 @@ public class DorisClusterInstanceManager {
 
             instance.setCurrentEventId(newEventEntity.getId());
             clusterInstanceRepository.save(instance);
+            heartBeatNotifyComponent.notifyNewEvent(instance.getNodeId());
         } else {
             log.debug("deploy instance {} heart beat event {} exist", instance.getId(), eventId);
             HeartBeatEventEntity eventEntity = heartBeatEventRepository.findById(eventId).get();
@@ -89,13 +110,44 @@ public class DorisClusterInstanceManager {
                 return;
             }
 
+            if (eventEntity.isCompleted()) {
+                // The failed install is not run again by the agent, a new event of this request installs it again
+                log.info("instance {} install event {} failed, install it again for request {}", instance.getId(),
+                        eventId, requestId);
+                saveInstanceNewHeartBeat(instance, JSON.toJSONString(configInfo), HeartBeatEventType.INSTANCE_INSTALL,
+                        requestId);
+                return;
+            }
+
+            // the running install is waited by this request
             eventEntity.setStatus(HeartBeatEventResultType.INIT.name());
             eventEntity.setConfigInfo(JSON.toJSONString(configInfo));
+            eventEntity.setRequestId(requestId);
 
             heartBeatEventRepository.save(eventEntity);
+            heartBeatNotifyComponent.notifyNewEvent(instance.getNodeId());
         }
     }
 
+    public void deployOperation(List<ClusterInstanceEntity> instances, InstanceInstallEventConfigInfo configInfo,
+                                long requestId) {
+        log.info("deploy {} instances for request {}", instances.size(), requestId);
+        List<ClusterInstanceEntity> firstInstances = new ArrayList<>();
+        List<String> configs = new ArrayList<>();
+        for (ClusterInstanceEntity instance : instances) {
+            configInfo.setInstallInfo(instance.getInstallInfo());
+            configInfo.setFollowerEndpoint(instance.getExtraInfo());
+            if (instance.getCurrentEventId() < 1L) {
+                firstInstances.add(instance);
+                configs.add(JSON.toJSONString(configInfo));
+            } else {
+                // the install event exists, a failed one is installed again by a new event
+                deployOperation(instance, configInfo, requestId);
+            }
+        }
+        saveInstancesNewHeartBeat(firstInstances, configs, HeartBeatEventType.INSTANCE_INSTALL, requestId);
+    }
+
     public void checkDeployOperation(ClusterInstanceEntity instance, InstanceDeployCheckEventConfigInfo configInfo,
                                      long requestId) {
         log.info("check instance {} deploy", instance.getId());
@@ -110,6 +162,7 @@ public class DorisClusterInstanceManager {
 
             instance.setCurrentEventId(newEventEntity.getId());
             clusterInstanceRepository.save(instance);
+            heartBeatNotifyComponent.notifyNewEvent(instance.getNodeId());
         } else {
             log.debug("check instance {} deploy heart beat event {} exist", instance.getId(), eventId);
             HeartBeatEventEntity eventEntity = heartBeatEventRepository.findById(eventId).get();
@@ -127,6 +180,7 @@ public class DorisClusterInstanceManager {
             eventEntity.setConfigInfo(JSON.toJSONString(configInfo));
 
             heartBeatEventRepository.save(eventEntity);
+            heartBeatNotifyComponent.notifyNewEvent(instance.getNodeId());
         }
     }
 
@@ -158,6 +212,17 @@ public class DorisClusterInstanceManager {
                 HeartBeatEventType.INSTANCE_START, requestId);
     }
 
+    public void startOperation(List<ClusterInstanceEntity> instances, InstanceStartEventConfigInfo configInfo,
+                               long requestId) {
+        log.info("start {} instances for request {}", instances.size(), requestId);
+        List<String> configs = new ArrayList<>();
+        for (ClusterInstanceEntity instance : instances) {
+            configInfo.setInstallInfo(instance.getInstallInfo());
+            configs.add(JSON.toJSONString(configInfo));
+        }
+        saveInstancesNewHeartBeat(instances, configs, HeartBeatEventType.INSTANCE_START, requestId);
+    }
+
     public void stopOperation(ClusterInstanceEntity instance, InstanceStopEventConfigInfo configInfo,
                                long requestId) {
         log.info("stop instance {} for request {}", instance.getId(), requestId);
@@ -165,6 +230,17 @@ public class DorisClusterInstanceManager {
                 HeartBeatEventType.INSTANCE_STOP, requestId);
     }
 
+    public void stopOperation(List<ClusterInstanceEntity> instances, InstanceStopEventConfigInfo configInfo,
+                              long requestId) {
+        log.info("stop {} instances for request {}", instances.size(), requestId);
+        List<String> configs = new ArrayList<>();
+        for (ClusterInstanceEntity instance : instances) {
+            configInfo.setInstallInfo(instance.getInstallInfo());
+            configs.add(JSON.toJSONString(configInfo));
+        }
+        saveInstancesNewHeartBeat(instances, configs, HeartBeatEventType.INSTANCE_STOP, requestId);
+    }
+
     public void restartOperation(ClusterInstanceEntity instance, InstanceRestartEventConfigInfo configInfo,
                                  long requestId) {
         log.info("restart instance {} for request {}", instance.getId(), requestId);
@@ -172,6 +248,39 @@ public class DorisClusterInstanceManager {
                 HeartBeatEventType.INSTANCE_RESTART, requestId);
     }
 
+    public void restartOperation(List<ClusterInstanceEntity> instances, InstanceRestartEventConfigInfo configInfo,
+                                 long requestId) {
+        log.info("restart {} instances for request {}", instances.size(), requestId);
+        List<String> configs = new ArrayList<>();
+        for (ClusterInstanceEntity instance : instances) {
+            configInfo.setInstallInfo(instance.getInstallInfo());
+            configs.add(JSON.toJSONString(configInfo));
+        }
+        saveInstancesNewHeartBeat(instances, configs, HeartBeatEventType.INSTANCE_RESTART, requestId);
+    }
+
+    /**
+     * Get the status of the current events of the instances together
+     *
+     * @param instances
+     * @return SUCCESS if all the events succeed, FAIL if any one fails, otherwise PROCESSING
+     */
+    public HeartBeatEventResultType getEventsStatus(List<ClusterInstanceEntity> instances) {
+        List<Long> eventIds = new ArrayList<>();
+        instances.forEach(instance -> eventIds.add(instance.getCurrentEventId()));
+        List<HeartBeatEventEntity> eventEntities = heartBeatEventRepository.findAllById(eventIds);
+
+        boolean allSucceeded = eventEntities.size() == instances.size();
+        for (HeartBeatEventEntity eventEntity : eventEntities) {
+            if (!eventEntity.isCompleted()) {
+                allSucceeded = false;
+            } else if (!eventEntity.getStatus().equals(HeartBeatEventResultType.SUCCESS.name())) {
+                return HeartBeatEventResultType.FAIL;
+            }
+        }
+        return allSucceeded ? HeartBeatEventResultType.SUCCESS : HeartBeatEventResultType.PROCESSING;
+    }
+
     public void deleteOperation(ClusterInstanceEntity instance) {
         log.info("delete instance {}", instance.getId());
         clusterInstanceRepository.delete(instance);
@@ -186,6 +295,57 @@ public class DorisClusterInstanceManager {
 
         instance.setCurrentEventId(newEventEntity.getId());
         clusterInstanceRepository.save(instance);
+        heartBeatNotifyComponent.notifyNewEvent(instance.getNodeId());
+    }
+
+    /**
+     * Save the new events of many instances together, such as all the instances of a module operation.
+     * The events and the current events of the instances are saved in one transaction, the updates of the
+     * instances are sent by the jdbc batch, and every agent is notified once after they are committed.
+     *
+     * @param instances
+     * @param configs event config of each instance
+     * @param eventType
+     * @param requestId
+     */
+    private void saveInstancesNewHeartBeat(List<ClusterInstanceEntity> instances, List<String> configs,
+                                           HeartBeatEventType eventType, long requestId) {
+        if (instances.isEmpty()) {
+            return;
+        }
+        List<HeartBeatEventEntity> eventEntities = new ArrayList<>();
+        Map<Long, HeartBeatEventEntity> instanceEvents = new HashMap<>();
+        for (int i = 0; i < instances.size(); i++) {
+            HeartBeatEventEntity eventEntity = new HeartBeatEventEntity(eventType.name(),
+                    HeartBeatEventResultType.INIT.name(), configs.get(i), requestId);
+            eventEntities.add(eventEntity);
+            instanceEvents.put(instances.get(i).getId(), eventEntity);
+        }
+
+        transactionTemplate.executeWithoutResult(status -> {
+            heartBeatEventRepository.saveAll(eventEntities);
+            // The instances are loaded by one query, and their updates are flushed together when committed
+            List<ClusterInstanceEntity> instanceEntities =
+                    clusterInstanceRepository.findAllById(instanceEvents.keySet());
+            for (ClusterInstanceEntity instanceEntity : instanceEntities) {
+                instanceEntity.setCurrentEventId(instanceEvents.get(instanceEntity.getId()).getId());
+            }
+            clusterInstanceRepository.saveAll(instanceEntities);
+        });
+
+        Set<Long> nodeIds = new LinkedHashSet<>();
+        for (ClusterInstanceEntity instance : instances) {
+            instance.setCurrentEventId(instanceEvents.get(instance.getId()).getId());
+            nodeIds.add(instance.getNodeId());
+        }
+        log.debug("saved {} {} events for request {}", eventEntities.size(), eventType, requestId);
+        // The saveAll eviction runs before the commit, a heartbeat of the nodes in between caches the
+        // instances with the old event ids again, so they are evicted again after the commit
+        Cache instanceCache = cacheManager.getCache("cluster_instance");
+        if (instanceCache != null) {
+            nodeIds.forEach(instanceCache::evict);
+        }
+        nodeIds.forEach(heartBeatNotifyComponent::notifyNewEvent);
     }
 
 }
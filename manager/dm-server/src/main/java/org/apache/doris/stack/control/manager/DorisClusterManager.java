@@ -21,6 +21,7 @@ import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.doris.manager.common.util.ServerAndAgentConstant;
 import org.apache.doris.stack.component.DorisManagerUserSpaceComponent;
+import org.apache.doris.stack.component.DorisTopologyRegistrationComponent;
 import org.apache.doris.stack.dao.ClusterInfoRepository;
 import org.apache.doris.stack.dao.ClusterInstanceRepository;
 import org.apache.doris.stack.dao.ClusterModuleRepository;
@@ -45,7 +46,9 @@ import org.springframework.transaction.annotation.Transactional;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @Slf4j
@@ -76,9 +79,18 @@ public class DorisClusterManager {
     @Autowired
     private DorisClusterModuleManager clusterModuleManager;
 
+    @Autowired
+    private DorisClusterRollingRestartManager rollingRestartManager;
+
+    @Autowired
+    private DorisClusterResizeManager resizeManager;
+
     @Autowired
     private JdbcSampleClient jdbcClient;
 
+    @Autowired
+    private DorisTopologyRegistrationComponent topologyRegistrationComponent;
+
     // Ensure the data atomicity of creating user space, so add transactions
     @Transactional(rollbackFor = Exception.class)
     public long initOperation(NewUserSpaceCreateReq spaceInfo, String creator) throws Exception {
@@ -220,40 +232,28 @@ public class DorisClusterManager {
         // get doris jdbc connection
         String feHost = feAccessInfo.get(0);
         Statement stmt = jdbcClient.getStatement(feHost, feJdbcPort, ServerAndAgentConstant.USER_ROOT, "");
-        // add fe Observer
-        log.debug("Add fe Observers {}", feObserverInfo);
-        List<String> feObserverHostsPorts = new ArrayList<>();
-        for (String feObserverHost : feObserverInfo) {
-            String feObserverHostsPort = feObserverHost + ":" + feEditPort;
-            feObserverHostsPorts.add(feObserverHostsPort);
-        }
-        jdbcClient.addFeObserver(feObserverHostsPorts, stmt);
-
-        // add be
-        log.debug("Add be {}", beAccessInfo);
-        List<String> beHostsPorts = new ArrayList<>();
-        for (String beHost : beAccessInfo) {
-            String beHostsPort = beHost + ":" + beHeartPort;
-            beHostsPorts.add(beHostsPort);
+        try {
+            Map<DorisTopologyRegistrationComponent.NodeType, List<String>> nodes = new LinkedHashMap<>();
+            // add fe Observer
+            log.debug("Add fe Observers {}", feObserverInfo);
+            nodes.put(DorisTopologyRegistrationComponent.NodeType.FRONTEND, hostPorts(feObserverInfo, feEditPort));
+            // add be
+            log.debug("Add be {}", beAccessInfo);
+            nodes.put(DorisTopologyRegistrationComponent.NodeType.BACKEND, hostPorts(beAccessInfo, beHeartPort));
+            // add broker
+            log.debug("Add broker {}", brokerAccessInfo);
+            nodes.put(DorisTopologyRegistrationComponent.NodeType.BROKER, hostPorts(brokerAccessInfo, brokerRpcPort));
+            // The nodes registered by the last try are skipped, so this step can be retried
+            topologyRegistrationComponent.registerNodes(stmt, nodes);
+
+            // update password
+            log.debug("Update doris root and admin user default password.");
+            jdbcClient.updateUserPassword(ServerAndAgentConstant.USER_ADMIN, newPassword, stmt);
+            jdbcClient.updateUserPassword(ServerAndAgentConstant.USER_ROOT, newPassword, stmt);
+        } finally {
+            // close jdbc connection
+            jdbcClient.closeStatement(stmt);
         }
-        jdbcClient.addBe(beHostsPorts, stmt);
-
-        // add broker
-        log.debug("Add broker {}", brokerAccessInfo);
-        List<String> brokerHostsPorts = new ArrayList<>();
-        for (String brokerHost : brokerAccessInfo) {
-            String brokerHostsPort = brokerHost + ":" + brokerRpcPort;
-            brokerHostsPorts.add(brokerHostsPort);
-        }
-        jdbcClient.addBrokerName(brokerHostsPorts, stmt);
-
-        // update password
-        log.debug("Update doris root and admin user default password.");
-        jdbcClient.updateUserPassword(ServerAndAgentConstant.USER_ADMIN, newPassword, stmt);
-        jdbcClient.updateUserPassword(ServerAndAgentConstant.USER_ROOT, newPassword, stmt);
-
-        // close jdbc connection
-        jdbcClient.closeStatement(stmt);
 
         // get cluster fe access info
         ClusterCreateReq clusterAccessInfo = new ClusterCreateReq();
@@ -266,6 +266,14 @@ public class DorisClusterManager {
         return clusterAccessInfo;
     }
 
+    private List<String> hostPorts(List<String> hosts, int port) {
+        List<String> hostPorts = new ArrayList<>();
+        for (String host : hosts) {
+            hostPorts.add(host + ":" + port);
+        }
+        return hostPorts;
+    }
+
     public void clusterAccessOperation(long clusterId, ClusterCreateReq clusterAccessInfo) throws Exception {
         log.info("Access cluster {} operation.", clusterId);
         ClusterInfoEntity clusterInfo = clusterRepository.findById(clusterId).get();
@@ -310,11 +318,15 @@ public class DorisClusterManager {
 
     public void reStartClusterOperation(long clusterId, long requestId) throws Exception {
         log.info("Restart cluster {} instances operation.", clusterId);
-        List<ClusterModuleEntity> moduleEntities = moduleRepository.getByClusterId(clusterId);
+        // The instances are restarted in waves, so the cluster keeps serving during the restart
+        rollingRestartManager.restartOperation(clusterId, requestId);
+    }
 
-        for (ClusterModuleEntity moduleEntity : moduleEntities) {
-            clusterModuleManager.restartOperation(moduleEntity, requestId);
-        }
+    public void resizeClusterOperation(long clusterId, long requestId,
+                                       List<DorisClusterModuleResourceConfig> nodeConfigs) throws Exception {
+        log.info("Resize cluster {} instances operation.", clusterId);
+        // Only the added and removed instances are operated, the others are not touched
+        resizeManager.resizeOperation(clusterId, requestId, nodeConfigs);
     }
 
     public void deleteClusterOperation(ClusterInfoEntity clusterInfo)throws Exception {
@@ -171,9 +171,14 @@ public class DorisClusterModuleManager {
     }
 
     public void deployOperation(ClusterModuleEntity module, long requestId) {
+        deployOperation(module, instanceRepository.getByModuleId(module.getId()), requestId);
+    }
+
+    // Deploy a part of the module instances, such as the new instances of a scale out
+    public void deployOperation(ClusterModuleEntity module, List<ClusterInstanceEntity> instanceEntities,
+                                long requestId) {
         // TODO:Step fallback operation
-        log.info("deploy module {}", module.getId());
-        List<ClusterInstanceEntity> instanceEntities = instanceRepository.getByModuleId(module.getId());
+        log.info("deploy module {} {} instances", module.getId(), instanceEntities.size());
         DorisClusterModuleDeployConfig deployConfig = JSON.parseObject(module.getConfig(),
                 DorisClusterModuleDeployConfig.class);
 
@@ -186,11 +191,7 @@ public class DorisClusterModuleManager {
             configInfo.addParm(configItem.getKey(), configItem.getValue());
         }
 
-        for (ClusterInstanceEntity instanceEntity : instanceEntities) {
-            configInfo.setInstallInfo(instanceEntity.getInstallInfo());
-            configInfo.setFollowerEndpoint(instanceEntity.getExtraInfo());
-            instanceManager.deployOperation(instanceEntity, configInfo, requestId);
-        }
+        instanceManager.deployOperation(instanceEntities, configInfo, requestId);
     }
 
     public void checkDeployOperation(ClusterModuleEntity module, long requestId) {
@@ -219,16 +220,18 @@ public class DorisClusterModuleManager {
     }
 
     public void stopOperation(ClusterModuleEntity module, long requestId) {
-        log.info("stop module {} for request {}", module.getId(), requestId);
-        List<ClusterInstanceEntity> instanceEntities = instanceRepository.getByModuleId(module.getId());
+        stopOperation(module, instanceRepository.getByModuleId(module.getId()), requestId);
+    }
+
+    // Stop a part of the module instances, such as the removed instances of a scale in
+    public void stopOperation(ClusterModuleEntity module, List<ClusterInstanceEntity> instanceEntities,
+                              long requestId) {
+        log.info("stop module {} {} instances for request {}", module.getId(), instanceEntities.size(), requestId);
 
         InstanceStopEventConfigInfo configInfo = new InstanceStopEventConfigInfo();
         configInfo.setModuleName(module.getModuleName());
 
-        for (ClusterInstanceEntity instanceEntity : instanceEntities) {
-            configInfo.setInstallInfo(instanceEntity.getInstallInfo());
-            instanceManager.stopOperation(instanceEntity, configInfo, requestId);
-        }
+        instanceManager.stopOperation(instanceEntities, configInfo, requestId);
     }
 
     public void startOperation(ClusterModuleEntity module, long requestId) {
@@ -238,22 +241,38 @@ public class DorisClusterModuleManager {
         InstanceStartEventConfigInfo configInfo = new InstanceStartEventConfigInfo();
         configInfo.setModuleName(module.getModuleName());
 
-        for (ClusterInstanceEntity instanceEntity : instanceEntities) {
-            configInfo.setInstallInfo(instanceEntity.getInstallInfo());
-            instanceManager.startOperation(instanceEntity, configInfo, requestId);
-        }
+        instanceManager.startOperation(instanceEntities, configInfo, requestId);
     }
 
     public void restartOperation(ClusterModuleEntity module, long requestId) {
-        log.info("restart module {} for request {}", module.getId(), requestId);
-        List<ClusterInstanceEntity> instanceEntities = instanceRepository.getByModuleId(module.getId());
+        restartOperation(module, instanceRepository.getByModuleId(module.getId()), requestId);
+    }
+
+    // Restart a part of the module instances, such as one wave of the rolling restart
+    public void restartOperation(ClusterModuleEntity module, List<ClusterInstanceEntity> instanceEntities,
+                                 long requestId) {
+        log.info("restart module {} {} instances for request {}", module.getId(), instanceEntities.size(),
+                requestId);
 
         InstanceRestartEventConfigInfo configInfo = new InstanceRestartEventConfigInfo();
         configInfo.setModuleName(module.getModuleName());
 
-        for (ClusterInstanceEntity instanceEntity : instanceEntities) {
-            configInfo.setInstallInfo(instanceEntity.getInstallInfo());
-            instanceManager.restartOperation(instanceEntity, configInfo, requestId);
+        instanceManager.restartOperation(instanceEntities, configInfo, requestId);
+    }
+
+    // Update the address of the be or broker services after the module instances are changed
+    public void updateServiceAddressOperation(ClusterModuleEntity module) {
+        log.info("update module {} service address", module.getId());
+        List<String> accessInfo = new ArrayList<>();
+        for (ClusterInstanceEntity instanceEntity : instanceRepository.getByModuleId(module.getId())) {
+            accessInfo.add(instanceEntity.getAddress());
+        }
+
+        for (ClusterModuleServiceEntity serviceEntity : serviceRepository.getByClusterId(module.getClusterId())) {
+            if (serviceEntity.getModuleId() == module.getId()) {
+                serviceEntity.setAddressInfo(JSON.toJSONString(accessInfo));
+                serviceRepository.save(serviceEntity);
+            }
         }
     }
 
@@ -0,0 +1,498 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.control.manager;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.apache.doris.manager.common.util.ServerAndAgentConstant;
+import org.apache.doris.stack.component.DorisTopologyRegistrationComponent;
+import org.apache.doris.stack.component.ModelControlRequestComponent;
+import org.apache.doris.stack.component.RequestProgressHub;
+import org.apache.doris.stack.control.ModelControlStatus;
+import org.apache.doris.stack.dao.ClusterInfoRepository;
+import org.apache.doris.stack.dao.ClusterInstanceRepository;
+import org.apache.doris.stack.dao.ClusterModuleRepository;
+import org.apache.doris.stack.dao.ClusterModuleServiceRepository;
+import org.apache.doris.stack.dao.ResourceNodeRepository;
+import org.apache.doris.stack.driver.JdbcSampleClient;
+import org.apache.doris.stack.entity.ClusterInfoEntity;
+import org.apache.doris.stack.entity.ClusterInstanceEntity;
+import org.apache.doris.stack.entity.ClusterModuleEntity;
+import org.apache.doris.stack.entity.ClusterModuleServiceEntity;
+import org.apache.doris.stack.entity.ModelControlRequestEntity;
+import org.apache.doris.stack.entity.ResourceNodeEntity;
+import org.apache.doris.stack.model.request.control.DorisClusterModuleResourceConfig;
+import org.apache.doris.stack.model.response.control.RequestProgressInfo;
+import org.apache.doris.stack.util.CredsUtil;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Scale out and scale in of the be and broker of a doris cluster.
+ *
+ * The desired nodes of the modules are compared with the current instances, and only the difference is operated.
+ * The new instances are installed, configured and started by the module config, then registered by ALTER SYSTEM.
+ * The instances left by a failed resize are not registered in the cluster, they are deployed and registered again.
+ * The removed backends are decommissioned first, and they are stopped and deleted only after the fe has
+ * migrated their tablets and dropped them, the tablets left are logged while waiting.
+ * The removed brokers are dropped directly.
+ * All the new instances are added before any instance is removed, so the cluster does not lose capacity
+ * during the resize. A cluster is resized by one request at a time, and not during a rolling restart.
+ */
+@Slf4j
+@Component
+public class DorisClusterResizeManager implements DisposableBean {
+
+    @Value("${cluster.resize.event.timeout.seconds:1800}")
+    private long eventTimeoutSeconds;
+
+    @Value("${cluster.resize.decommission.timeout.minutes:1440}")
+    private long decommissionTimeoutMinutes;
+
+    @Value("${cluster.resize.check.interval.ms:5000}")
+    private long checkIntervalMs;
+
+    @Value("${cluster.resize.decommission.check.interval.ms:30000}")
+    private long decommissionCheckIntervalMs;
+
+    @Autowired
+    private ClusterInfoRepository clusterRepository;
+
+    @Autowired
+    private ClusterModuleRepository moduleRepository;
+
+    @Autowired
+    private ClusterInstanceRepository instanceRepository;
+
+    @Autowired
+    private ClusterModuleServiceRepository serviceRepository;
+
+    @Autowired
+    private ResourceNodeRepository nodeRepository;
+
+    @Autowired
+    private DorisClusterModuleManager clusterModuleManager;
+
+    @Autowired
+    private DorisClusterInstanceManager instanceManager;
+
+    @Autowired
+    private DorisTopologyRegistrationComponent topologyRegistrationComponent;
+
+    @Autowired
+    private ModelControlRequestComponent requestComponent;
+
+    @Autowired
+    private RequestProgressHub progressHub;
+
+    @Autowired
+    private JdbcSampleClient jdbcClient;
+
+    @Autowired
+    private DorisClusterRollingRestartManager rollingRestartManager;
+
+    private final ExecutorService executor =
+            Executors.newCachedThreadPool(new CustomizableThreadFactory("cluster-resize-"));
+
+    // the clusters being resized
+    private final Set<Long> resizingClusters = ConcurrentHashMap.newKeySet();
+
+    private static class ModuleDelta {
+        private final ClusterModuleEntity module;
+
+        // the port the instances are registered with
+        private final int port;
+
+        private final List<Long> addedNodeIds;
+
+        private final List<ClusterInstanceEntity> unregisteredInstances;
+
+        private final List<ClusterInstanceEntity> removedInstances;
+
+        ModuleDelta(ClusterModuleEntity module, int port, List<Long> addedNodeIds,
+                    List<ClusterInstanceEntity> unregisteredInstances, List<ClusterInstanceEntity> removedInstances) {
+            this.module = module;
+            this.port = port;
+            this.addedNodeIds = addedNodeIds;
+            this.unregisteredInstances = unregisteredInstances;
+            this.removedInstances = removedInstances;
+        }
+
+        private boolean isBe() {
+            return module.getModuleName().equals(ServerAndAgentConstant.BE_NAME);
+        }
+    }
+
+    /**
+     * Compare the desired nodes with the current instances and resize the cluster in the background
+     *
+     * @param clusterId
+     * @param requestId
+     * @param nodeConfigs desired nodes of the modules, the modules not given are not changed
+     * @throws Exception if the resize is not valid, the cluster is not changed then
+     */
+    public void resizeOperation(long clusterId, long requestId, List<DorisClusterModuleResourceConfig> nodeConfigs)
+            throws Exception {
+        ClusterInfoEntity clusterInfo = clusterRepository.findById(clusterId).get();
+        if (StringUtils.isEmpty(clusterInfo.getUser())) {
+            log.error("cluster {} can not be accessed yet", clusterId);
+            throw new Exception("The cluster has not been deployed and accessed, it can not be resized");
+        }
+
+        if (!resizingClusters.add(clusterId)) {
+            throw new Exception("The cluster is being resized by another request, please retry after it completes");
+        }
+        try {
+            if (rollingRestartManager.isClusterRolling(clusterId)) {
+                throw new Exception("The cluster is being restarted, please retry after the restart completes");
+            }
+            List<ModuleDelta> deltas = getDeltas(clusterInfo, nodeConfigs);
+            executor.execute(() -> resize(clusterInfo, requestId, deltas));
+        } catch (Exception e) {
+            resizingClusters.remove(clusterId);
+            throw e;
+        }
+    }
+
+    public boolean isClusterResizing(long clusterId) {
+        return resizingClusters.contains(clusterId);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private List<ModuleDelta> getDeltas(ClusterInfoEntity clusterInfo,
+                                        List<DorisClusterModuleResourceConfig> nodeConfigs) throws Exception {
+        Set<Long> resourceNodeIds = new HashSet<>();
+        for (ResourceNodeEntity nodeEntity : nodeRepository.getByResourceClusterId(clusterInfo.getResourceClusterId())) {
+            resourceNodeIds.add(nodeEntity.getId());
+        }
+
+        List<ModuleDelta> deltas = new ArrayList<>();
+        Statement stmt = getStatement(clusterInfo);
+        try {
+            for (DorisClusterModuleResourceConfig nodeConfig : nodeConfigs) {
+                ModuleDelta delta = getModuleDelta(stmt, clusterInfo.getId(), nodeConfig, resourceNodeIds);
+                if (delta != null) {
+                    deltas.add(delta);
+                }
+            }
+        } finally {
+            jdbcClient.closeStatement(stmt);
+        }
+        if (deltas.isEmpty()) {
+            throw new Exception("The nodes of the cluster are not changed");
+        }
+        return deltas;
+    }
+
+    private ModuleDelta getModuleDelta(Statement stmt, long clusterId, DorisClusterModuleResourceConfig nodeConfig,
+                                       Set<Long> resourceNodeIds) throws Exception {
+        String moduleName = nodeConfig.getModuleName();
+        List<ClusterModuleEntity> moduleEntities = moduleRepository.getByClusterIdAndModuleName(clusterId, moduleName);
+        if (moduleEntities.isEmpty()) {
+            throw new Exception("The module " + moduleName + " does not exist in the cluster");
+        }
+        ClusterModuleEntity moduleEntity = moduleEntities.get(0);
+        Set<Long> desiredNodeIds = nodeConfig.getNodeIds() == null ? Collections.emptySet() : nodeConfig.getNodeIds();
+
+        Set<Long> currentNodeIds = new HashSet<>();
+        List<ClusterInstanceEntity> keptInstances = new ArrayList<>();
+        List<ClusterInstanceEntity> removedInstances = new ArrayList<>();
+        for (ClusterInstanceEntity instanceEntity : instanceRepository.getByModuleId(moduleEntity.getId())) {
+            currentNodeIds.add(instanceEntity.getNodeId());
+            if (desiredNodeIds.contains(instanceEntity.getNodeId())) {
+                keptInstances.add(instanceEntity);
+            } else {
+                removedInstances.add(instanceEntity);
+            }
+        }
+        List<Long> addedNodeIds = new ArrayList<>();
+        for (Long nodeId : desiredNodeIds) {
+            if (!currentNodeIds.contains(nodeId)) {
+                addedNodeIds.add(nodeId);
+            }
+        }
+
+        if (moduleName.equals(ServerAndAgentConstant.FE_NAME)) {
+            if (addedNodeIds.isEmpty() && removedInstances.isEmpty()) {
+                return null;
+            }
+            throw new Exception("The fe can not be resized, only be and broker can be added or removed");
+        }
+
+        // the nodes are matched by the address of the instances, whether they are registered by ip or host name
+        boolean isBe = moduleName.equals(ServerAndAgentConstant.BE_NAME);
+        int port = getPort(clusterId, isBe);
+        Set<String> registered = isBe ? jdbcClient.getBeTabletNums(stmt).keySet()
+                : jdbcClient.getNodesAlive(stmt, "'/brokers'", "Port").keySet();
+        List<ClusterInstanceEntity> unregisteredInstances = new ArrayList<>();
+        for (ClusterInstanceEntity instanceEntity : keptInstances) {
+            if (!registered.contains(hostPort(instanceEntity, port))) {
+                unregisteredInstances.add(instanceEntity);
+            }
+        }
+
+        if (addedNodeIds.isEmpty() && unregisteredInstances.isEmpty() && removedInstances.isEmpty()) {
+            return null;
+        }
+        log.info("resize module {} of cluster {}, add nodes {}, register {} instances again, remove {} instances",
+                moduleName, clusterId, addedNodeIds, unregisteredInstances.size(), removedInstances.size());
+
+        if (isBe && desiredNodeIds.isEmpty()) {
+            throw new Exception("All the be of the cluster can not be removed");
+        }
+        if (isBe) {
+            // the instance of a backend not found can not be told from a backend of another address,
+            // it is not deleted without decommissioning
+            List<String> notFound = hostPorts(removedInstances, port);
+            notFound.removeIf(registered::contains);
+            if (!notFound.isEmpty()) {
+                throw new Exception("The backends " + notFound + " to remove are not found in the cluster");
+            }
+        }
+        if ((!addedNodeIds.isEmpty() || !unregisteredInstances.isEmpty())
+                && StringUtils.isEmpty(moduleEntity.getConfig())) {
+            throw new Exception("The module " + moduleName + " has not been configured, nodes can not be added");
+        }
+        for (Long nodeId : addedNodeIds) {
+            if (!resourceNodeIds.contains(nodeId)) {
+                throw new Exception("The node " + nodeId + " is not a node of the resource cluster");
+            }
+        }
+        return new ModuleDelta(moduleEntity, port, addedNodeIds, unregisteredInstances, removedInstances);
+    }
+
+    private void resize(ClusterInfoEntity clusterInfo, long requestId, List<ModuleDelta> deltas) {
+        ModelControlStatus status = ModelControlStatus.SUCCESS;
+        try {
+            for (ModuleDelta delta : deltas) {
+                scaleOut(clusterInfo, requestId, delta);
+            }
+            for (ModuleDelta delta : deltas) {
+                scaleIn(clusterInfo, requestId, delta);
+            }
+        } catch (InterruptedException e) {
+            log.warn("resize request {} is interrupted", requestId);
+            Thread.currentThread().interrupt();
+            status = ModelControlStatus.FAIL;
+        } catch (Exception e) {
+            log.error("resize request {} error:", requestId, e);
+            status = ModelControlStatus.FAIL;
+        }
+
+        try {
+            ModelControlRequestEntity requestEntity = requestComponent.requestGet(requestId);
+            requestComponent.requestCompleted(requestEntity, status);
+            progressHub.publishRequest(RequestProgressInfo.of(requestEntity));
+            log.info("resize request {} completed with {}", requestId, status);
+        } finally {
+            resizingClusters.remove(clusterInfo.getId());
+        }
+    }
+
+    private void scaleOut(ClusterInfoEntity clusterInfo, long requestId, ModuleDelta delta) throws Exception {
+        if (delta.addedNodeIds.isEmpty() && delta.unregisteredInstances.isEmpty()) {
+            return;
+        }
+        ClusterModuleEntity moduleEntity = delta.module;
+        log.info("resize request {} add {} nodes {}, register again {}", requestId, moduleEntity.getModuleName(),
+                delta.addedNodeIds, addresses(delta.unregisteredInstances));
+
+        List<ClusterInstanceEntity> newInstances = new ArrayList<>(delta.unregisteredInstances);
+        for (long nodeId : delta.addedNodeIds) {
+            long instanceId = instanceManager.initOperation(clusterInfo.getId(), moduleEntity, nodeId);
+            newInstances.add(instanceRepository.findById(instanceId).get());
+        }
+        clusterModuleManager.updateServiceAddressOperation(moduleEntity);
+
+        // only the new instances get install events, the existing ones are not touched
+        clusterModuleManager.deployOperation(moduleEntity, newInstances, requestId);
+        waitEventsSuccess(requestId, newInstances, "install");
+
+        Map<DorisTopologyRegistrationComponent.NodeType, List<String>> nodes =
+                new EnumMap<>(DorisTopologyRegistrationComponent.NodeType.class);
+        nodes.put(delta.isBe() ? DorisTopologyRegistrationComponent.NodeType.BACKEND
+                : DorisTopologyRegistrationComponent.NodeType.BROKER, hostPorts(newInstances, delta.port));
+        Statement stmt = getStatement(clusterInfo);
+        try {
+            topologyRegistrationComponent.registerNodes(stmt, nodes);
+        } finally {
+            jdbcClient.closeStatement(stmt);
+        }
+    }
+
+    private void scaleIn(ClusterInfoEntity clusterInfo, long requestId, ModuleDelta delta) throws Exception {
+        if (delta.removedInstances.isEmpty()) {
+            return;
+        }
+        ClusterModuleEntity moduleEntity = delta.module;
+        List<String> hostPorts = hostPorts(delta.removedInstances, delta.port);
+        log.info("resize request {} remove {} {}", requestId, moduleEntity.getModuleName(), hostPorts);
+
+        if (delta.isBe()) {
+            decommissionBe(clusterInfo, requestId, hostPorts);
+        } else {
+            Statement stmt = getStatement(clusterInfo);
+            try {
+                // the brokers dropped by the last try are skipped
+                Map<String, Boolean> registered = jdbcClient.getNodesAlive(stmt, "'/brokers'", "Port");
+                List<String> dropped = new ArrayList<>(hostPorts);
+                dropped.removeIf(hostPort -> !registered.containsKey(hostPort));
+                jdbcClient.dropBrokerName(dropped, stmt);
+            } finally {
+                jdbcClient.closeStatement(stmt);
+            }
+        }
+
+        // The instances are stopped and deleted only after they are not in the cluster any more
+        clusterModuleManager.stopOperation(moduleEntity, delta.removedInstances, requestId);
+        waitEventsSuccess(requestId, delta.removedInstances, "stop");
+        for (ClusterInstanceEntity instanceEntity : delta.removedInstances) {
+            instanceManager.deleteOperation(instanceEntity);
+        }
+        clusterModuleManager.updateServiceAddressOperation(moduleEntity);
+    }
+
+    // The fe drops a decommissioned backend after all its tablets are migrated to the other backends
+    private void decommissionBe(ClusterInfoEntity clusterInfo, long requestId, List<String> hostPorts)
+            throws Exception {
+        Statement stmt = getStatement(clusterInfo);
+        try {
+            Map<String, Long> tabletNums = jdbcClient.getBeTabletNums(stmt);
+            List<String> notFound = new ArrayList<>(hostPorts);
+            notFound.removeIf(tabletNums::containsKey);
+            if (!notFound.isEmpty()) {
+                throw new Exception("The backends " + notFound + " to remove are not found in the cluster");
+            }
+            jdbcClient.decommissionBe(hostPorts, stmt);
+        } finally {
+            jdbcClient.closeStatement(stmt);
+        }
+
+        long deadline = System.currentTimeMillis() + decommissionTimeoutMinutes * 60 * 1000;
+        while (true) {
+            Map<String, Long> leftTablets = new LinkedHashMap<>();
+            Statement checkStmt = null;
+            try {
+                checkStmt = getStatement(clusterInfo);
+                Map<String, Long> tabletNums = jdbcClient.getBeTabletNums(checkStmt);
+                for (String hostPort : hostPorts) {
+                    if (tabletNums.containsKey(hostPort)) {
+                        leftTablets.put(hostPort, tabletNums.get(hostPort));
+                    }
+                }
+                if (leftTablets.isEmpty()) {
+                    log.info("resize request {} decommissioned backends {}", requestId, hostPorts);
+                    return;
+                }
+                log.info("resize request {} decommissioning backends, tablets left {}", requestId, leftTablets);
+            } catch (Exception e) {
+                // the fe may be restarted or busy, the progress is checked again later
+                log.warn("resize request {} get decommission progress error: {}", requestId, e.getMessage());
+            } finally {
+                if (checkStmt != null) {
+                    jdbcClient.closeStatement(checkStmt);
+                }
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                log.error("resize request {} timeout in {}min decommissioning {}", requestId,
+                        decommissionTimeoutMinutes, leftTablets);
+                throw new Exception("The backends " + hostPorts + " are not decommissioned in time, please check"
+                        + " the tablets left and retry");
+            }
+            Thread.sleep(decommissionCheckIntervalMs);
+        }
+    }
+
+    private void waitEventsSuccess(long requestId, List<ClusterInstanceEntity> instances, String operation)
+            throws Exception {
+        long deadline = System.currentTimeMillis() + eventTimeoutSeconds * 1000;
+        while (true) {
+            HeartBeatEventResultType eventsStatus = instanceManager.getEventsStatus(instances);
+            if (eventsStatus == HeartBeatEventResultType.SUCCESS) {
+                return;
+            }
+            if (eventsStatus == HeartBeatEventResultType.FAIL) {
+                throw new Exception("Failed to " + operation + " the instances " + addresses(instances));
+            }
+            if (System.currentTimeMillis() > deadline) {
+                log.error("resize request {} timeout in {}s waiting for {} of {}", requestId, eventTimeoutSeconds,
+                        operation, addresses(instances));
+                throw new Exception("The " + operation + " of the instances " + addresses(instances)
+                        + " is not completed in time");
+            }
+            Thread.sleep(checkIntervalMs);
+        }
+    }
+
+    // The be and broker are registered with their heartbeat and rpc port
+    private int getPort(long clusterId, boolean isBe) throws Exception {
+        String serviceName = isBe ? ServerAndAgentConstant.BE_HEARTBEAT_SERVICE
+                : ServerAndAgentConstant.BROKER_PRC_SERVICE;
+        List<ClusterModuleServiceEntity> serviceEntities = serviceRepository.getByClusterIdAndName(clusterId,
+                serviceName);
+        if (serviceEntities.isEmpty()) {
+            throw new Exception("The service " + serviceName + " of the cluster does not exist");
+        }
+        return serviceEntities.get(0).getPort();
+    }
+
+    private String hostPort(ClusterInstanceEntity instance, int port) {
+        return instance.getAddress() + ":" + port;
+    }
+
+    private List<String> hostPorts(List<ClusterInstanceEntity> instances, int port) {
+        List<String> hostPorts = new ArrayList<>();
+        for (ClusterInstanceEntity instance : instances) {
+            hostPorts.add(hostPort(instance, port));
+        }
+        return hostPorts;
+    }
+
+    private List<String> addresses(List<ClusterInstanceEntity> instances) {
+        List<String> addresses = new ArrayList<>();
+        instances.forEach(instance -> addresses.add(instance.getAddress()));
+        return addresses;
+    }
+
+    private Statement getStatement(ClusterInfoEntity clusterInfo) throws Exception {
+        return jdbcClient.getStatement(clusterInfo.getAddress(), clusterInfo.getQueryPort(), clusterInfo.getUser(),
+                CredsUtil.aesDecrypt(clusterInfo.getPasswd()));
+    }
+}
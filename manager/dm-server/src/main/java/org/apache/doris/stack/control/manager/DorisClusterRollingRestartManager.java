@@ -0,0 +1,437 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.control.manager;
+
+import com.google.common.collect.Lists;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.apache.doris.manager.common.util.ServerAndAgentConstant;
+import org.apache.doris.stack.component.ModelControlRequestComponent;
+import org.apache.doris.stack.component.RequestProgressHub;
+import org.apache.doris.stack.connector.HttpClientPoolManager;
+import org.apache.doris.stack.control.ModelControlStatus;
+import org.apache.doris.stack.dao.ClusterInfoRepository;
+import org.apache.doris.stack.dao.ClusterInstanceRepository;
+import org.apache.doris.stack.dao.ClusterModuleRepository;
+import org.apache.doris.stack.dao.ClusterModuleServiceRepository;
+import org.apache.doris.stack.driver.JdbcSampleClient;
+import org.apache.doris.stack.entity.ClusterInfoEntity;
+import org.apache.doris.stack.entity.ClusterInstanceEntity;
+import org.apache.doris.stack.entity.ClusterModuleEntity;
+import org.apache.doris.stack.entity.ClusterModuleServiceEntity;
+import org.apache.doris.stack.entity.ModelControlRequestEntity;
+import org.apache.doris.stack.model.palo.PaloResponseEntity;
+import org.apache.doris.stack.model.response.control.RequestProgressInfo;
+import org.apache.doris.stack.util.Constants;
+import org.apache.doris.stack.util.CredsUtil;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Rolling restart of a doris cluster.
+ *
+ * The instances are restarted in waves, fe first with the followers before the master, then be and broker.
+ * A wave is restarted only after the instances of the last wave have restarted successfully
+ * and are alive again, fe checked by its /api/health and all modules by SHOW PROC on the fe.
+ * The width of the waves and the timeout of one wave can be configured, such as rolling.restart.be.batch.percent.
+ * The request is failed and the left instances are not restarted if a wave fails or times out.
+ * The waves are only kept in memory, a rolling restart interrupted by a restart of the manager is failed.
+ * A cluster is not restarted while it is resized, and not resized while it is restarted.
+ */
+@Slf4j
+@Component
+public class DorisClusterRollingRestartManager implements DisposableBean {
+
+    private static final List<String> MODULE_ORDER = Arrays.asList(ServerAndAgentConstant.FE_NAME,
+            ServerAndAgentConstant.BE_NAME, ServerAndAgentConstant.BROKER_NAME);
+
+    // fe restarts one by one by default, so the followers keep the quorum
+    @Value("${rolling.restart.fe.batch.size:1}")
+    private int feBatchSize;
+
+    @Value("${rolling.restart.be.batch.percent:10}")
+    private int beBatchPercent;
+
+    @Value("${rolling.restart.broker.batch.percent:50}")
+    private int brokerBatchPercent;
+
+    @Value("${rolling.restart.wave.timeout.seconds:600}")
+    private long waveTimeoutSeconds;
+
+    @Value("${rolling.restart.check.interval.ms:5000}")
+    private long checkIntervalMs;
+
+    // The alive state of the fe is updated by its heartbeat to the instance,
+    // so the instance should be seen alive several times in a row after it restarts
+    @Value("${rolling.restart.ready.checks:2}")
+    private int readyChecks;
+
+    @Autowired
+    private ClusterInfoRepository clusterRepository;
+
+    @Autowired
+    private ClusterModuleRepository moduleRepository;
+
+    @Autowired
+    private ClusterInstanceRepository instanceRepository;
+
+    @Autowired
+    private ClusterModuleServiceRepository serviceRepository;
+
+    @Autowired
+    private DorisClusterModuleManager clusterModuleManager;
+
+    @Autowired
+    private DorisClusterInstanceManager instanceManager;
+
+    @Autowired
+    private ModelControlRequestComponent requestComponent;
+
+    @Autowired
+    private RequestProgressHub progressHub;
+
+    @Autowired
+    private JdbcSampleClient jdbcClient;
+
+    @Autowired
+    private HttpClientPoolManager poolManager;
+
+    @Autowired
+    private DorisClusterResizeManager resizeManager;
+
+    private final ExecutorService executor =
+            Executors.newCachedThreadPool(new CustomizableThreadFactory("rolling-restart-"));
+
+    // the requests whose waves are not all restarted, they are completed here instead of by the agent events
+    // request id -> cluster id
+    private final Map<Long, Long> rollingRequests = new ConcurrentHashMap<>();
+
+    // the rolling restarts of the requests created before the manager started are never finished
+    private final long startTime = System.currentTimeMillis();
+
+    private static class Wave {
+        private final ClusterModuleEntity module;
+
+        private final List<ClusterInstanceEntity> instances;
+
+        Wave(ClusterModuleEntity module, List<ClusterInstanceEntity> instances) {
+            this.module = module;
+            this.instances = instances;
+        }
+    }
+
+    /**
+     * Plan the waves of the cluster and restart them in the background
+     *
+     * @param clusterId
+     * @param requestId
+     * @throws Exception if the cluster is being resized, the request is not started then
+     */
+    public void restartOperation(long clusterId, long requestId) throws Exception {
+        // registered before the check of resize, a resize started concurrently sees the cluster rolling,
+        // and before the waves are planned, the request is not completed by its events in the meantime
+        rollingRequests.put(requestId, clusterId);
+        try {
+            if (resizeManager.isClusterResizing(clusterId)) {
+                throw new Exception("The cluster is being resized, please retry after the resize completes");
+            }
+            executor.execute(() -> roll(clusterId, requestId));
+        } catch (Exception e) {
+            rollingRequests.remove(requestId);
+            throw e;
+        }
+    }
+
+    public boolean isRolling(long requestId) {
+        return rollingRequests.containsKey(requestId);
+    }
+
+    public boolean isClusterRolling(long clusterId) {
+        return rollingRequests.containsValue(clusterId);
+    }
+
+    /**
+     * Whether the rolling restart of the request is interrupted by a restart of the manager,
+     * its waves not restarted before the manager stopped are never restarted
+     *
+     * @param requestEntity a restart request not completed
+     * @return
+     */
+    public boolean isInterrupted(ModelControlRequestEntity requestEntity) {
+        return !isRolling(requestEntity.getId()) && requestEntity.getCreateTimestamp() != null
+                && requestEntity.getCreateTimestamp().getTime() < startTime;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    private List<Wave> planWaves(long clusterId) {
+        List<ClusterModuleEntity> moduleEntities = new ArrayList<>(moduleRepository.getByClusterId(clusterId));
+        moduleEntities.sort(Comparator.comparingInt(module -> moduleOrder(module.getModuleName())));
+
+        List<Wave> waves = new ArrayList<>();
+        for (ClusterModuleEntity moduleEntity : moduleEntities) {
+            List<ClusterInstanceEntity> instanceEntities =
+                    new ArrayList<>(instanceRepository.getByModuleId(moduleEntity.getId()));
+            if (instanceEntities.isEmpty()) {
+                continue;
+            }
+
+            int batchSize;
+            String moduleName = moduleEntity.getModuleName();
+            if (moduleName.equals(ServerAndAgentConstant.FE_NAME)) {
+                String masterIp = getFeMasterIp(clusterId, instanceEntities);
+                // the sort is stable, the master is moved to the end only
+                instanceEntities.sort(Comparator.comparing(instance -> isFeMaster(instance, masterIp)));
+                batchSize = feBatchSize;
+            } else if (moduleName.equals(ServerAndAgentConstant.BE_NAME)) {
+                batchSize = batchSize(instanceEntities.size(), beBatchPercent);
+            } else {
+                batchSize = batchSize(instanceEntities.size(), brokerBatchPercent);
+            }
+
+            for (List<ClusterInstanceEntity> batch : Lists.partition(instanceEntities, Math.max(batchSize, 1))) {
+                waves.add(new Wave(moduleEntity, batch));
+            }
+        }
+        return waves;
+    }
+
+    private void roll(long clusterId, long requestId) {
+        ModelControlStatus status = ModelControlStatus.SUCCESS;
+        try {
+            List<Wave> waves = planWaves(clusterId);
+            log.info("rolling restart cluster {} in {} waves for request {}", clusterId, waves.size(), requestId);
+            for (int i = 0; i < waves.size(); i++) {
+                Wave wave = waves.get(i);
+                log.info("rolling restart request {} wave {}/{}: {} {}", requestId, i + 1, waves.size(),
+                        wave.module.getModuleName(), addresses(wave));
+                clusterModuleManager.restartOperation(wave.module, wave.instances, requestId);
+                if (!waitWaveReady(clusterId, requestId, wave)) {
+                    status = ModelControlStatus.FAIL;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("rolling restart request {} is interrupted", requestId);
+            Thread.currentThread().interrupt();
+            status = ModelControlStatus.FAIL;
+        } catch (Exception e) {
+            log.error("rolling restart request {} error:", requestId, e);
+            status = ModelControlStatus.FAIL;
+        }
+
+        try {
+            ModelControlRequestEntity requestEntity = requestComponent.requestGet(requestId);
+            requestComponent.requestCompleted(requestEntity, status);
+            progressHub.publishRequest(RequestProgressInfo.of(requestEntity));
+            log.info("rolling restart request {} completed with {}", requestId, status);
+        } finally {
+            rollingRequests.remove(requestId);
+        }
+    }
+
+    // Wait until the restart events of the wave succeed and the instances are alive
+    private boolean waitWaveReady(long clusterId, long requestId, Wave wave) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + waveTimeoutSeconds * 1000;
+        int readyTimes = 0;
+        while (true) {
+            HeartBeatEventResultType eventsStatus = instanceManager.getEventsStatus(wave.instances);
+            if (eventsStatus == HeartBeatEventResultType.FAIL) {
+                log.error("rolling restart request {} failed to restart {}", requestId, addresses(wave));
+                return false;
+            }
+
+            if (eventsStatus == HeartBeatEventResultType.SUCCESS && isWaveAlive(clusterId, wave)) {
+                readyTimes++;
+                if (readyTimes >= readyChecks) {
+                    return true;
+                }
+            } else {
+                readyTimes = 0;
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                log.error("rolling restart request {} timeout in {}s waiting for {} to be ready", requestId,
+                        waveTimeoutSeconds, addresses(wave));
+                return false;
+            }
+            Thread.sleep(checkIntervalMs);
+        }
+    }
+
+    private boolean isWaveAlive(long clusterId, Wave wave) {
+        ClusterInfoEntity clusterInfo = clusterRepository.findById(clusterId).get();
+        Set<String> addresses = addresses(wave);
+        String moduleName = wave.module.getModuleName();
+
+        // the nodes are matched by the address and the port they are registered with
+        String procPath;
+        String portColumn;
+        int port;
+        if (moduleName.equals(ServerAndAgentConstant.FE_NAME)) {
+            int httpPort = getServicePort(clusterId, ServerAndAgentConstant.FE_HTTP_SERVICE, clusterInfo.getHttpPort());
+            for (String address : addresses) {
+                if (!isFeHealthy(address, httpPort)) {
+                    return false;
+                }
+            }
+            procPath = "'/frontends'";
+            portColumn = "EditLogPort";
+            port = getServicePort(clusterId, ServerAndAgentConstant.FE_EDIT_SERVICE,
+                    Constants.DORIS_DEFAULT_FE_EDIT_LOG_PORT);
+        } else if (moduleName.equals(ServerAndAgentConstant.BE_NAME)) {
+            procPath = "'/backends'";
+            portColumn = "HeartbeatPort";
+            port = getServicePort(clusterId, ServerAndAgentConstant.BE_HEARTBEAT_SERVICE,
+                    Constants.DORIS_DEFAULT_BE_HEARTBEAT_PORT);
+        } else {
+            procPath = "'/brokers'";
+            portColumn = "Port";
+            port = getServicePort(clusterId, ServerAndAgentConstant.BROKER_PRC_SERVICE,
+                    Constants.DORIS_DEFAULT_BROKER_IPC_PORT);
+        }
+
+        if (StringUtils.isEmpty(clusterInfo.getUser())) {
+            // The cluster can not be accessed yet, only the restart events are checked
+            return true;
+        }
+
+        // check by the fe not restarted in this wave first
+        Set<String> feHosts = new LinkedHashSet<>();
+        if (!StringUtils.isEmpty(clusterInfo.getAddress()) && !addresses.contains(clusterInfo.getAddress())) {
+            feHosts.add(clusterInfo.getAddress());
+        }
+        List<String> feAddresses = getFeAddresses(clusterId);
+        feAddresses.stream().filter(address -> !addresses.contains(address)).forEach(feHosts::add);
+        feHosts.addAll(feAddresses);
+
+        int queryPort = getServicePort(clusterId, ServerAndAgentConstant.FE_JDBC_SERVICE, clusterInfo.getQueryPort());
+        for (String feHost : feHosts) {
+            Statement stmt = null;
+            try {
+                stmt = jdbcClient.getStatement(feHost, queryPort, clusterInfo.getUser(),
+                        CredsUtil.aesDecrypt(clusterInfo.getPasswd()));
+                Map<String, Boolean> nodesAlive = jdbcClient.getNodesAlive(stmt, procPath, portColumn);
+                log.debug("{} of cluster {}: {}", moduleName, clusterId, nodesAlive);
+                return addresses.stream().allMatch(address ->
+                        Boolean.TRUE.equals(nodesAlive.get(address + ":" + port)));
+            } catch (Exception e) {
+                log.warn("check alive {} by fe {} error: {}", moduleName, feHost, e.getMessage());
+            } finally {
+                if (stmt != null) {
+                    jdbcClient.closeStatement(stmt);
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isFeHealthy(String host, int httpPort) {
+        try {
+            PaloResponseEntity response = poolManager.doGet("http://" + host + ":" + httpPort + "/api/health", null);
+            return response != null && response.getCode() == 0;
+        } catch (Exception e) {
+            log.debug("fe {} is not healthy: {}", host, e.getMessage());
+            return false;
+        }
+    }
+
+    // The master is got from the fe, if it can not be accessed, the first follower of the cluster is the master
+    private String getFeMasterIp(long clusterId, List<ClusterInstanceEntity> feInstances) {
+        ClusterInfoEntity clusterInfo = clusterRepository.findById(clusterId).get();
+        if (StringUtils.isEmpty(clusterInfo.getUser())) {
+            return null;
+        }
+        int queryPort = getServicePort(clusterId, ServerAndAgentConstant.FE_JDBC_SERVICE, clusterInfo.getQueryPort());
+        for (ClusterInstanceEntity feInstance : feInstances) {
+            Statement stmt = null;
+            try {
+                stmt = jdbcClient.getStatement(feInstance.getAddress(), queryPort, clusterInfo.getUser(),
+                        CredsUtil.aesDecrypt(clusterInfo.getPasswd()));
+                return jdbcClient.getFeMasterIp(stmt);
+            } catch (Exception e) {
+                log.warn("get fe master by fe {} error: {}", feInstance.getAddress(), e.getMessage());
+            } finally {
+                if (stmt != null) {
+                    jdbcClient.closeStatement(stmt);
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean isFeMaster(ClusterInstanceEntity instance, String masterIp) {
+        if (masterIp != null) {
+            return instance.getAddress().equals(masterIp);
+        }
+        // the observers are given the follower endpoint in extra info when the module is configured
+        return StringUtils.isEmpty(instance.getExtraInfo());
+    }
+
+    private List<String> getFeAddresses(long clusterId) {
+        List<String> addresses = new ArrayList<>();
+        for (ClusterModuleEntity moduleEntity : moduleRepository.getByClusterId(clusterId)) {
+            if (moduleEntity.getModuleName().equals(ServerAndAgentConstant.FE_NAME)) {
+                for (ClusterInstanceEntity instanceEntity : instanceRepository.getByModuleId(moduleEntity.getId())) {
+                    addresses.add(instanceEntity.getAddress());
+                }
+            }
+        }
+        return addresses;
+    }
+
+    private int getServicePort(long clusterId, String serviceName, int defaultPort) {
+        List<ClusterModuleServiceEntity> serviceEntities = serviceRepository.getByClusterIdAndName(clusterId,
+                serviceName);
+        return serviceEntities.isEmpty() ? defaultPort : serviceEntities.get(0).getPort();
+    }
+
+    private Set<String> addresses(Wave wave) {
+        return wave.instances.stream().map(ClusterInstanceEntity::getAddress)
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    private int moduleOrder(String moduleName) {
+        int order = MODULE_ORDER.indexOf(moduleName);
+        return order < 0 ? MODULE_ORDER.size() : order;
+    }
+
+    private int batchSize(int instanceCount, int percent) {
+        return (int) Math.ceil(instanceCount * percent / 100.0);
+    }
+}
@@ -22,6 +22,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.doris.manager.common.heartbeat.config.AgentInstallEventConfigInfo;
 import org.apache.doris.manager.common.heartbeat.config.AgentUnInstallEventConfigInfo;
+import org.apache.doris.stack.component.RemoteNodeExecutor;
 import org.apache.doris.stack.dao.ResourceClusterRepository;
 import org.apache.doris.stack.dao.ResourceNodeRepository;
 import org.apache.doris.stack.entity.ResourceClusterEntity;
@@ -49,6 +50,9 @@ public class ResourceClusterManager {
     @Autowired
     private ResourceNodeAndAgentManager nodeAndAgentManager;
 
+    @Autowired
+    private RemoteNodeExecutor remoteNodeExecutor;
+
     public long initOperation(int userId, PMResourceClusterAccessInfo authInfo, List<String> hosts) {
         log.info("create resource cluster");
         ResourceClusterEntity clusterEntity = new ResourceClusterEntity(String.valueOf(userId),
@@ -128,7 +132,7 @@ public class ResourceClusterManager {
             configInfo.setSshPort(accessInfo.getSshPort());
             configInfo.setSshKey(accessInfo.getSshKey());
 
-            CompletableFuture<Boolean> portCheckFuture = CompletableFuture.supplyAsync(() -> {
+            CompletableFuture<Boolean> portCheckFuture = remoteNodeExecutor.supplyAsync(resourceClusterId, () -> {
                 try {
                     nodeAndAgentManager.checkSshConnect(nodeEntity, configInfo);
                     return nodeAndAgentManager.isAvailableAgentPort(nodeEntity, configInfo);
@@ -239,7 +243,7 @@ public class ResourceClusterManager {
         // to guarantee uninstall operation must be executed
         List<Pair<ResourceNodeEntity, CompletableFuture<Void>>> nodeFutures = new ArrayList<>();
         for (ResourceNodeEntity nodeEntity : agentInstalledNodes) {
-            CompletableFuture<Void> portCheckFuture = CompletableFuture.runAsync(() -> {
+            CompletableFuture<Void> portCheckFuture = remoteNodeExecutor.runAsync(resourceClusterId, () -> {
                 AgentInstallEventConfigInfo installConfig = new AgentInstallEventConfigInfo();
                 installConfig.setSshUser(accessInfo.getSshUser());
                 installConfig.setSshPort(accessInfo.getSshPort());
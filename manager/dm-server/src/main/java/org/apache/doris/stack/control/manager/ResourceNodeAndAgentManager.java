@@ -20,12 +20,15 @@ package org.apache.doris.stack.control.manager;
 import com.alibaba.fastjson.JSON;
 import com.google.common.base.Preconditions;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
 import org.apache.doris.manager.common.heartbeat.HeartBeatEventType;
 import org.apache.doris.manager.common.heartbeat.config.AgentInstallEventConfigInfo;
 import org.apache.doris.manager.common.heartbeat.config.AgentUnInstallEventConfigInfo;
 import org.apache.doris.manager.common.heartbeat.stage.AgentInstallEventStage;
 import org.apache.doris.manager.common.heartbeat.stage.AgentUnInstallEventStage;
+import org.apache.doris.stack.component.AgentPackageComponent;
+import org.apache.doris.stack.component.RemoteNodeExecutor;
 import org.apache.doris.stack.constant.EnvironmentDefine;
 import org.apache.doris.stack.dao.HeartBeatEventRepository;
 import org.apache.doris.stack.dao.ResourceNodeRepository;
@@ -34,10 +37,11 @@ import org.apache.doris.stack.entity.ResourceNodeEntity;
 import org.apache.doris.stack.exceptions.ServerException;
 import org.apache.doris.stack.shell.SCP;
 import org.apache.doris.stack.shell.SSH;
+import org.apache.doris.stack.shell.SshSession;
 import org.apache.doris.stack.util.Constants;
 import org.apache.doris.stack.util.TelnetUtil;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.system.ApplicationHome;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
@@ -45,7 +49,6 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.file.Paths;
 import java.util.Locale;
-import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Component
@@ -53,6 +56,13 @@ public class ResourceNodeAndAgentManager {
     private static final String AGENT_START_SCRIPT = Constants.KEY_DORIS_AGENT_START_SCRIPT;
     private static final String AGENT_STOP_SCRIPT = Constants.KEY_DORIS_AGENT_STOP_SCRIPT;
     private static final String AGENT_CONFIG_PATH = Constants.KEY_DORIS_AGENT_CONFIG_PATH;
+    // the sha256 of the agent package deployed, under the agent dir of the node
+    private static final String AGENT_VERSION_FILE = ".package_sha256";
+    private static final String HTTP_DISTRIBUTION = "http";
+
+    // how the agent package is shipped to the nodes, scp or http
+    @Value("${agent.package.distribution:scp}")
+    private String packageDistribution;
 
     @Autowired
     private ResourceNodeRepository nodeRepository;
@@ -60,6 +70,12 @@ public class ResourceNodeAndAgentManager {
     @Autowired
     private HeartBeatEventRepository heartBeatEventRepository;
 
+    @Autowired
+    private RemoteNodeExecutor remoteNodeExecutor;
+
+    @Autowired
+    private AgentPackageComponent agentPackageComponent;
+
     public long initOperation(long resourceClusterId, String host) {
         log.info("create a new node {} for resource cluster {}", host, resourceClusterId);
         ResourceNodeEntity nodeEntity = new ResourceNodeEntity(resourceClusterId, host);
@@ -100,7 +116,7 @@ public class ResourceNodeAndAgentManager {
                 node.getResourceClusterId());
 
         HeartBeatEventEntity finalUninstallEvent = uninstallEvent;
-        CompletableFuture<Void> uninstallFuture = CompletableFuture.runAsync(() -> {
+        remoteNodeExecutor.runAsync(node.getResourceClusterId(), () -> {
             log.info("start to handle uninstall agent event on {} node {}", node.getId(), node.getHost());
             uninstallEventProcess(node, configInfo, finalUninstallEvent);
             log.info("async uninstall agent on {} node {} success", node.getId(), node.getHost());
@@ -153,7 +169,7 @@ public class ResourceNodeAndAgentManager {
         }
 
         // handle install agent event async
-        CompletableFuture<Void> installFuture = CompletableFuture.runAsync(() -> {
+        remoteNodeExecutor.runAsync(node.getResourceClusterId(), () -> {
             log.info("start to handle install agent event to {} node {}", node.getId(), node.getHost());
             installEventProcess(node, configInfo, agentInstallAgentEntity);
             log.info("async install agent to {} node {} success", node.getId(), node.getHost());
@@ -314,9 +330,18 @@ public class ResourceNodeAndAgentManager {
             return;
         }
         log.info("telnet host {} port {} success", configInfo.getHost(), configInfo.getSshPort());
+
+        // all the following stages share one ssh connection
+        try (SshSession session = SshSession.open(configInfo.getSshUser(), configInfo.getSshPort(),
+                sshKeyFile.getAbsolutePath(), configInfo.getHost())) {
+            deployAgent(session, configInfo, agentInstallAgentEntity);
+        }
+    }
+
+    private void deployAgent(SshSession session, AgentInstallEventConfigInfo configInfo,
+                             HeartBeatEventEntity agentInstallAgentEntity) {
         //check ssh
-        SSH ssh = new SSH(configInfo.getSshUser(), configInfo.getSshPort(),
-                sshKeyFile.getAbsolutePath(), configInfo.getHost(), "echo ok");
+        SSH ssh = session.newSsh("echo ok");
         if (!ssh.run()) {
             log.error("ssh is not available: {}", ssh.getErrorResponse());
             updateFailResult(AgentInstallEventStage.ACCESS_AUTH.getError(), AgentInstallEventStage.ACCESS_AUTH.getStage(),
@@ -373,16 +398,8 @@ public class ResourceNodeAndAgentManager {
 
         // agent install
         // AGENT_DEPLOY stage
-        // TODO: How to get the agent installation package
-        ApplicationHome applicationHome = new ApplicationHome();
-        String dorisManagerHome = applicationHome.getSource().getParentFile().getParentFile().getParentFile().toString();
-        log.info("doris manager home : {}", dorisManagerHome);
-        String agentPackageHome = dorisManagerHome + File.separator + "agent";
         Preconditions.checkNotNull(configInfo.getHost(), "host is empty");
-        SCP scp = new SCP(configInfo.getSshUser(), configInfo.getSshPort(),
-                sshKeyFile.getAbsolutePath(), configInfo.getHost(), agentPackageHome, configInfo.getInstallDir());
-        if (!scp.run()) {
-            log.error("scp agent package failed:{} to {}", agentPackageHome, configInfo.getInstallDir());
+        if (!deployAgentPackage(session, configInfo)) {
             updateFailResult(AgentInstallEventStage.AGENT_DEPLOY.getError(),
                     AgentInstallEventStage.AGENT_DEPLOY.getStage(), agentInstallAgentEntity);
             return;
@@ -399,8 +416,7 @@ public class ResourceNodeAndAgentManager {
         String command = "cd %s && sh %s  --server %s --agent %d --port %d";
         String cmd = String.format(command, agentInstallHome, AGENT_START_SCRIPT,
                 getServerAddr(), configInfo.getAgentNodeId(), configInfo.getAgentPort());
-        SSH startSsh = new SSH(configInfo.getSshUser(), configInfo.getSshPort(),
-                sshKeyFile.getAbsolutePath(), configInfo.getHost(), cmd);
+        SSH startSsh = session.newSsh(cmd);
         if (!startSsh.run()) {
             log.error("agent start failed:{}", startSsh.getErrorResponse());
             updateFailResult(AgentInstallEventStage.AGENT_START.getError(),
@@ -412,6 +428,73 @@ public class ResourceNodeAndAgentManager {
                 AgentInstallEventStage.AGENT_START.getStage(), agentInstallAgentEntity);
     }
 
+    /**
+     * Deploy the agent package into the install dir of the node.
+     * The package is shipped as one compressed archive and verified by its sha256 on the node,
+     * the node with the same version installed is skipped.
+     * With the http distribution the node fetches the archive from the manager,
+     * and it is copied by scp if the node can not fetch it.
+     * The manager only gives the archive to the host of the node.
+     */
+    private boolean deployAgentPackage(SshSession session, AgentInstallEventConfigInfo configInfo) {
+        String installDir = configInfo.getInstallDir();
+        AgentPackageComponent.AgentPackage agentPackage;
+        try {
+            agentPackage = agentPackageComponent.getPackage();
+        } catch (ServerException e) {
+            String agentHome = agentPackageComponent.getAgentHome();
+            log.warn("agent package is not available, copy agent dir {} instead: {}", agentHome, e.getMessage());
+            SCP scp = session.newScp(agentHome, installDir);
+            if (!scp.run()) {
+                log.error("scp agent package failed:{} to {}", agentHome, installDir);
+                return false;
+            }
+            return true;
+        }
+        String sha256 = agentPackage.getSha256();
+
+        String versionFile = installDir + File.separator + AgentPackageComponent.AGENT_DIR + File.separator
+                + AGENT_VERSION_FILE;
+        SSH versionSsh = session.newSsh("cat " + versionFile + " 2>/dev/null || true");
+        if (versionSsh.run() && sha256.equals(StringUtils.trim(versionSsh.getStdoutResponse()))) {
+            log.info("agent package {} has been deployed on {}, skip it", sha256, configInfo.getHost());
+            return true;
+        }
+
+        String archiveName = AgentPackageComponent.ARCHIVE_NAME;
+        String remoteArchive = installDir + File.separator + archiveName;
+        boolean fetched = false;
+        if (HTTP_DISTRIBUTION.equalsIgnoreCase(packageDistribution)) {
+            String url = "http://" + getServerAddr() + "/api/control/node/" + configInfo.getAgentNodeId()
+                    + "/agent/package";
+            SSH fetchSsh = session.newSsh(String.format("curl -fsS --retry 3 -o %s %s || wget -q -O %s %s",
+                    remoteArchive, url, remoteArchive, url));
+            fetched = fetchSsh.run();
+            if (!fetched) {
+                log.warn("node {} fetch agent package from {} failed, copy it by scp", configInfo.getHost(), url);
+            }
+        }
+        if (!fetched) {
+            SCP scp = session.newScp(agentPackage.getArchive().getAbsolutePath(), remoteArchive);
+            if (!scp.run()) {
+                log.error("scp agent package failed:{} to {}", agentPackage.getArchive(), remoteArchive);
+                return false;
+            }
+        }
+
+        // the version file is written only after the archive is verified and unpacked
+        String unpackCmd = String.format("cd %s && echo '%s  %s' | sha256sum -c --status && tar -xzf %s "
+                        + "&& echo %s > %s; ret=$?; rm -f %s; exit $ret",
+                installDir, sha256, archiveName, archiveName, sha256, versionFile, archiveName);
+        SSH unpackSsh = session.newSsh(unpackCmd);
+        if (!unpackSsh.run()) {
+            log.error("unpack agent package on {} failed:{}", configInfo.getHost(), unpackSsh.getErrorResponse());
+            return false;
+        }
+        log.info("agent package {} is deployed on {}", sha256, configInfo.getHost());
+        return true;
+    }
+
     private void uninstallEventProcess(ResourceNodeEntity node, AgentUnInstallEventConfigInfo configInfo,
                                      HeartBeatEventEntity agentUninstallAgentEntity) {
         if (!agentUninstallAgentEntity.getType().equals(HeartBeatEventType.AGENT_STOP.name())) {
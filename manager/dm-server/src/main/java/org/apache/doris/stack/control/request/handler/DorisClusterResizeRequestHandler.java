@@ -0,0 +1,54 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.control.request.handler;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.stack.control.ModelControlResponse;
+import org.apache.doris.stack.control.ModelControlStatus;
+import org.apache.doris.stack.control.manager.DorisClusterManager;
+import org.apache.doris.stack.control.request.DorisClusterRequest;
+import org.apache.doris.stack.control.request.DorisClusterRequestHandler;
+import org.apache.doris.stack.control.request.content.DorisClusterResizeRequest;
+import org.apache.doris.stack.entity.CoreUserEntity;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+@Slf4j
+@Component
+public class DorisClusterResizeRequestHandler extends DorisClusterRequestHandler {
+    @Autowired
+    private DorisClusterManager dorisClusterManager;
+
+    @Override
+    public ModelControlResponse handleRequestEvent(CoreUserEntity user, DorisClusterRequest resizeRequest,
+                                                   boolean modelInit) throws Exception {
+        DorisClusterResizeRequest request = (DorisClusterResizeRequest) resizeRequest;
+        try {
+            dorisClusterManager.resizeClusterOperation(request.getClusterId(), request.getRequestId(),
+                    request.getReqInfo().getNodeConfig());
+        } catch (Exception e) {
+            // The resize is not started, the request is failed so that the cluster can accept new requests
+            log.error("resize cluster {} error {}", request.getClusterId(), e.getMessage());
+            requestComponent.requestCompleted(requestComponent.requestGet(request.getRequestId()),
+                    ModelControlStatus.FAIL);
+            throw e;
+        }
+        // The request is completed by the resize in the background
+        return getResponse(request, false);
+    }
+}
@@ -19,6 +19,7 @@ package org.apache.doris.stack.control.request.handler;
 
 import lombok.extern.slf4j.Slf4j;
 import org.apache.doris.stack.control.ModelControlResponse;
+import org.apache.doris.stack.control.ModelControlStatus;
 import org.apache.doris.stack.control.manager.DorisClusterManager;
 import org.apache.doris.stack.control.request.DorisClusterRequest;
 import org.apache.doris.stack.control.request.DorisClusterRequestHandler;
@@ -34,7 +35,16 @@ public class DorisClusterRestartRequestHandler extends DorisClusterRequestHandle
 
     @Override
     public ModelControlResponse handleRequestEvent(CoreUserEntity user, DorisClusterRequest request, boolean modelInit) throws Exception {
-        dorisClusterManager.reStartClusterOperation(request.getClusterId(), request.getRequestId());
+        try {
+            dorisClusterManager.reStartClusterOperation(request.getClusterId(), request.getRequestId());
+        } catch (Exception e) {
+            // The rolling restart is not started, the request is failed so that the cluster can accept new requests
+            log.error("restart cluster {} error {}", request.getClusterId(), e.getMessage());
+            requestComponent.requestCompleted(requestComponent.requestGet(request.getRequestId()),
+                    ModelControlStatus.FAIL);
+            throw e;
+        }
+        // The request is completed by the rolling restart in the background
         return getResponse(request, false);
     }
 }
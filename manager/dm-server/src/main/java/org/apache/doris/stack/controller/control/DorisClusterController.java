@@ -22,6 +22,7 @@ import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.doris.stack.entity.CoreUserEntity;
 import org.apache.doris.stack.model.request.control.DorisClusterCreationReq;
+import org.apache.doris.stack.model.request.control.DorisClusterResizeReq;
 import org.apache.doris.stack.model.request.control.DorisClusterTakeOverReq;
 import org.apache.doris.stack.model.request.control.ModelControlReq;
 import org.apache.doris.stack.rest.ResponseEntityBuilder;
@@ -104,6 +105,15 @@ public class DorisClusterController {
         return ResponseEntityBuilder.ok();
     }
 
+    @ApiOperation(value = "Super user add or remove the be and broker nodes of a doris cluster")
+    @PostMapping(value = "resize", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object resize(HttpServletRequest request, HttpServletResponse response,
+                         @RequestBody DorisClusterResizeReq req) throws Exception {
+        log.debug("Super user resize a doris cluster..");
+        CoreUserEntity user = authenticationService.checkNewUserAuthWithCookie(request, response);
+        return ResponseEntityBuilder.ok(clusterService.resizeCluster(user, req));
+    }
+
     @ApiOperation(value = "Super user get cluster module list")
     @GetMapping(value = "{clusterId}/modules", produces = MediaType.APPLICATION_JSON_VALUE)
     public Object getMoudleList(@PathVariable(value = "clusterId") long clusterId,
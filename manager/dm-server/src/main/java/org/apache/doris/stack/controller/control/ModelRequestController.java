@@ -30,6 +30,7 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -58,4 +59,17 @@ public class ModelRequestController {
         return ResponseEntityBuilder.ok(requestService.getRequestInfo(requestId));
     }
 
+    @ApiOperation(value = "Super user watch request progress by server-sent events")
+    @GetMapping(value = "{requestId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter watchProgress(@PathVariable(value = "requestId") long requestId,
+                                    HttpServletRequest request,
+                                    HttpServletResponse response) throws Exception {
+        log.debug("Super user watch request progress.");
+        CoreUserEntity user = authenticationService.checkNewUserAuthWithCookie(request, response);
+        // check is super admin user
+        authenticationService.checkUserIsAdmin(user);
+
+        return requestService.watchRequestProgress(requestId);
+    }
+
 }
@@ -22,12 +22,18 @@ import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.doris.manager.common.heartbeat.HeartBeatContext;
 import org.apache.doris.manager.common.heartbeat.HeartBeatResult;
+import org.apache.doris.stack.component.AgentPackageComponent;
 import org.apache.doris.stack.entity.CoreUserEntity;
 import org.apache.doris.stack.rest.ResponseEntityBuilder;
 import org.apache.doris.stack.service.control.ResourceClusterNodeService;
 import org.apache.doris.stack.service.user.AuthenticationService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -35,15 +41,19 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.File;
 
 @Api(tags = "Resource Cluster Node Agent API")
 @RestController
 @RequestMapping("/api/control/node/")
 @Slf4j
 public class ResourceClusterNodeController {
+    private static final String CHECKSUM_HEADER = "X-Checksum-Sha256";
+
     @Autowired
     private AuthenticationService authenticationService;
 
@@ -54,8 +64,10 @@ public class ResourceClusterNodeController {
     @GetMapping(value = "{agentNodeId}/agent/context", produces = MediaType.APPLICATION_JSON_VALUE)
     public HeartBeatContext getHeartbeatContext(HttpServletRequest request,
                                                 HttpServletResponse response,
-                                                @PathVariable(value = "agentNodeId") long agentNodeId) {
-        return nodeService.getHeartBeatContext(agentNodeId);
+                                                @PathVariable(value = "agentNodeId") long agentNodeId,
+                                                @RequestParam(value = "version", required = false)
+                                                        String instanceVersion) {
+        return nodeService.getHeartBeatContext(agentNodeId, instanceVersion);
     }
 
     @ApiOperation(value = "deal heart beat context)")
@@ -69,6 +81,40 @@ public class ResourceClusterNodeController {
         return "SUCCESS";
     }
 
+    @ApiOperation(value = "deal heart beat result and get next heart beat context in one request")
+    @PostMapping(value = "{agentNodeId}/agent/heartbeat", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<HeartBeatContext> heartbeat(HttpServletRequest request,
+                                                      HttpServletResponse response,
+                                                      @PathVariable(value = "agentNodeId") long agentNodeId,
+                                                      @RequestParam(value = "version", required = false)
+                                                              String instanceVersion,
+                                                      @RequestParam(value = "wait", required = false,
+                                                              defaultValue = "0") long waitMs,
+                                                      @RequestBody HeartBeatResult ctx) {
+        log.info("agent {} heartbeat", agentNodeId);
+        nodeService.dealHeartbeatContext(ctx);
+        return nodeService.waitHeartBeatContext(agentNodeId, instanceVersion, waitMs);
+    }
+
+    @ApiOperation(value = "download the agent package, used by the node installing agent")
+    @GetMapping(value = "{agentNodeId}/agent/package", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<Resource> getAgentPackage(HttpServletRequest request,
+                                                    HttpServletResponse response,
+                                                    @PathVariable(value = "agentNodeId") long agentNodeId) {
+        AgentPackageComponent.AgentPackage agentPackage = nodeService.getAgentPackage(agentNodeId,
+                request.getRemoteAddr());
+        if (agentPackage == null) {
+            // a non-2xx status, so the node copies the package by scp instead of keeping an error body
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        File archive = agentPackage.getArchive();
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + archive.getName())
+                .header(CHECKSUM_HEADER, agentPackage.getSha256())
+                .contentLength(archive.length())
+                .body(new FileSystemResource(archive));
+    }
+
     @ApiOperation(value = "The user operates(AGENT_INSTALL) the agent on the node")
     @PostMapping(value = "{agentNodeId}/agent/operate", produces = MediaType.APPLICATION_JSON_VALUE)
     public Object operateAgent(HttpServletRequest request,
@@ -0,0 +1,65 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.model.response.control;
+
+import lombok.Data;
+import org.apache.doris.stack.entity.HeartBeatEventEntity;
+import org.apache.doris.stack.entity.ModelControlRequestEntity;
+
+/**
+ * A progress message of the request progress stream,
+ * which is the state of one heartbeat event of the request, or the state of the request itself if eventId is 0
+ */
+@Data
+public class RequestProgressInfo {
+    private long requestId;
+
+    private long eventId;
+
+    private String eventType;
+
+    private int stage;
+
+    private String status;
+
+    private boolean completed;
+
+    private String operateResult;
+
+    public static RequestProgressInfo of(HeartBeatEventEntity eventEntity) {
+        RequestProgressInfo info = new RequestProgressInfo();
+        info.setRequestId(eventEntity.getRequestId());
+        info.setEventId(eventEntity.getId());
+        info.setEventType(eventEntity.getType());
+        info.setStage(eventEntity.getStage());
+        info.setStatus(eventEntity.getStatus());
+        info.setCompleted(eventEntity.isCompleted());
+        info.setOperateResult(eventEntity.getOperateResult());
+        return info;
+    }
+
+    public static RequestProgressInfo of(ModelControlRequestEntity requestEntity) {
+        RequestProgressInfo info = new RequestProgressInfo();
+        info.setRequestId(requestEntity.getId());
+        info.setEventType(requestEntity.getRequestType() == null ? null : requestEntity.getRequestType().name());
+        info.setStage(requestEntity.getCurrentEventType());
+        info.setStatus(requestEntity.getStatus() == null ? null : requestEntity.getStatus().name());
+        info.setCompleted(requestEntity.isCompleted());
+        return info;
+    }
+}
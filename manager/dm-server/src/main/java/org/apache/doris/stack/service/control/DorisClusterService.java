@@ -26,8 +26,10 @@ import org.apache.doris.stack.control.ModelControlRequestType;
 import org.apache.doris.stack.control.ModelControlResponse;
 import org.apache.doris.stack.control.request.DorisClusterRequest;
 import org.apache.doris.stack.control.request.content.DorisClusterCreationRequest;
+import org.apache.doris.stack.control.request.content.DorisClusterResizeRequest;
 import org.apache.doris.stack.control.request.content.DorisClusterTakeOverRequest;
 import org.apache.doris.stack.control.request.handler.DorisClusterCreationRequestHandler;
+import org.apache.doris.stack.control.request.handler.DorisClusterResizeRequestHandler;
 import org.apache.doris.stack.control.request.handler.DorisClusterRestartRequestHandler;
 import org.apache.doris.stack.control.request.handler.DorisClusterStartRequestHandler;
 import org.apache.doris.stack.control.request.handler.DorisClusterStopRequestHandler;
@@ -49,6 +51,7 @@ import org.apache.doris.stack.entity.ResourceNodeEntity;
 import org.apache.doris.stack.model.request.control.DeployConfigItem;
 import org.apache.doris.stack.model.request.control.DorisClusterCreationReq;
 import org.apache.doris.stack.model.request.control.DorisClusterModuleDeployConfig;
+import org.apache.doris.stack.model.request.control.DorisClusterResizeReq;
 import org.apache.doris.stack.model.request.control.DorisClusterTakeOverReq;
 import org.apache.doris.stack.model.response.control.ClusterInstanceInfo;
 import org.apache.doris.stack.model.response.control.ClusterModuleInfo;
@@ -96,6 +99,9 @@ public class DorisClusterService {
     @Autowired
     private DorisClusterRestartRequestHandler restartRequestHandler;
 
+    @Autowired
+    private DorisClusterResizeRequestHandler resizeRequestHandler;
+
     @Autowired
     private JdbcSampleClient jdbcSampleClient;
 
@@ -159,6 +165,18 @@ public class DorisClusterService {
         return response;
     }
 
+    public ModelControlResponse resizeCluster(CoreUserEntity user, DorisClusterResizeReq resizeReq) throws Exception {
+        log.info("Rquest info is {}", JSON.toJSON(resizeReq));
+        userComponent.checkUserSpuerAdminOrClusterAdmin(user, resizeReq.getClusterId());
+        DorisClusterResizeRequest request = new DorisClusterResizeRequest();
+        request.setType(ModelControlRequestType.RESIZE);
+        request.setReqInfo(resizeReq);
+        request.setClusterId(resizeReq.getClusterId());
+        request.setRequestId(0);
+        ModelControlResponse response = resizeRequestHandler.handleRequest(user, request);
+        return response;
+    }
+
     /**
      * TODO:Subsequent improvement
      * @return
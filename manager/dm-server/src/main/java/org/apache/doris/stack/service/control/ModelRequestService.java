@@ -19,23 +19,35 @@ package org.apache.doris.stack.service.control;
 
 import com.alibaba.fastjson.JSON;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.stack.component.RequestProgressHub;
 import org.apache.doris.stack.control.ModelControlRequestType;
 import org.apache.doris.stack.control.ModelControlStatus;
+import org.apache.doris.stack.control.manager.DorisClusterRollingRestartManager;
 import org.apache.doris.stack.dao.HeartBeatEventRepository;
 import org.apache.doris.stack.dao.ModelControlRequestRepository;
 import org.apache.doris.stack.entity.HeartBeatEventEntity;
 import org.apache.doris.stack.entity.ModelControlRequestEntity;
+import org.apache.doris.stack.model.response.control.RequestProgressInfo;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 @Slf4j
-public class ModelRequestService {
+public class ModelRequestService implements InitializingBean {
 
     @Autowired
     private ModelControlRequestRepository requestRepository;
@@ -43,46 +55,159 @@ public class ModelRequestService {
     @Autowired
     private HeartBeatEventRepository eventRepository;
 
+    @Autowired
+    private RequestProgressHub progressHub;
+
+    @Autowired
+    private DorisClusterRollingRestartManager rollingRestartManager;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // eventsCompleted runs after the heartbeat transaction is committed, but that transaction is still bound
+    // to the thread, a save joining it would never be flushed, so a request is completed in a new transaction
+    private TransactionTemplate completeTransaction;
+
+    // START, STOP and RESTART requests are completed when their last event is completed by the agent
+    private static final List<ModelControlRequestType> AGENT_COMPLETED_REQUEST_TYPES = Arrays.asList(
+            ModelControlRequestType.START, ModelControlRequestType.STOP, ModelControlRequestType.RESTART);
+
+    // request id -> events of the request not completed yet, seeded from database when the request is first seen
+    private ConcurrentHashMap<Long, AtomicLong> outstandingEvents = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        completeTransaction = new TransactionTemplate(transactionManager);
+        completeTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Called after the heartbeat results which complete some events are committed.
+     * The request is checked in database only when its outstanding event count drops to 0,
+     * the count is seeded again from database if events are added to the request in the meantime.
+     *
+     * @param completedEvents request id -> number of events completed
+     */
+    public void eventsCompleted(Map<Long, Integer> completedEvents) {
+        for (Map.Entry<Long, Integer> entry : completedEvents.entrySet()) {
+            long requestId = entry.getKey();
+            if (requestId < 1) {
+                continue;
+            }
+
+            AtomicLong outstanding = outstandingEvents.get(requestId);
+            long remaining;
+            if (outstanding == null) {
+                // the completions just committed are already counted
+                remaining = eventRepository.countByRequestIdAndCompleted(requestId, false);
+                outstandingEvents.putIfAbsent(requestId, new AtomicLong(remaining));
+            } else {
+                remaining = outstanding.addAndGet(-entry.getValue());
+            }
+            log.debug("request {} has {} outstanding events", requestId, remaining);
+
+            if (remaining <= 0) {
+                requestRepository.findById(requestId).ifPresent(requestEntity -> {
+                    if (requestEntity.isCompleted()
+                            || !AGENT_COMPLETED_REQUEST_TYPES.contains(requestEntity.getRequestType())) {
+                        outstandingEvents.remove(requestId);
+                        return;
+                    }
+                    completeIfAllEventsDone(requestEntity);
+                });
+            }
+        }
+    }
+
     /**
-     * Finally, you need to wait for the request of the result returned by the agent,
-     * regularly check whether it is completed
+     * Safety net of eventsCompleted, such as for the requests whose events are completed before the manager restarts.
      * It does not include the requests to create a new cluster and take over the cluster,
      * because those two requests are controlled by the front-end page.
      * The last event can be reached only after one event is completed.
-     * The last event has nothing to be completed by the agent, so it does not need to be checked
+     * The last event has nothing to be completed by the agent, so it does not need to be checked.
+     * The requests are completed by eventsCompleted in time, so the scan runs every 5 minutes by default,
+     * it can be configured by model.request.complete.scan.interval in milliseconds
      */
-    @Scheduled(cron = "0/30 * * * * ?")
+    @Scheduled(fixedDelayString = "${model.request.complete.scan.interval:300000}")
     public void completeRequest() {
         log.debug("Modify the request status that can only be completed through the agent heartbeat asynchronous event");
-        List<ModelControlRequestEntity> notCompletedRequests = new ArrayList<>();
-        // get start model not completed request
-        notCompletedRequests.addAll(requestRepository.getByRequestTypeAndCompleted(ModelControlRequestType.START, false));
+        List<ModelControlRequestEntity> notCompletedRequests =
+                requestRepository.getByRequestTypesAndCompleted(AGENT_COMPLETED_REQUEST_TYPES, false);
 
-        // get stop model not completed request
-        notCompletedRequests.addAll(requestRepository.getByRequestTypeAndCompleted(ModelControlRequestType.STOP, false));
+        for (ModelControlRequestEntity requestEntity : notCompletedRequests) {
+            completeIfAllEventsDone(requestEntity);
+        }
+    }
 
-        // get restart model not completed request
-        notCompletedRequests.addAll(requestRepository.getByRequestTypeAndCompleted(ModelControlRequestType.RESTART, false));
+    private void completeIfAllEventsDone(ModelControlRequestEntity requestEntity) {
+        completeTransaction.executeWithoutResult(status -> doCompleteIfAllEventsDone(requestEntity));
+    }
 
-        for (ModelControlRequestEntity requestEntity : notCompletedRequests) {
-            List<HeartBeatEventEntity> notCompletedEvents = eventRepository.getByRequestIdAndCompleted(requestEntity.getId(), false);
-            // All events completed
-            if (notCompletedEvents.isEmpty()) {
-                Set<String> completedStatus = eventRepository.getStatusByRequestId(requestEntity.getId());
-                // TODO:ModelControlStatus.CANCEL is not currently supported
-                if (completedStatus.contains(ModelControlStatus.FAIL.name())) {
-                    requestEntity.setStatus(ModelControlStatus.FAIL);
-                } else {
-                    requestEntity.setStatus(ModelControlStatus.SUCCESS);
-                }
-                requestEntity.setCompleted(true);
-                requestRepository.save(requestEntity);
-                log.info("The request {} has been completed", requestEntity.getId());
-            } else {
-                log.info("The request {} not completed", requestEntity.getId());
-                continue;
+    private void doCompleteIfAllEventsDone(ModelControlRequestEntity requestEntity) {
+        if (requestEntity.getRequestType() == ModelControlRequestType.RESTART) {
+            if (rollingRestartManager.isInterrupted(requestEntity)) {
+                // the events of the waves restarted may all be done, but the other waves are never restarted
+                log.warn("The rolling restart of request {} is interrupted by the restart of manager",
+                        requestEntity.getId());
+                complete(requestEntity, ModelControlStatus.FAIL);
+                return;
             }
+            // the waves not restarted yet have no events, the rolling restart completes the request,
+            // or the handler fails it if the rolling restart is not started
+            outstandingEvents.remove(requestEntity.getId());
+            return;
+        }
+
+        long notCompletedEvents = eventRepository.countByRequestIdAndCompleted(requestEntity.getId(), false);
+        if (notCompletedEvents > 0) {
+            log.info("The request {} not completed", requestEntity.getId());
+            outstandingEvents.put(requestEntity.getId(), new AtomicLong(notCompletedEvents));
+            return;
+        }
+
+        // All events completed
+        Set<String> completedStatus = eventRepository.getStatusByRequestId(requestEntity.getId());
+        // TODO:ModelControlStatus.CANCEL is not currently supported
+        if (completedStatus.contains(ModelControlStatus.FAIL.name())) {
+            complete(requestEntity, ModelControlStatus.FAIL);
+        } else {
+            complete(requestEntity, ModelControlStatus.SUCCESS);
+        }
+    }
+
+    private void complete(ModelControlRequestEntity requestEntity, ModelControlStatus status) {
+        requestEntity.setStatus(status);
+        requestEntity.setCompleted(true);
+        requestRepository.save(requestEntity);
+        outstandingEvents.remove(requestEntity.getId());
+        progressHub.publishRequest(RequestProgressInfo.of(requestEntity));
+        log.info("The request {} has been completed", requestEntity.getId());
+    }
+
+    /**
+     * Watch the progress of the request, the current state of the request and its events is sent first,
+     * then the event progress ingested from the agent heartbeats until the request is completed
+     *
+     * @param requestId
+     * @return server-sent-events stream
+     * @throws Exception
+     */
+    public SseEmitter watchRequestProgress(long requestId) throws Exception {
+        if (requestId < 1) {
+            log.error("request id error.");
+            throw new Exception("request id error.");
+        }
+        ModelControlRequestEntity requestEntity = requestRepository.findById(requestId).get();
+
+        // subscribe before reading the snapshot, so the progress in the meantime is not missed
+        SseEmitter emitter = progressHub.subscribe(requestId);
+        List<RequestProgressInfo> snapshot = new ArrayList<>();
+        snapshot.add(RequestProgressInfo.of(requestEntity));
+        for (HeartBeatEventEntity eventEntity : eventRepository.getByRequestId(requestId)) {
+            snapshot.add(RequestProgressInfo.of(eventEntity));
         }
+        progressHub.sendSnapshot(emitter, snapshot, requestEntity.isCompleted());
+        return emitter;
     }
 
     public Object getRequestInfo(long requestId) throws Exception {
@@ -18,6 +18,9 @@
 package org.apache.doris.stack.service.control;
 
 import com.alibaba.fastjson.JSON;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.doris.manager.common.heartbeat.HeartBeatContext;
 import org.apache.doris.manager.common.heartbeat.HeartBeatEventInfo;
@@ -29,6 +32,11 @@ import org.apache.doris.manager.common.heartbeat.InstanceInfo;
 import org.apache.doris.manager.common.heartbeat.InstanceStateResult;
 import org.apache.doris.manager.common.heartbeat.config.AgentInstallEventConfigInfo;
 import org.apache.doris.manager.common.util.ServerAndAgentConstant;
+import org.apache.doris.stack.component.AgentHeartBeatNotifyComponent;
+import org.apache.doris.stack.component.AgentLivenessComponent;
+import org.apache.doris.stack.component.AgentPackageComponent;
+import org.apache.doris.stack.component.InstanceDeployDependencyComponent;
+import org.apache.doris.stack.component.RequestProgressHub;
 import org.apache.doris.stack.control.ModelControlState;
 import org.apache.doris.stack.control.manager.ResourceNodeAndAgentManager;
 import org.apache.doris.stack.dao.ClusterInstanceRepository;
@@ -44,16 +52,31 @@ import org.apache.doris.stack.entity.HeartBeatEventEntity;
 import org.apache.doris.stack.entity.ResourceClusterEntity;
 import org.apache.doris.stack.entity.ResourceNodeEntity;
 import org.apache.doris.stack.model.request.control.PMResourceClusterAccessInfo;
+import org.apache.doris.stack.model.response.control.RequestProgressInfo;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.async.DeferredResult;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @Slf4j
@@ -80,64 +103,141 @@ public class ResourceClusterNodeService {
     @Autowired
     private ClusterModuleServiceRepository serviceRepository;
 
+    @Autowired
+    private AgentHeartBeatNotifyComponent heartBeatNotifyComponent;
+
+    @Autowired
+    private AgentLivenessComponent livenessComponent;
+
+    @Autowired
+    private ModelRequestService modelRequestService;
+
+    @Autowired
+    private RequestProgressHub progressHub;
+
+    @Autowired
+    private AgentPackageComponent agentPackageComponent;
+
+    @Autowired
+    private InstanceDeployDependencyComponent deployDependencyComponent;
+
+    // The max time a long-polling heartbeat request waits for new events
+    private static final long MAX_HEARTBEAT_WAIT_MS = 30 * 1000L;
+
+    // The module service ports of instances may change without changing the instances,
+    // so the cached instance infos expire after a while
+    private static final long INSTANCE_INFO_CACHE_EXPIRE_MS = 60 * 1000L;
+
+    // agent node id -> instance infos built for the instance version
+    private ConcurrentHashMap<Long, VersionedInstanceInfos> instanceInfoCache = new ConcurrentHashMap<>();
+
+    private static class VersionedInstanceInfos {
+        private final String version;
+
+        private final List<InstanceInfo> instanceInfos;
+
+        private final long createTime = System.currentTimeMillis();
+
+        VersionedInstanceInfos(String version, List<InstanceInfo> instanceInfos) {
+            this.version = version;
+            this.instanceInfos = instanceInfos;
+        }
+    }
+
     // Send uncompleted heartbeat events that need to be handled by agent
     public List<HeartBeatEventInfo> getHeartbeat(long agentNodeId) {
+        return getHeartbeat(agentNodeId, instanceRepository.getByNodeId(agentNodeId));
+    }
+
+    // The current events of the agent and all its instances are loaded in one query
+    private List<HeartBeatEventInfo> getHeartbeat(long agentNodeId, List<ClusterInstanceEntity> instanceEntities) {
         log.info("Get agent {} uncompleted heartbeat events", agentNodeId);
         List<HeartBeatEventInfo> eventInfos = new ArrayList<>();
 
         ResourceNodeEntity nodeEntity = nodeRepository.findById(agentNodeId).get();
 
-        HeartBeatEventEntity agentEvent = heartBeatEventRepository.findById(nodeEntity.getCurrentEventId()).get();
-        addHeartbeatByEntity(agentEvent, agentNodeId, 0L, eventInfos);
+        Set<Long> eventIds = new HashSet<>();
+        if (nodeEntity.getCurrentEventId() >= 1L) {
+            eventIds.add(nodeEntity.getCurrentEventId());
+        }
+        for (ClusterInstanceEntity instanceEntity : instanceEntities) {
+            if (instanceEntity.getCurrentEventId() >= 1L) {
+                eventIds.add(instanceEntity.getCurrentEventId());
+            }
+        }
+        Map<Long, HeartBeatEventEntity> eventEntities = new HashMap<>();
+        for (HeartBeatEventEntity eventEntity : heartBeatEventRepository.findAllById(eventIds)) {
+            eventEntities.put(eventEntity.getId(), eventEntity);
+        }
 
-        List<ClusterInstanceEntity> instanceEntities = instanceRepository.getByNodeId(agentNodeId);
+        if (nodeEntity.getCurrentEventId() >= 1L) {
+            addHeartbeatByEntity(eventEntities.get(nodeEntity.getCurrentEventId()), agentNodeId, 0L, eventInfos);
+        }
         for (ClusterInstanceEntity instanceEntity : instanceEntities) {
             if (instanceEntity.getCurrentEventId() < 1L) {
                 continue;
             }
-            HeartBeatEventEntity instanceEvent =
-                    heartBeatEventRepository.findById(instanceEntity.getCurrentEventId()).get();
-            addHeartbeatByEntity(instanceEvent, agentNodeId, instanceEntity.getId(), eventInfos);
+            HeartBeatEventEntity eventEntity = eventEntities.get(instanceEntity.getCurrentEventId());
+            if (eventEntity != null && deployDependencyComponent.isWaiting(instanceEntity, eventEntity)) {
+                continue;
+            }
+            addHeartbeatByEntity(eventEntity, agentNodeId, instanceEntity.getId(), eventInfos);
         }
-        nodeEntity.setLastHeartBeatTimestamp(new Timestamp(System.currentTimeMillis()));
-        nodeRepository.save(nodeEntity);
+        livenessComponent.heartbeat(agentNodeId);
         return eventInfos;
     }
 
     public List<InstanceInfo> getInstanceInfo(long agentNodeId) {
-        log.info("get node {} instance info", agentNodeId);
         List<ClusterInstanceEntity> instanceEntities = instanceRepository.getByNodeId(agentNodeId);
+        return getInstanceInfo(agentNodeId, instanceEntities, getInstanceVersion(instanceEntities));
+    }
+
+    /*
+     * Build the instance infos of the node with two queries whatever the instance count is,
+     * one for the modules of the instances and one for the http services of their clusters.
+     * The result is cached as the projection of the node until the instances change.
+     */
+    private List<InstanceInfo> getInstanceInfo(long agentNodeId, List<ClusterInstanceEntity> instanceEntities,
+                                               String version) {
+        VersionedInstanceInfos cached = instanceInfoCache.get(agentNodeId);
+        if (cached != null && cached.version.equals(version)
+                && System.currentTimeMillis() - cached.createTime < INSTANCE_INFO_CACHE_EXPIRE_MS) {
+            log.debug("get node {} instance info from cache, version {}", agentNodeId, version);
+            return cached.instanceInfos;
+        }
 
+        log.info("get node {} instance info", agentNodeId);
         List<InstanceInfo> instanceInfos = new ArrayList<>();
+        if (instanceEntities.isEmpty()) {
+            instanceInfoCache.put(agentNodeId, new VersionedInstanceInfos(version, instanceInfos));
+            return instanceInfos;
+        }
+
+        Set<Long> moduleIds = new HashSet<>();
+        instanceEntities.forEach(ins -> moduleIds.add(ins.getModuleId()));
+        Map<Long, ClusterModuleEntity> moduleEntities = new HashMap<>();
+        for (ClusterModuleEntity moduleEntity : clusterModuleRepository.findAllById(moduleIds)) {
+            moduleEntities.put(moduleEntity.getId(), moduleEntity);
+        }
+        Map<String, Integer> httpPorts = getHttpPorts(moduleEntities.values());
 
         for (ClusterInstanceEntity ins : instanceEntities) {
-            Optional<ClusterModuleEntity> moduleEntityOpt = clusterModuleRepository.findById(ins.getModuleId());
-            if (!moduleEntityOpt.isPresent()) {
+            ClusterModuleEntity moduleEntity = moduleEntities.get(ins.getModuleId());
+            if (moduleEntity == null) {
                 log.error("this instance module {} is not find, ignore it", ins.getModuleId());
                 continue;
             }
 
-            ClusterModuleEntity moduleEntity = moduleEntityOpt.get();
-
             log.info("to get module {} instance {} info", moduleEntity.getModuleName(), ins.getId());
 
-            int httpPort = 0;
             String httpServerName = "";
             if (moduleEntity.getModuleName().equals(ServerAndAgentConstant.FE_NAME)) {
                 httpServerName = ServerAndAgentConstant.FE_HTTP_SERVICE;
             } else if (moduleEntity.getModuleName().equals(ServerAndAgentConstant.BE_NAME)) {
                 httpServerName = ServerAndAgentConstant.BE_HTTP_SERVICE;
             }
-
-            List<ClusterModuleServiceEntity> httpServices = serviceRepository.getByClusterIdAndName(
-                    moduleEntity.getClusterId(), httpServerName);
-
-            for (ClusterModuleServiceEntity service : httpServices) {
-                List<String> addrList = JSON.parseArray(service.getAddressInfo(), String.class);
-                if (addrList.contains(ins.getAddress())) {
-                    httpPort = service.getPort();
-                }
-            }
+            int httpPort = httpPorts.getOrDefault(
+                    httpPortKey(moduleEntity.getClusterId(), httpServerName, ins.getAddress()), 0);
 
             log.info("module {} instance {} http port is {}", moduleEntity.getModuleName(), ins.getId(), httpPort);
 
@@ -147,34 +247,228 @@ public class ResourceClusterNodeService {
             instanceInfos.add(instanceInfo);
         }
 
+        instanceInfoCache.put(agentNodeId, new VersionedInstanceInfos(version, instanceInfos));
         return instanceInfos;
     }
 
+    // http port of the fe and be services of the clusters, key is cluster id + service name + address
+    private Map<String, Integer> getHttpPorts(Collection<ClusterModuleEntity> moduleEntities) {
+        Map<String, Integer> httpPorts = new HashMap<>();
+        Set<Long> clusterIds = new HashSet<>();
+        moduleEntities.forEach(module -> clusterIds.add(module.getClusterId()));
+        if (clusterIds.isEmpty()) {
+            return httpPorts;
+        }
+
+        List<ClusterModuleServiceEntity> httpServices = serviceRepository.getByClusterIdsAndNames(clusterIds,
+                Arrays.asList(ServerAndAgentConstant.FE_HTTP_SERVICE, ServerAndAgentConstant.BE_HTTP_SERVICE));
+        for (ClusterModuleServiceEntity service : httpServices) {
+            List<String> addrList = JSON.parseArray(service.getAddressInfo(), String.class);
+            if (addrList == null) {
+                continue;
+            }
+            for (String addr : addrList) {
+                httpPorts.put(httpPortKey(service.getClusterId(), service.getName(), addr), service.getPort());
+            }
+        }
+        return httpPorts;
+    }
+
+    private String httpPortKey(long clusterId, String serviceName, String address) {
+        return clusterId + "/" + serviceName + "/" + address;
+    }
+
+    /**
+     * Get the agent package for the node installing agent,
+     * it is only given to the host of the node, the package contains the server address and the agent config
+     *
+     * @param agentNodeId
+     * @param remoteAddr the address the package is downloaded from
+     * @return null if the address is not the host of the node
+     */
+    public AgentPackageComponent.AgentPackage getAgentPackage(long agentNodeId, String remoteAddr) {
+        Optional<ResourceNodeEntity> nodeEntity = nodeRepository.findById(agentNodeId);
+        if (!nodeEntity.isPresent() || !isHostAddress(nodeEntity.get().getHost(), remoteAddr)) {
+            log.warn("agent package of node {} is not given to {}", agentNodeId, remoteAddr);
+            return null;
+        }
+        return agentPackageComponent.getPackage();
+    }
+
+    // the host of the node may be a host name
+    private boolean isHostAddress(String host, String remoteAddr) {
+        if (host == null || remoteAddr == null) {
+            return false;
+        }
+        if (host.equals(remoteAddr)) {
+            return true;
+        }
+        try {
+            for (InetAddress address : InetAddress.getAllByName(host)) {
+                if (address.getHostAddress().equals(remoteAddr)) {
+                    return true;
+                }
+            }
+        } catch (UnknownHostException e) {
+            log.warn("resolve node host {} error: {}", host, e.getMessage());
+        }
+        return false;
+    }
+
     public HeartBeatContext getHeartBeatContext(long agentNodeId) {
+        return getHeartBeatContext(agentNodeId, null);
+    }
+
+    /**
+     * Get heartbeat context of the agent, uncompleted events are always returned,
+     * instance infos are returned only if they are changed since the instance version the agent has
+     *
+     * @param agentNodeId
+     * @param instanceVersion the instance version of last context the agent applied, null to get all
+     * @return
+     */
+    public HeartBeatContext getHeartBeatContext(long agentNodeId, String instanceVersion) {
         log.info("start to get heartbeat context");
         HeartBeatContext ctx = new HeartBeatContext();
-        ctx.setEvents(getHeartbeat(agentNodeId));
-        ctx.setInstanceInfos(getInstanceInfo(agentNodeId));
+        List<ClusterInstanceEntity> instanceEntities = instanceRepository.getByNodeId(agentNodeId);
+        ctx.setEvents(getHeartbeat(agentNodeId, instanceEntities));
+
+        String version = getInstanceVersion(instanceEntities);
+        ctx.setInstanceVersion(version);
+        if (version.equals(instanceVersion)) {
+            log.debug("node {} instances are not changed since version {}", agentNodeId, instanceVersion);
+            ctx.setInstanceChanged(false);
+            ctx.setInstanceInfos(new ArrayList<>());
+        } else {
+            ctx.setInstanceInfos(getInstanceInfo(agentNodeId, instanceEntities, version));
+        }
         return ctx;
     }
 
+    /**
+     * Get heartbeat context of the agent, if there are no events for the agent and waitMs is positive,
+     * the context is returned when a new event is created for the agent, or when waitMs is reached
+     *
+     * @param agentNodeId
+     * @param instanceVersion
+     * @param waitMs
+     * @return
+     */
+    public DeferredResult<HeartBeatContext> waitHeartBeatContext(long agentNodeId, String instanceVersion,
+                                                                 long waitMs) {
+        if (waitMs <= 0) {
+            DeferredResult<HeartBeatContext> result = new DeferredResult<>();
+            result.setResult(getHeartBeatContext(agentNodeId, instanceVersion));
+            return result;
+        }
+
+        DeferredResult<HeartBeatContext> result = new DeferredResult<>(Math.min(waitMs, MAX_HEARTBEAT_WAIT_MS));
+        Runnable waiter = () -> result.setResult(getHeartBeatContext(agentNodeId, instanceVersion));
+        // register before getting the context, so the event created in the meantime is not missed
+        heartBeatNotifyComponent.addWaiter(agentNodeId, waiter);
+        result.onCompletion(() -> heartBeatNotifyComponent.removeWaiter(agentNodeId, waiter));
+        result.onTimeout(() -> {
+            heartBeatNotifyComponent.removeWaiter(agentNodeId, waiter);
+            result.setResult(getHeartBeatContext(agentNodeId, instanceVersion));
+        });
+
+        HeartBeatContext ctx = getHeartBeatContext(agentNodeId, instanceVersion);
+        if (!ctx.getEvents().isEmpty()) {
+            result.setResult(ctx);
+        }
+        return result;
+    }
+
+    private String getInstanceVersion(List<ClusterInstanceEntity> instanceEntities) {
+        List<ClusterInstanceEntity> sortedEntities = new ArrayList<>(instanceEntities);
+        sortedEntities.sort(Comparator.comparingLong(ClusterInstanceEntity::getId));
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (ClusterInstanceEntity ins : sortedEntities) {
+            hasher.putLong(ins.getId());
+            hasher.putLong(ins.getModuleId());
+            hasher.putString(String.valueOf(ins.getAddress()), Charsets.UTF_8);
+            hasher.putString(String.valueOf(ins.getInstallInfo()), Charsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
     // Handle the result of the heartbeat event of the agent
     public void dealHeartbeatResult(List<HeartBeatEventResult> eventResults) {
+        Set<Long> eventIds = new HashSet<>();
+        eventResults.forEach(eventResult -> eventIds.add(eventResult.getEventId()));
+        Map<Long, HeartBeatEventEntity> eventEntities = new HashMap<>();
+        for (HeartBeatEventEntity eventEntity : heartBeatEventRepository.findAllById(eventIds)) {
+            eventEntities.put(eventEntity.getId(), eventEntity);
+        }
+
+        // request id -> number of events completed by these results
+        Map<Long, Integer> completedEvents = new HashMap<>();
+        List<RequestProgressInfo> progressInfos = new ArrayList<>();
         for (HeartBeatEventResult eventResult : eventResults) {
             long eventId = eventResult.getEventId();
-            HeartBeatEventEntity eventEntity = heartBeatEventRepository.findById(eventId).get();
+            HeartBeatEventEntity eventEntity = eventEntities.get(eventId);
+            if (eventEntity == null) {
+                log.error("event {} does not exists", eventId);
+                continue;
+            }
             // The event has been cancelled
             if (eventEntity.isCompleted()) {
                 continue;
             }
-            eventEntity.setStatus(eventResult.getResultType().name());
+
+            String status = eventResult.getResultType().name();
+            String operateResult = JSON.toJSONString(eventResult.getResultInfo());
+            // the agent sends the result again until it is acknowledged, or reports the same progress
+            if (status.equals(eventEntity.getStatus()) && operateResult.equals(eventEntity.getOperateResult())
+                    && eventResult.isCompleted() == eventEntity.isCompleted()
+                    && eventResult.getEventStage() == eventEntity.getStage()) {
+                continue;
+            }
+            if (eventResult.isCompleted()) {
+                completedEvents.merge(eventEntity.getRequestId(), 1, Integer::sum);
+                deployDependencyComponent.eventCompleted(eventEntity);
+            }
+            eventEntity.setStatus(status);
             eventEntity.setCompleted(eventResult.isCompleted());
-            eventEntity.setOperateResult(JSON.toJSONString(eventResult.getResultInfo()));
+            eventEntity.setOperateResult(operateResult);
             eventEntity.setStage(eventResult.getEventStage());
+            // the entity is managed, the update is flushed in a jdbc batch when the transaction commits
             heartBeatEventRepository.save(eventEntity);
+            if (progressHub.hasWatchers(eventEntity.getRequestId())) {
+                progressInfos.add(RequestProgressInfo.of(eventEntity));
+            }
+        }
+
+        if (!progressInfos.isEmpty()) {
+            afterCommit(() -> progressInfos.forEach(progressHub::publishEvent));
+        }
+        if (!completedEvents.isEmpty()) {
+            afterCommit(() -> modelRequestService.eventsCompleted(completedEvents));
         }
     }
 
+    // Run the task after the current transaction is committed, or right now if there is no transaction
+    private void afterCommit(Runnable task) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Handle the whole heartbeat result of an agent in one transaction,
+     * the events and instances are loaded in one query each and only the changed ones are updated.
+     *
+     * @param ctx heartbeat result
+     */
+    @Transactional(rollbackFor = Exception.class)
     public void dealHeartbeatContext(HeartBeatResult ctx) {
         log.info("deal heart beat context {}", ctx);
 
@@ -187,24 +481,40 @@ public class ResourceClusterNodeService {
         if (ctx.getStateResults() == null) {
             log.warn("no instance state result to deal");
         } else {
-            for (InstanceStateResult stateResult : ctx.getStateResults()) {
-                dealInstanceState(stateResult);
-            }
+            dealInstanceStates(ctx.getStateResults());
         }
     }
 
     public void dealInstanceState(InstanceStateResult stateResult) {
-        log.info("update module {} instance {}  state is {}",  stateResult.getModuleName(), stateResult.getInstanceId(),
-                stateResult.getState());
+        dealInstanceStates(Collections.singletonList(stateResult));
+    }
 
-        Optional<ClusterInstanceEntity> instanceEntityOpt = instanceRepository.findById(stateResult.getInstanceId());
-        if (!instanceEntityOpt.isPresent()) {
-            log.error("instance {} does not exists", stateResult.getInstanceId());
+    private void dealInstanceStates(List<InstanceStateResult> stateResults) {
+        Set<Long> instanceIds = new HashSet<>();
+        stateResults.forEach(stateResult -> instanceIds.add(stateResult.getInstanceId()));
+        Map<Long, ClusterInstanceEntity> instanceEntities = new HashMap<>();
+        for (ClusterInstanceEntity instanceEntity : instanceRepository.findAllById(instanceIds)) {
+            instanceEntities.put(instanceEntity.getId(), instanceEntity);
         }
 
-        ClusterInstanceEntity instanceEntity = instanceEntityOpt.get();
-        instanceEntity.setCurrentState(stateResult.getState().getValue());
-        instanceRepository.save(instanceEntity);
+        for (InstanceStateResult stateResult : stateResults) {
+            ClusterInstanceEntity instanceEntity = instanceEntities.get(stateResult.getInstanceId());
+            if (instanceEntity == null) {
+                log.error("instance {} does not exists", stateResult.getInstanceId());
+                continue;
+            }
+
+            int state = stateResult.getState().getValue();
+            if (instanceEntity.getCurrentState() == state) {
+                log.debug("module {} instance {} state is still {}", stateResult.getModuleName(),
+                        stateResult.getInstanceId(), stateResult.getState());
+                continue;
+            }
+            log.info("update module {} instance {}  state is {}", stateResult.getModuleName(),
+                    stateResult.getInstanceId(), stateResult.getState());
+            instanceEntity.setCurrentState(state);
+            instanceRepository.save(instanceEntity);
+        }
     }
 
     public void operateAgent(long nodeId, String operateType) throws Exception {
@@ -237,6 +547,10 @@ public class ResourceClusterNodeService {
 
     private void addHeartbeatByEntity(HeartBeatEventEntity eventEntity, long agentNodeId,
                                       long instanceId, List<HeartBeatEventInfo> eventInfos) {
+        if (eventEntity == null) {
+            log.warn("the current event of agent {} instance {} does not exist", agentNodeId, instanceId);
+            return;
+        }
         if (!eventEntity.isCompleted()) {
             HeartBeatEventInfo eventInfo = new HeartBeatEventInfo();
             eventInfo.setAgentNodeId(agentNodeId);
@@ -272,6 +586,7 @@ public class ResourceClusterNodeService {
         }
     }
 
+    // The last heartbeat time is read from memory, only the nodes whose state changes are saved
     @Scheduled(cron = "0/60 * * * * ?")
     public void agentNodeStateCheck() {
         log.info("start to check agent nodes state");
@@ -282,7 +597,14 @@ public class ResourceClusterNodeService {
         }
 
         for (ResourceNodeEntity node : nodes) {
-            Timestamp lastTime = node.getLastHeartBeatTimestamp();
+            long elapsed = livenessComponent.getElapsedMillis(node.getId());
+            Timestamp lastTime = livenessComponent.getLastHeartBeatTimestamp(node.getId());
+            if (elapsed < 0) {
+                // no heartbeat since the manager started
+                lastTime = node.getLastHeartBeatTimestamp();
+                elapsed = lastTime == null ? -1L : System.currentTimeMillis() - lastTime.getTime();
+            }
+
             if (lastTime == null) {
                 log.warn("not receive heartbeat yet form node {} {}", node.getId(), node.getHost());
                 if (node.getCurrentState() != ModelControlState.INIT.getValue()) {
@@ -292,24 +614,27 @@ public class ResourceClusterNodeService {
                 continue;
             }
 
-            log.info("node {} {} last heartbeat time {}", node.getId(), node.getHost(),
+            log.debug("node {} {} last heartbeat time {}", node.getId(), node.getHost(),
                     new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(lastTime));
-            if (System.currentTimeMillis() - lastTime.getTime() > 60 * 1000) {
+            int state;
+            if (elapsed > 60 * 1000) {
                 log.warn("node {} heartbeat timeout", node.getId());
-                log.warn("update node {} form {} to {}", node.getId(), node.getCurrentState(),
-                        ModelControlState.UNKNOWN.getValue());
-                if (node.getCurrentState() != ModelControlState.UNKNOWN.getValue()) {
-                    node.setCurrentState(ModelControlState.UNKNOWN.getValue());
-                    log.info("update all instance of node {} to UNKNOWN", node.getId());
-                    updateInstancesState(node, ModelControlState.UNKNOWN.getValue());
-                }
+                state = ModelControlState.UNKNOWN.getValue();
             } else {
-                log.info("node {} heartbeat state normal", node.getId());
-                log.warn("update node {} form {} to {}", node.getId(), node.getCurrentState(),
-                        ModelControlState.RUNNING.getValue());
-                if (node.getCurrentState() != ModelControlState.RUNNING.getValue()) {
-                    node.setCurrentState(ModelControlState.RUNNING.getValue());
-                }
+                log.debug("node {} heartbeat state normal", node.getId());
+                state = ModelControlState.RUNNING.getValue();
+            }
+            if (node.getCurrentState() == state) {
+                continue;
+            }
+
+            log.warn("update node {} form {} to {}", node.getId(), node.getCurrentState(), state);
+            node.setCurrentState(state);
+            // the entity loaded from database may have an older heartbeat time than memory
+            node.setLastHeartBeatTimestamp(lastTime);
+            if (state == ModelControlState.UNKNOWN.getValue()) {
+                log.info("update all instance of node {} to UNKNOWN", node.getId());
+                updateInstancesState(node, state);
             }
             nodeRepository.save(node);
         }
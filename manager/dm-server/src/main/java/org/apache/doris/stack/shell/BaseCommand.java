@@ -18,20 +18,60 @@
 package org.apache.doris.stack.shell;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 /**
  * base command
+ *
+ * The stdout and stderr of the process are drained at the same time by the output threads,
+ * so a process filling one pipe never blocks, and only the last MAX_OUTPUT_CHARS of each output are kept.
+ * The command is started by setsid if it exists, so it leads a new process group, and when the timeout expires
+ * the whole group is killed, including the descendants already reparented to init.
+ * Without setsid, the descendants are killed on java 9+, but only the direct children on java 8.
  **/
 @Slf4j
 public abstract class BaseCommand {
 
+    private static final int TIMEOUT_EXIT_CODE = 124; // the same as timeout command
+
+    private static final int MAX_OUTPUT_CHARS = 64 * 1024;
+
+    // the output of a killed process is closed soon, do not wait for the orphans holding the pipes
+    private static final long OUTPUT_DRAIN_TIMEOUT_MS = 2000L;
+
+    private static final String SETSID = Stream.of("/usr/bin/setsid", "/bin/setsid")
+            .filter(path -> Files.isExecutable(Paths.get(path))).findFirst().orElse(null);
+
+    private static final ExecutorService OUTPUT_EXECUTOR =
+            Executors.newCachedThreadPool(new CustomizableThreadFactory("command-output-"));
+
+    // command name -> statistics
+    private static final Map<String, Statistics> STATISTICS = new ConcurrentHashMap<>();
+
     protected String[] resultCommand;
     protected String stdoutResponse;
     protected String errorResponse;
@@ -55,56 +95,205 @@ public abstract class BaseCommand {
         return run(0);
     }
 
+    /**
+     * Run the command and wait for it to exit
+     *
+     * @param timeoutMs max milliseconds to wait, 0 to wait until the command exits
+     * @return true if the command exits with 0
+     */
     public boolean run(long timeoutMs) {
         buildCommand();
         log.info("run command: {} ,timeout time: {}ms", StringUtils.join(resultCommand, " "), timeoutMs);
-        ProcessBuilder pb = new ProcessBuilder(resultCommand);
+        String name = resultCommand[0];
+        long startTime = System.currentTimeMillis();
+        ProcessBuilder pb = new ProcessBuilder(SETSID == null ? resultCommand
+                : ArrayUtils.insert(0, resultCommand, SETSID));
         Process process = null;
-        BufferedReader stdoutBufferedReader = null;
-        BufferedReader errorBufferedReader = null;
+        boolean timeout = false;
         try {
-            process = pb.start();
-            stdoutBufferedReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            errorBufferedReader = new BufferedReader(new InputStreamReader(process.getErrorStream()));
-
-            stdoutResponse = stdoutBufferedReader.lines().parallel().collect(Collectors.joining(System.lineSeparator()));
-            errorResponse = errorBufferedReader.lines().parallel().collect(Collectors.joining(System.lineSeparator()));
+            Process started = pb.start();
+            process = started;
+            started.getOutputStream().close();
+            Future<String> stdoutFuture = OUTPUT_EXECUTOR.submit(() -> drain(started.getInputStream()));
+            Future<String> errorFuture = OUTPUT_EXECUTOR.submit(() -> drain(started.getErrorStream()));
 
             if (timeoutMs <= 0) {
                 exitCode = process.waitFor();
-            } else {
-                boolean isExit = process.waitFor(timeoutMs, TimeUnit.MICROSECONDS);
-                if (!isExit) {
-                    exitCode = 124; // the same as timeout command
-                    log.error("command run timeout in {}ms", timeoutMs);
-                    return false;
-                }
+            } else if (process.waitFor(timeoutMs, TimeUnit.MILLISECONDS)) {
                 exitCode = process.exitValue();
+            } else {
+                timeout = true;
+                exitCode = TIMEOUT_EXIT_CODE;
+                killTree(process);
             }
+            stdoutResponse = getOutput(stdoutFuture);
+            errorResponse = getOutput(errorFuture);
 
-            if (exitCode == 0) {
+            if (timeout) {
+                log.error("command run timeout in {}ms", timeoutMs);
+                return false;
+            } else if (exitCode == 0) {
                 return true;
             } else {
                 log.error("shell command error, exit with {}, response:{}", exitCode, errorResponse);
                 return false;
             }
-        } catch (IOException | InterruptedException e) {
+        } catch (IOException e) {
             log.error("command execute fail", e);
+            exitCode = -1;
+            return false;
+        } catch (InterruptedException e) {
+            log.error("command execute interrupted");
+            Thread.currentThread().interrupt();
+            exitCode = -1;
+            killTree(process);
             return false;
         } finally {
             if (process != null) {
                 process.destroy();
             }
-            try {
-                if (stdoutBufferedReader != null) {
-                    stdoutBufferedReader.close();
+            long duration = System.currentTimeMillis() - startTime;
+            STATISTICS.computeIfAbsent(name, k -> new Statistics()).record(duration, exitCode, timeout);
+            log.debug("command {} exit with {} in {}ms", name, exitCode, duration);
+        }
+    }
+
+    /**
+     * Get the statistics of the commands run since the manager started, grouped by the command name
+     *
+     * @return command name -> count, failures, timeouts, total and max duration
+     */
+    public static Map<String, String> getStatistics() {
+        Map<String, String> statistics = new TreeMap<>();
+        STATISTICS.forEach((name, stats) -> statistics.put(name, stats.toString()));
+        return statistics;
+    }
+
+    private static class Statistics {
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder failures = new LongAdder();
+
+        private final LongAdder timeouts = new LongAdder();
+
+        private final LongAdder totalMillis = new LongAdder();
+
+        private final AtomicLong maxMillis = new AtomicLong();
+
+        void record(long millis, int exitCode, boolean timeout) {
+            count.increment();
+            if (timeout) {
+                timeouts.increment();
+            } else if (exitCode != 0) {
+                failures.increment();
+            }
+            totalMillis.add(millis);
+            maxMillis.accumulateAndGet(millis, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            long runs = count.sum();
+            return String.format("count=%d, failures=%d, timeouts=%d, avg=%dms, max=%dms", runs, failures.sum(),
+                    timeouts.sum(), runs == 0 ? 0 : totalMillis.sum() / runs, maxMillis.get());
+        }
+    }
+
+    // Read the output until it is closed, keep the last MAX_OUTPUT_CHARS of the lines
+    private static String drain(InputStream inputStream) throws IOException {
+        ArrayDeque<String> lines = new ArrayDeque<>();
+        int size = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.addLast(line);
+                size += line.length();
+                while (size > MAX_OUTPUT_CHARS && lines.size() > 1) {
+                    size -= lines.removeFirst().length();
                 }
-                if (errorBufferedReader != null) {
-                    errorBufferedReader.close();
+            }
+        }
+        return String.join(System.lineSeparator(), lines);
+    }
+
+    private static String getOutput(Future<String> future) throws InterruptedException {
+        try {
+            return future.get(OUTPUT_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            log.warn("read command output error: {}", e.getCause().getMessage());
+            return "";
+        } catch (TimeoutException e) {
+            // a background process started by the command still holds the output
+            future.cancel(true);
+            return "";
+        }
+    }
+
+    // Kill the process and its descendants, such as the remote command of ssh
+    private static void killTree(Process process) {
+        if (process == null) {
+            return;
+        }
+        int pid = getPid(process);
+        if (SETSID != null && pid > 0) {
+            // the process group id of the command is its pid
+            kill("kill", "-KILL", "--", "-" + pid);
+        } else {
+            killDescendants(process, pid);
+        }
+        process.destroyForcibly();
+    }
+
+    private static void killDescendants(Process process, int pid) {
+        try {
+            // ProcessHandle of java 9+
+            Class<?> handleClass = Class.forName("java.lang.ProcessHandle");
+            Object handle = Process.class.getMethod("toHandle").invoke(process);
+            Stream<?> descendants = (Stream<?>) handleClass.getMethod("descendants").invoke(handle);
+            Method destroyForcibly = handleClass.getMethod("destroyForcibly");
+            descendants.forEach(descendant -> {
+                try {
+                    destroyForcibly.invoke(descendant);
+                } catch (ReflectiveOperationException e) {
+                    log.warn("kill descendant process error: {}", e.getMessage());
                 }
-            } catch (IOException e) {
-                log.error("close buffered reader fail");
+            });
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            // java 8 can not list the descendants, only the direct children are killed
+            if (pid > 0) {
+                kill("pkill", "-KILL", "-P", String.valueOf(pid));
             }
+        } catch (ReflectiveOperationException e) {
+            log.warn("kill descendant processes error: {}", e.getMessage());
+        }
+    }
+
+    // -1 if the pid is unknown
+    private static int getPid(Process process) {
+        try {
+            // Process.pid() of java 9+
+            return ((Number) Process.class.getMethod("pid").invoke(process)).intValue();
+        } catch (NoSuchMethodException e) {
+            // on java 8 the pid is only a field of the UNIXProcess
+            try {
+                Field pidField = process.getClass().getDeclaredField("pid");
+                pidField.setAccessible(true);
+                return pidField.getInt(process);
+            } catch (ReflectiveOperationException ex) {
+                log.warn("get pid of process error: {}", ex.getMessage());
+                return -1;
+            }
+        } catch (ReflectiveOperationException e) {
+            log.warn("get pid of process error: {}", e.getMessage());
+            return -1;
+        }
+    }
+
+    private static void kill(String... command) {
+        try {
+            new ProcessBuilder(command).start().waitFor(1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            log.warn("{} error: {}", StringUtils.join(command, " "), e.getMessage());
         }
     }
 }
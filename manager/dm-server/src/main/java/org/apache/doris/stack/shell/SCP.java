@@ -17,6 +17,10 @@
 
 package org.apache.doris.stack.shell;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * scp
  **/
@@ -29,6 +33,9 @@ public class SCP extends BaseCommand {
     private String localPath;
     private String remotePath;
 
+    // ControlPath of the master connection to run over, null to connect by itself
+    private String controlPath;
+
     public SCP(String user, int sshPort, String sshKeyFile, String host, String localPath, String remotePath) {
         this.user = user;
         this.sshPort = sshPort;
@@ -38,18 +45,22 @@ public class SCP extends BaseCommand {
         this.remotePath = remotePath;
     }
 
+    public void setControlPath(String controlPath) {
+        this.controlPath = controlPath;
+    }
+
     @Override
     protected void buildCommand() {
-        String[] command = new String[]{"scp",
+        List<String> command = new ArrayList<>(Arrays.asList("scp",
                 "-r",
                 "-o", "ConnectTimeOut=60",
                 "-o", "StrictHostKeyChecking=no",
-                "-o", "BatchMode=yes",
-                "-P", String.valueOf(this.sshPort),
+                "-o", "BatchMode=yes"));
+        SshSession.addControlOptions(command, this.controlPath);
+        command.addAll(Arrays.asList("-P", String.valueOf(this.sshPort),
                 "-i", this.sshKeyFile,
                 this.localPath,
-                this.user + "@" + this.host + ":" + this.remotePath
-        };
-        this.resultCommand = command;
+                this.user + "@" + this.host + ":" + this.remotePath));
+        this.resultCommand = command.toArray(new String[0]);
     }
 }
@@ -28,7 +28,10 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -48,6 +51,9 @@ public class SSH extends BaseCommand {
 
     private String command;
 
+    // ControlPath of the master connection to run over, null to connect by itself
+    private String controlPath;
+
     public SSH(String user, int sshPort, String sshKeyFile, String host, String command) {
         this.user = user;
         this.sshPort = sshPort;
@@ -94,16 +100,16 @@ public class SSH extends BaseCommand {
     }
 
     protected void buildCommand() {
-        String[] command = new String[]{"ssh",
+        List<String> command = new ArrayList<>(Arrays.asList("ssh",
                 "-o", "ConnectTimeOut=20",
                 "-o", "StrictHostKeyChecking=no",
                 "-o", "BatchMode=yes",
                 // close password auth in case of blocking program when ssh auth failed
-                "-o", "PasswordAuthentication=no",
-                "-i", this.sshKeyFile,
+                "-o", "PasswordAuthentication=no"));
+        SshSession.addControlOptions(command, this.controlPath);
+        command.addAll(Arrays.asList("-i", this.sshKeyFile,
                 "-p", String.valueOf(this.sshPort),
-                this.user + "@" + this.host, this.command
-        };
-        this.resultCommand = command;
+                this.user + "@" + this.host, this.command));
+        this.resultCommand = command.toArray(new String[0]);
     }
 }
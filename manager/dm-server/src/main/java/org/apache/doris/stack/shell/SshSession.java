@@ -0,0 +1,196 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.shell;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One authenticated ssh connection to a host shared by a series of ssh and scp commands.
+ *
+ * A ControlMaster connection is opened in the background, and the commands created by the session
+ * run over it without a new handshake and key exchange.
+ * If the master can not be opened, the commands connect by themselves as before.
+ * The master exits when the session is closed, or after it is idle for CONTROL_PERSIST if the server stops.
+ **/
+@Slf4j
+public class SshSession implements AutoCloseable {
+
+    // the path of a unix socket is limited to about 100 bytes, so the sockets are put in a short dir
+    private static final Path CONTROL_DIR = Paths.get(System.getProperty("java.io.tmpdir"), "dm-ssh");
+
+    private static final String CONTROL_PERSIST = "300s";
+
+    private static final long OPEN_TIMEOUT_MS = 30000L;
+
+    private static final File DEV_NULL = new File("/dev/null");
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final String user;
+
+    private final int sshPort;
+
+    private final String sshKeyFile;
+
+    private final String host;
+
+    // null if the master connection is not opened
+    private String controlPath;
+
+    private SshSession(String user, int sshPort, String sshKeyFile, String host) {
+        this.user = user;
+        this.sshPort = sshPort;
+        this.sshKeyFile = sshKeyFile;
+        this.host = host;
+    }
+
+    /**
+     * Open a master connection to the host
+     *
+     * @param user
+     * @param sshPort
+     * @param sshKeyFile
+     * @param host
+     * @return the session, its commands connect by themselves if the master is not opened
+     */
+    public static SshSession open(String user, int sshPort, String sshKeyFile, String host) {
+        SshSession session = new SshSession(user, sshPort, sshKeyFile, host);
+        session.openMaster();
+        return session;
+    }
+
+    public boolean isMultiplexed() {
+        return controlPath != null;
+    }
+
+    public SSH newSsh(String command) {
+        SSH ssh = new SSH(user, sshPort, sshKeyFile, host, command);
+        ssh.setControlPath(controlPath);
+        return ssh;
+    }
+
+    public SCP newScp(String localPath, String remotePath) {
+        SCP scp = new SCP(user, sshPort, sshKeyFile, host, localPath, remotePath);
+        scp.setControlPath(controlPath);
+        return scp;
+    }
+
+    @Override
+    public void close() {
+        if (controlPath == null) {
+            return;
+        }
+        String[] command = new String[]{"ssh",
+                "-o", "ControlPath=" + controlPath,
+                "-O", "exit",
+                "-p", String.valueOf(sshPort),
+                user + "@" + host
+        };
+        runQuietly(command);
+        try {
+            Files.deleteIfExists(Paths.get(controlPath));
+        } catch (IOException e) {
+            log.warn("delete ssh control socket {} error: {}", controlPath, e.getMessage());
+        }
+        controlPath = null;
+    }
+
+    // Add the options to run the command over the master connection of the control path
+    static void addControlOptions(List<String> command, String controlPath) {
+        if (controlPath == null) {
+            return;
+        }
+        command.add("-o");
+        command.add("ControlMaster=no");
+        command.add("-o");
+        command.add("ControlPath=" + controlPath);
+    }
+
+    private void openMaster() {
+        String path;
+        try {
+            if (!Files.exists(CONTROL_DIR)) {
+                Files.createDirectories(CONTROL_DIR,
+                        PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            }
+            path = CONTROL_DIR.resolve(Integer.toHexString((user + "@" + host + ":" + sshPort).hashCode())
+                    + "-" + SEQUENCE.incrementAndGet()).toString();
+        } catch (IOException e) {
+            log.warn("create ssh control dir {} error: {}", CONTROL_DIR, e.getMessage());
+            return;
+        }
+
+        // -f forks the master into background after it is authenticated
+        String[] command = new String[]{"ssh",
+                "-M", "-N", "-f",
+                "-o", "ControlPath=" + path,
+                "-o", "ControlPersist=" + CONTROL_PERSIST,
+                "-o", "ConnectTimeOut=20",
+                "-o", "StrictHostKeyChecking=no",
+                "-o", "BatchMode=yes",
+                "-o", "PasswordAuthentication=no",
+                "-i", sshKeyFile,
+                "-p", String.valueOf(sshPort),
+                user + "@" + host
+        };
+        if (runQuietly(command) && Files.exists(Paths.get(path))) {
+            controlPath = path;
+            log.info("open ssh master connection to {}@{}:{}", user, host, sshPort);
+        } else {
+            log.warn("open ssh master connection to {}@{}:{} failed, commands connect by themselves",
+                    user, host, sshPort);
+        }
+    }
+
+    // The background master keeps the output of the process open, so the output is not read but discarded
+    private boolean runQuietly(String[] command) {
+        Process process = null;
+        try {
+            process = new ProcessBuilder(command)
+                    .redirectInput(DEV_NULL)
+                    .redirectOutput(DEV_NULL)
+                    .redirectError(DEV_NULL)
+                    .start();
+            if (!process.waitFor(OPEN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("ssh command {} timeout", command[1]);
+                return false;
+            }
+            return process.exitValue() == 0;
+        } catch (IOException e) {
+            log.warn("run ssh command error: {}", e.getMessage());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            if (process != null) {
+                process.destroy();
+            }
+        }
+    }
+}
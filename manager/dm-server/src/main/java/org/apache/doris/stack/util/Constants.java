@@ -31,5 +31,6 @@ public class Constants {
     public static final String DORIS_DEFAULT_QUERY_PASSWORD = "";
     public static final Integer DORIS_DEFAULT_FE_QUERY_PORT = 9030;
     public static final Integer DORIS_DEFAULT_FE_EDIT_LOG_PORT = 9010;
+    public static final Integer DORIS_DEFAULT_BE_HEARTBEAT_PORT = 9050;
     public static final Integer DORIS_DEFAULT_BROKER_IPC_PORT = 8000;
 }
@@ -0,0 +1,80 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import org.apache.doris.stack.dao.ResourceNodeRepository;
+import org.apache.doris.stack.entity.ResourceNodeEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class AgentLivenessComponentTest {
+
+    private ResourceNodeRepository nodeRepository;
+
+    private Cache nodeCache;
+
+    private AgentLivenessComponent livenessComponent;
+
+    @BeforeEach
+    public void setUp() {
+        nodeRepository = Mockito.mock(ResourceNodeRepository.class);
+        ConcurrentMapCacheManager cacheManager = new ConcurrentMapCacheManager("node_agent");
+        nodeCache = cacheManager.getCache("node_agent");
+
+        livenessComponent = new AgentLivenessComponent();
+        ReflectionTestUtils.setField(livenessComponent, "nodeRepository", nodeRepository);
+        ReflectionTestUtils.setField(livenessComponent, "cacheManager", cacheManager);
+    }
+
+    @Test
+    public void testFlushEvictsUpdatedNodes() {
+        nodeCache.put(1L, new ResourceNodeEntity());
+        nodeCache.put(2L, new ResourceNodeEntity());
+        Mockito.when(nodeRepository.updateLastHeartBeatTimestamp(ArgumentMatchers.anyCollection(),
+                ArgumentMatchers.any())).thenReturn(1);
+
+        livenessComponent.heartbeat(1L);
+        livenessComponent.flush();
+
+        Assertions.assertNull(nodeCache.get(1L));
+        // not heartbeat since the last flush
+        Assertions.assertNotNull(nodeCache.get(2L));
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() {
+        nodeCache.put(1L, new ResourceNodeEntity());
+        Mockito.when(nodeRepository.updateLastHeartBeatTimestamp(ArgumentMatchers.anyCollection(),
+                ArgumentMatchers.any())).thenThrow(new RuntimeException("database is down")).thenReturn(1);
+
+        livenessComponent.heartbeat(1L);
+        livenessComponent.flush();
+        Assertions.assertNotNull(nodeCache.get(1L));
+
+        livenessComponent.flush();
+        Assertions.assertNull(nodeCache.get(1L));
+        Mockito.verify(nodeRepository, Mockito.times(2)).updateLastHeartBeatTimestamp(
+                ArgumentMatchers.anyCollection(), ArgumentMatchers.any());
+    }
+}
@@ -0,0 +1,138 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.doris.stack.component.DorisTopologyRegistrationComponent.NodeType;
+import org.apache.doris.stack.driver.JdbcSampleClient;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+public class DorisTopologyRegistrationComponentTest {
+
+    private static final String BACKENDS = "'/backends'";
+
+    private JdbcSampleClient jdbcClient;
+
+    private Statement stmt;
+
+    private DorisTopologyRegistrationComponent registrationComponent;
+
+    @BeforeEach
+    public void setUp() {
+        jdbcClient = Mockito.mock(JdbcSampleClient.class);
+        stmt = Mockito.mock(Statement.class);
+
+        registrationComponent = new DorisTopologyRegistrationComponent();
+        ReflectionTestUtils.setField(registrationComponent, "jdbcClient", jdbcClient);
+        ReflectionTestUtils.setField(registrationComponent, "batchSize", 2);
+        ReflectionTestUtils.setField(registrationComponent, "retries", 3);
+        ReflectionTestUtils.setField(registrationComponent, "retryIntervalMs", 1L);
+        ReflectionTestUtils.setField(registrationComponent, "aliveTimeoutSeconds", 1L);
+        ReflectionTestUtils.setField(registrationComponent, "checkIntervalMs", 10L);
+    }
+
+    @Test
+    public void testRegisteredNodesSkipped() throws Exception {
+        Mockito.when(jdbcClient.getNodesAlive(stmt, BACKENDS, "HeartbeatPort"))
+                .thenReturn(ImmutableMap.of("be1:9050", true))
+                .thenReturn(ImmutableMap.of("be1:9050", true, "be2:9050", true));
+
+        registrationComponent.registerNodes(stmt, backends("be1:9050", "be2:9050"));
+
+        Mockito.verify(jdbcClient).addBe(Collections.singletonList("be2:9050"), stmt);
+        Mockito.verifyNoMoreInteractions(Mockito.ignoreStubs(jdbcClient));
+    }
+
+    @Test
+    public void testNodesAddedInBatches() throws Exception {
+        Mockito.when(jdbcClient.getNodesAlive(stmt, BACKENDS, "HeartbeatPort"))
+                .thenReturn(Collections.emptyMap())
+                .thenReturn(ImmutableMap.of("be1:9050", true, "be2:9050", true, "be3:9050", true));
+        Mockito.when(jdbcClient.getNodesAlive(stmt, "'/frontends'", "EditLogPort"))
+                .thenReturn(Collections.emptyMap())
+                .thenReturn(ImmutableMap.of("fe1:9010", true, "fe2:9010", true));
+
+        Map<NodeType, List<String>> nodes = backends("be1:9050", "be2:9050", "be3:9050");
+        nodes.put(NodeType.FRONTEND, Lists.newArrayList("fe1:9010", "fe2:9010"));
+        registrationComponent.registerNodes(stmt, nodes);
+
+        Mockito.verify(jdbcClient).addBe(Lists.newArrayList("be1:9050", "be2:9050"), stmt);
+        Mockito.verify(jdbcClient).addBe(Collections.singletonList("be3:9050"), stmt);
+        // an observer is added by one statement
+        Mockito.verify(jdbcClient).addFeObserver(Collections.singletonList("fe1:9010"), stmt);
+        Mockito.verify(jdbcClient).addFeObserver(Collections.singletonList("fe2:9010"), stmt);
+    }
+
+    @Test
+    public void testFailedBatchRetriedWithNodesNotRegistered() throws Exception {
+        // the statement times out after be1 is added
+        Mockito.doThrow(new Exception("timeout")).doNothing()
+                .when(jdbcClient).addBe(ArgumentMatchers.anyList(), ArgumentMatchers.eq(stmt));
+        Mockito.when(jdbcClient.getNodesAlive(stmt, BACKENDS, "HeartbeatPort"))
+                .thenReturn(Collections.emptyMap())
+                .thenReturn(ImmutableMap.of("be1:9050", false))
+                .thenReturn(ImmutableMap.of("be1:9050", true, "be2:9050", true));
+
+        registrationComponent.registerNodes(stmt, backends("be1:9050", "be2:9050"));
+
+        Mockito.verify(jdbcClient).addBe(Lists.newArrayList("be1:9050", "be2:9050"), stmt);
+        Mockito.verify(jdbcClient).addBe(Collections.singletonList("be2:9050"), stmt);
+    }
+
+    @Test
+    public void testFailedAfterRetries() throws Exception {
+        Mockito.doThrow(new Exception("be is unreachable"))
+                .when(jdbcClient).addBe(ArgumentMatchers.anyList(), ArgumentMatchers.eq(stmt));
+        Mockito.when(jdbcClient.getNodesAlive(stmt, BACKENDS, "HeartbeatPort")).thenReturn(Collections.emptyMap());
+
+        Exception e = Assertions.assertThrows(Exception.class,
+                () -> registrationComponent.registerNodes(stmt, backends("be1:9050")));
+        Assertions.assertEquals("be is unreachable", e.getMessage());
+        Mockito.verify(jdbcClient, Mockito.times(3)).addBe(Collections.singletonList("be1:9050"), stmt);
+    }
+
+    @Test
+    public void testNodesNotAliveInTime() throws Exception {
+        Mockito.when(jdbcClient.getNodesAlive(stmt, BACKENDS, "HeartbeatPort"))
+                .thenReturn(Collections.emptyMap())
+                .thenReturn(ImmutableMap.of("be1:9050", true, "be2:9050", false));
+
+        Exception e = Assertions.assertThrows(Exception.class,
+                () -> registrationComponent.registerNodes(stmt, backends("be1:9050", "be2:9050")));
+        Assertions.assertTrue(e.getMessage().contains("be2:9050"));
+        Assertions.assertFalse(e.getMessage().contains("be1:9050"));
+    }
+
+    private Map<NodeType, List<String>> backends(String... hostPorts) {
+        Map<NodeType, List<String>> nodes = new EnumMap<>(NodeType.class);
+        nodes.put(NodeType.BACKEND, Lists.newArrayList(hostPorts));
+        return nodes;
+    }
+}
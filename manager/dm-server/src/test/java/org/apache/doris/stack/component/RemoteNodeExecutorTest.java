@@ -0,0 +1,113 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.component;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class RemoteNodeExecutorTest {
+
+    private RemoteNodeExecutor executor;
+
+    // keeps the only thread busy, so the operations submitted afterwards are queued
+    private CountDownLatch blocker;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        executor = new RemoteNodeExecutor();
+        ReflectionTestUtils.setField(executor, "maxThreads", 1);
+        ReflectionTestUtils.setField(executor, "maxQueueSize", 4);
+        executor.afterPropertiesSet();
+
+        blocker = new CountDownLatch(1);
+        executor.runAsync(0L, () -> {
+            try {
+                blocker.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        blocker.countDown();
+        executor.destroy();
+    }
+
+    @Test
+    public void testClustersTakeTurns() throws Exception {
+        List<Long> order = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(executor.runAsync(1L, () -> order.add(1L)));
+        }
+        futures.add(executor.runAsync(2L, () -> order.add(2L)));
+        Assertions.assertEquals(4, executor.getQueuedCount());
+
+        blocker.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        // the operation of cluster 2 does not wait for all the operations of cluster 1
+        Assertions.assertEquals(Arrays.asList(1L, 2L, 1L, 1L), order);
+    }
+
+    @Test
+    public void testRejectWhenQueueIsFull() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            executor.runAsync(1L, () -> { });
+        }
+        CompletableFuture<Void> rejected = executor.runAsync(2L, () -> { });
+
+        assertRejected(rejected);
+    }
+
+    @Test
+    public void testQueuedOperationsFailOnShutdown() throws Exception {
+        CompletableFuture<Void> queued = executor.runAsync(1L, () -> { });
+
+        executor.destroy();
+
+        assertRejected(queued);
+    }
+
+    @Test
+    public void testOperationFailsAfterShutdown() throws Exception {
+        executor.destroy();
+
+        assertRejected(executor.runAsync(1L, () -> { }));
+    }
+
+    private void assertRejected(CompletableFuture<Void> future) throws Exception {
+        ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                () -> future.get(10, TimeUnit.SECONDS));
+        Assertions.assertTrue(e.getCause() instanceof RejectedExecutionException);
+    }
+}
@@ -0,0 +1,173 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.control.manager;
+
+import org.apache.doris.manager.common.heartbeat.config.InstanceStartEventConfigInfo;
+import org.apache.doris.stack.component.AgentHeartBeatNotifyComponent;
+import org.apache.doris.stack.dao.ClusterInstanceRepository;
+import org.apache.doris.stack.dao.ResourceNodeRepository;
+import org.apache.doris.stack.entity.ClusterInstanceEntity;
+import org.apache.doris.stack.entity.ResourceNodeEntity;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The events of a module operation are saved in one transaction, and the instance cache returns
+ * the new event ids after it is committed.
+ */
+@SpringBootTest(classes = DorisClusterInstanceManagerTest.InstanceManagerApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+            "spring.datasource.url=jdbc:h2:mem:instance_manager;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+            "spring.datasource.driver-class-name=org.h2.Driver",
+            "spring.jpa.hibernate.ddl-auto=create",
+            "spring.jpa.hibernate.use-new-id-generator-mappings=false",
+            "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+            "spring.jpa.properties.hibernate.generate_statistics=true",
+            "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+            "spring.jpa.properties.hibernate.order_updates=true",
+            "spring.cache.type=simple",
+            "logging.level.root=WARN"
+        })
+public class DorisClusterInstanceManagerTest {
+
+    private static final int INSTANCES = 100;
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @EnableCaching
+    @EntityScan(basePackageClasses = ResourceNodeEntity.class)
+    @EnableJpaRepositories(basePackageClasses = ResourceNodeRepository.class)
+    @Import(DorisClusterInstanceManager.class)
+    static class InstanceManagerApplication {
+        @Bean
+        public RacingTransactionTemplate transactionTemplate(PlatformTransactionManager transactionManager) {
+            return new RacingTransactionTemplate(transactionManager);
+        }
+    }
+
+    /**
+     * Runs a task in another thread after the callback and before the transaction commits,
+     * such as a heartbeat which reads the instances of its node
+     */
+    static class RacingTransactionTemplate extends TransactionTemplate {
+        private volatile Runnable beforeCommit;
+
+        RacingTransactionTemplate(PlatformTransactionManager transactionManager) {
+            super(transactionManager);
+        }
+
+        @Override
+        public <T> T execute(TransactionCallback<T> action) {
+            return super.execute(status -> {
+                T result = action.doInTransaction(status);
+                Runnable task = beforeCommit;
+                if (task != null) {
+                    CompletableFuture.runAsync(task).join();
+                }
+                return result;
+            });
+        }
+    }
+
+    @MockBean
+    private AgentHeartBeatNotifyComponent heartBeatNotifyComponent;
+
+    @Autowired
+    private DorisClusterInstanceManager instanceManager;
+
+    @Autowired
+    private ClusterInstanceRepository instanceRepository;
+
+    @Autowired
+    private RacingTransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private List<ClusterInstanceEntity> instances;
+
+    @BeforeEach
+    public void setUp() {
+        transactionTemplate.beforeCommit = null;
+        instanceRepository.deleteAll();
+        instances = new ArrayList<>();
+        for (long nodeId = 1; nodeId <= INSTANCES; nodeId++) {
+            instances.add(new ClusterInstanceEntity(1L, 1L, nodeId, "/opt/doris", "10.0.0." + nodeId));
+        }
+        instances = instanceRepository.saveAll(instances);
+        // cached by the heartbeats before the operation
+        instances.forEach(instance -> instanceRepository.getByNodeId(instance.getNodeId()));
+    }
+
+    @Test
+    public void testEventsSavedInOneTransaction() {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        instanceManager.startOperation(instances, new InstanceStartEventConfigInfo(), 1L);
+
+        Assertions.assertEquals(1, statistics.getTransactionCount());
+        // an insert of each event, the select of the instances and the batched update of them
+        Assertions.assertEquals(INSTANCES + 2, statistics.getPrepareStatementCount());
+        for (ClusterInstanceEntity instance : instances) {
+            long eventId = instanceRepository.getByNodeId(instance.getNodeId()).get(0).getCurrentEventId();
+            Assertions.assertTrue(eventId > 0);
+            Assertions.assertEquals(instance.getCurrentEventId(), eventId);
+            Mockito.verify(heartBeatNotifyComponent).notifyNewEvent(instance.getNodeId());
+        }
+    }
+
+    @Test
+    public void testCacheNotStaleAfterConcurrentHeartbeat() {
+        ClusterInstanceEntity instance = instances.get(0);
+        // the heartbeat caches the instance committed before the operation
+        transactionTemplate.beforeCommit = () -> instanceRepository.getByNodeId(instance.getNodeId());
+
+        instanceManager.startOperation(instances, new InstanceStartEventConfigInfo(), 1L);
+
+        long eventId = instanceRepository.getByNodeId(instance.getNodeId()).get(0).getCurrentEventId();
+        Assertions.assertTrue(eventId > 0);
+        Assertions.assertEquals(instance.getCurrentEventId(), eventId);
+        Mockito.verify(heartBeatNotifyComponent, Mockito.times(INSTANCES))
+                .notifyNewEvent(ArgumentMatchers.anyLong());
+    }
+}
@@ -0,0 +1,386 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.control.manager;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventType;
+import org.apache.doris.manager.common.heartbeat.config.InstanceInstallEventConfigInfo;
+import org.apache.doris.stack.component.AgentHeartBeatNotifyComponent;
+import org.apache.doris.stack.component.DorisTopologyRegistrationComponent;
+import org.apache.doris.stack.component.DorisTopologyRegistrationComponent.NodeType;
+import org.apache.doris.stack.component.ModelControlRequestComponent;
+import org.apache.doris.stack.component.RequestProgressHub;
+import org.apache.doris.stack.control.ModelControlStatus;
+import org.apache.doris.stack.dao.ClusterInfoRepository;
+import org.apache.doris.stack.dao.ClusterInstanceRepository;
+import org.apache.doris.stack.dao.ClusterModuleRepository;
+import org.apache.doris.stack.dao.ClusterModuleServiceRepository;
+import org.apache.doris.stack.dao.HeartBeatEventRepository;
+import org.apache.doris.stack.dao.ResourceNodeRepository;
+import org.apache.doris.stack.driver.JdbcSampleClient;
+import org.apache.doris.stack.entity.ClusterInfoEntity;
+import org.apache.doris.stack.entity.ClusterInstanceEntity;
+import org.apache.doris.stack.entity.ClusterModuleEntity;
+import org.apache.doris.stack.entity.ClusterModuleServiceEntity;
+import org.apache.doris.stack.entity.HeartBeatEventEntity;
+import org.apache.doris.stack.entity.ModelControlRequestEntity;
+import org.apache.doris.stack.entity.ResourceNodeEntity;
+import org.apache.doris.stack.model.request.control.DorisClusterModuleResourceConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+public class DorisClusterResizeManagerTest {
+
+    private static final long CLUSTER_ID = 1L;
+
+    private static final long REQUEST_ID = 7L;
+
+    private ClusterInstanceRepository instanceRepository;
+
+    private DorisClusterModuleManager clusterModuleManager;
+
+    private DorisClusterInstanceManager instanceManager;
+
+    private DorisTopologyRegistrationComponent topologyRegistrationComponent;
+
+    private ModelControlRequestComponent requestComponent;
+
+    private JdbcSampleClient jdbcClient;
+
+    private DorisClusterRollingRestartManager rollingRestartManager;
+
+    private DorisClusterResizeManager resizeManager;
+
+    private ClusterModuleEntity beModule;
+
+    private List<ClusterInstanceEntity> beInstances = new ArrayList<>();
+
+    // host:heartbeat port -> tablet num of the backends registered in the cluster
+    private Map<String, Long> backends = new HashMap<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        ClusterInfoEntity clusterInfo = new ClusterInfoEntity();
+        clusterInfo.setId(CLUSTER_ID);
+        clusterInfo.setResourceClusterId(10L);
+        clusterInfo.setUser("admin");
+        ClusterInfoRepository clusterRepository = Mockito.mock(ClusterInfoRepository.class);
+        Mockito.when(clusterRepository.findById(CLUSTER_ID)).thenReturn(Optional.of(clusterInfo));
+
+        List<ResourceNodeEntity> nodes = new ArrayList<>();
+        for (long nodeId = 1; nodeId <= 4; nodeId++) {
+            ResourceNodeEntity nodeEntity = new ResourceNodeEntity();
+            nodeEntity.setId(nodeId);
+            nodes.add(nodeEntity);
+        }
+        ResourceNodeRepository nodeRepository = Mockito.mock(ResourceNodeRepository.class);
+        Mockito.when(nodeRepository.getByResourceClusterId(10L)).thenReturn(nodes);
+
+        beModule = new ClusterModuleEntity(CLUSTER_ID, "be");
+        beModule.setId(100L);
+        beModule.setConfig("{}");
+        ClusterModuleRepository moduleRepository = Mockito.mock(ClusterModuleRepository.class);
+        Mockito.when(moduleRepository.getByClusterIdAndModuleName(CLUSTER_ID, "be"))
+                .thenReturn(Collections.singletonList(beModule));
+
+        ClusterModuleServiceRepository serviceRepository = Mockito.mock(ClusterModuleServiceRepository.class);
+        Mockito.when(serviceRepository.getByClusterIdAndName(CLUSTER_ID, "be_heartbeat")).thenReturn(
+                Collections.singletonList(new ClusterModuleServiceEntity("be_heartbeat", CLUSTER_ID, 100L, 9050, "")));
+
+        instanceRepository = Mockito.mock(ClusterInstanceRepository.class);
+        Mockito.when(instanceRepository.getByModuleId(100L)).thenReturn(beInstances);
+
+        instanceManager = Mockito.mock(DorisClusterInstanceManager.class);
+        Mockito.when(instanceManager.getEventsStatus(ArgumentMatchers.anyList()))
+                .thenReturn(HeartBeatEventResultType.SUCCESS);
+        Mockito.when(instanceManager.initOperation(ArgumentMatchers.eq(CLUSTER_ID), ArgumentMatchers.eq(beModule),
+                ArgumentMatchers.anyLong())).thenAnswer(invocation -> {
+                    long nodeId = invocation.getArgument(2);
+                    ClusterInstanceEntity instanceEntity = instance(nodeId);
+                    Mockito.when(instanceRepository.findById(instanceEntity.getId()))
+                            .thenReturn(Optional.of(instanceEntity));
+                    return instanceEntity.getId();
+                });
+
+        jdbcClient = Mockito.mock(JdbcSampleClient.class);
+        Statement stmt = Mockito.mock(Statement.class);
+        Mockito.when(jdbcClient.getStatement(ArgumentMatchers.any(), ArgumentMatchers.anyInt(), ArgumentMatchers.any(),
+                ArgumentMatchers.any())).thenReturn(stmt);
+        Mockito.when(jdbcClient.getBeTabletNums(stmt)).thenAnswer(invocation -> new HashMap<>(backends));
+        // the fe drops the decommissioned backends after their tablets are migrated
+        Mockito.doAnswer(invocation -> {
+            List<String> hostPorts = invocation.getArgument(0);
+            hostPorts.forEach(backends::remove);
+            return null;
+        }).when(jdbcClient).decommissionBe(ArgumentMatchers.anyList(), ArgumentMatchers.eq(stmt));
+
+        clusterModuleManager = Mockito.mock(DorisClusterModuleManager.class);
+        topologyRegistrationComponent = Mockito.mock(DorisTopologyRegistrationComponent.class);
+        requestComponent = Mockito.mock(ModelControlRequestComponent.class);
+        Mockito.when(requestComponent.requestGet(REQUEST_ID)).thenReturn(new ModelControlRequestEntity());
+        rollingRestartManager = Mockito.mock(DorisClusterRollingRestartManager.class);
+
+        resizeManager = new DorisClusterResizeManager();
+        ReflectionTestUtils.setField(resizeManager, "clusterRepository", clusterRepository);
+        ReflectionTestUtils.setField(resizeManager, "moduleRepository", moduleRepository);
+        ReflectionTestUtils.setField(resizeManager, "instanceRepository", instanceRepository);
+        ReflectionTestUtils.setField(resizeManager, "serviceRepository", serviceRepository);
+        ReflectionTestUtils.setField(resizeManager, "nodeRepository", nodeRepository);
+        ReflectionTestUtils.setField(resizeManager, "clusterModuleManager", clusterModuleManager);
+        ReflectionTestUtils.setField(resizeManager, "instanceManager", instanceManager);
+        ReflectionTestUtils.setField(resizeManager, "topologyRegistrationComponent", topologyRegistrationComponent);
+        ReflectionTestUtils.setField(resizeManager, "requestComponent", requestComponent);
+        ReflectionTestUtils.setField(resizeManager, "progressHub", Mockito.mock(RequestProgressHub.class));
+        ReflectionTestUtils.setField(resizeManager, "jdbcClient", jdbcClient);
+        ReflectionTestUtils.setField(resizeManager, "rollingRestartManager", rollingRestartManager);
+        ReflectionTestUtils.setField(resizeManager, "eventTimeoutSeconds", 10L);
+        ReflectionTestUtils.setField(resizeManager, "decommissionTimeoutMinutes", 1L);
+        ReflectionTestUtils.setField(resizeManager, "checkIntervalMs", 1L);
+        ReflectionTestUtils.setField(resizeManager, "decommissionCheckIntervalMs", 1L);
+        // the resize runs in the calling thread
+        setExecutor(MoreExecutors.newDirectExecutorService());
+    }
+
+    @Test
+    public void testOnlyDeltaOperated() throws Exception {
+        addBackend(1L, true);
+        addBackend(2L, true);
+        addBackend(3L, true);
+
+        resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(2L, 3L, 4L));
+
+        Mockito.verify(instanceManager).initOperation(CLUSTER_ID, beModule, 4L);
+        Mockito.verify(instanceManager, Mockito.times(1)).initOperation(ArgumentMatchers.anyLong(),
+                ArgumentMatchers.any(), ArgumentMatchers.anyLong());
+        Mockito.verify(clusterModuleManager).deployOperation(beModule,
+                Collections.singletonList(instanceRepository.findById(instanceId(4L)).get()), REQUEST_ID);
+        Mockito.verify(topologyRegistrationComponent).registerNodes(ArgumentMatchers.any(),
+                ArgumentMatchers.eq(Collections.singletonMap(NodeType.BACKEND,
+                        Collections.singletonList("10.0.0.4:9050"))));
+        Mockito.verify(jdbcClient).decommissionBe(ArgumentMatchers.eq(Collections.singletonList("10.0.0.1:9050")),
+                ArgumentMatchers.any());
+        Mockito.verify(clusterModuleManager).stopOperation(beModule, Collections.singletonList(beInstances.get(0)),
+                REQUEST_ID);
+        Mockito.verify(instanceManager).deleteOperation(beInstances.get(0));
+        Mockito.verify(requestComponent).requestCompleted(ArgumentMatchers.any(),
+                ArgumentMatchers.eq(ModelControlStatus.SUCCESS));
+    }
+
+    @Test
+    public void testUnregisteredInstanceDeployedAgain() throws Exception {
+        addBackend(1L, true);
+        // left by a resize which failed before the backend was registered
+        addBackend(2L, false);
+
+        resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(1L, 2L));
+
+        Mockito.verify(instanceManager, Mockito.never()).initOperation(ArgumentMatchers.anyLong(),
+                ArgumentMatchers.any(), ArgumentMatchers.anyLong());
+        Mockito.verify(clusterModuleManager).deployOperation(beModule, Collections.singletonList(beInstances.get(1)),
+                REQUEST_ID);
+        Mockito.verify(topologyRegistrationComponent).registerNodes(ArgumentMatchers.any(),
+                ArgumentMatchers.eq(Collections.singletonMap(NodeType.BACKEND,
+                        Collections.singletonList("10.0.0.2:9050"))));
+        Mockito.verify(jdbcClient, Mockito.never()).decommissionBe(ArgumentMatchers.anyList(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testRetryAfterFailedInstall() throws Exception {
+        addBackend(1L, true);
+        // the install of the last resize failed, the backend is not registered
+        addBackend(2L, false);
+        Map<Long, HeartBeatEventEntity> events = new HashMap<>();
+        HeartBeatEventEntity failedInstall = new HeartBeatEventEntity(HeartBeatEventType.INSTANCE_INSTALL.name(),
+                HeartBeatEventResultType.FAIL.name(), "{}", REQUEST_ID - 1);
+        failedInstall.setId(50L);
+        failedInstall.setCompleted(true);
+        events.put(failedInstall.getId(), failedInstall);
+        beInstances.get(1).setCurrentEventId(failedInstall.getId());
+
+        // the instance events are handled by the instance manager, and completed by the agent once notified
+        DorisClusterInstanceManager eventInstanceManager = newEventInstanceManager(events);
+        Mockito.doAnswer(invocation -> {
+            eventInstanceManager.deployOperation((List<ClusterInstanceEntity>) invocation.getArgument(1),
+                    new InstanceInstallEventConfigInfo(), invocation.getArgument(2));
+            return null;
+        }).when(clusterModuleManager).deployOperation(ArgumentMatchers.eq(beModule), ArgumentMatchers.anyList(),
+                ArgumentMatchers.anyLong());
+        Mockito.when(instanceManager.getEventsStatus(ArgumentMatchers.anyList())).thenAnswer(
+                invocation -> eventInstanceManager.getEventsStatus(invocation.getArgument(0)));
+
+        resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(1L, 2L));
+
+        Mockito.verify(requestComponent).requestCompleted(ArgumentMatchers.any(),
+                ArgumentMatchers.eq(ModelControlStatus.SUCCESS));
+        HeartBeatEventEntity install = events.get(beInstances.get(1).getCurrentEventId());
+        Assertions.assertNotEquals(failedInstall.getId(), install.getId());
+        Assertions.assertEquals(HeartBeatEventType.INSTANCE_INSTALL.name(), install.getType());
+        Assertions.assertEquals(REQUEST_ID, install.getRequestId());
+        // the failed event stays with the last request
+        Assertions.assertEquals(REQUEST_ID - 1, failedInstall.getRequestId());
+        Assertions.assertEquals(HeartBeatEventResultType.FAIL.name(), failedInstall.getStatus());
+    }
+
+    @Test
+    public void testBackendRegisteredByHostName() throws Exception {
+        addBackend(1L, true);
+        ClusterInstanceEntity hostNameInstance = instance(2L);
+        hostNameInstance.setAddress("be2.doris");
+        beInstances.add(hostNameInstance);
+        backends.put("be2.doris:9050", 10L);
+
+        resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(1L));
+
+        Mockito.verify(jdbcClient).decommissionBe(ArgumentMatchers.eq(Collections.singletonList("be2.doris:9050")),
+                ArgumentMatchers.any());
+        Mockito.verify(instanceManager).deleteOperation(hostNameInstance);
+    }
+
+    @Test
+    public void testRemovedBackendNotFound() throws Exception {
+        addBackend(1L, true);
+        addBackend(2L, false);
+
+        Exception e = Assertions.assertThrows(Exception.class,
+                () -> resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(1L)));
+        Assertions.assertTrue(e.getMessage().contains("10.0.0.2:9050"));
+        Mockito.verifyNoInteractions(clusterModuleManager);
+        Mockito.verify(jdbcClient, Mockito.never()).decommissionBe(ArgumentMatchers.anyList(), ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testNotChanged() throws Exception {
+        addBackend(1L, true);
+        addBackend(2L, true);
+
+        Exception e = Assertions.assertThrows(Exception.class,
+                () -> resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(1L, 2L)));
+        Assertions.assertEquals("The nodes of the cluster are not changed", e.getMessage());
+    }
+
+    @Test
+    public void testRejectedWhileResizing() throws Exception {
+        addBackend(1L, true);
+        // the first resize keeps running
+        setExecutor(Mockito.mock(ExecutorService.class));
+        resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(1L, 2L));
+
+        Exception e = Assertions.assertThrows(Exception.class,
+                () -> resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID + 1, beConfig(1L, 3L)));
+        Assertions.assertTrue(e.getMessage().contains("being resized"));
+    }
+
+    @Test
+    public void testRejectedWhileRestarting() throws Exception {
+        addBackend(1L, true);
+        Mockito.when(rollingRestartManager.isClusterRolling(CLUSTER_ID)).thenReturn(true);
+
+        Exception e = Assertions.assertThrows(Exception.class,
+                () -> resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(1L, 2L)));
+        Assertions.assertTrue(e.getMessage().contains("being restarted"));
+
+        // the rejected resize does not block the cluster
+        Mockito.when(rollingRestartManager.isClusterRolling(CLUSTER_ID)).thenReturn(false);
+        resizeManager.resizeOperation(CLUSTER_ID, REQUEST_ID, beConfig(1L, 2L));
+        Mockito.verify(instanceManager).initOperation(CLUSTER_ID, beModule, 2L);
+    }
+
+    private DorisClusterInstanceManager newEventInstanceManager(Map<Long, HeartBeatEventEntity> events) {
+        HeartBeatEventRepository eventRepository = Mockito.mock(HeartBeatEventRepository.class);
+        Mockito.when(eventRepository.save(ArgumentMatchers.any())).thenAnswer(invocation -> {
+            HeartBeatEventEntity eventEntity = invocation.getArgument(0);
+            if (eventEntity.getId() < 1L) {
+                eventEntity.setId(100L + events.size());
+            }
+            events.put(eventEntity.getId(), eventEntity);
+            return eventEntity;
+        });
+        Mockito.when(eventRepository.findById(ArgumentMatchers.anyLong())).thenAnswer(
+                invocation -> Optional.ofNullable(events.get((Long) invocation.getArgument(0))));
+        Mockito.when(eventRepository.findAllById(ArgumentMatchers.anyIterable())).thenAnswer(invocation -> {
+            List<HeartBeatEventEntity> eventEntities = new ArrayList<>();
+            for (Long eventId : (Iterable<Long>) invocation.getArgument(0)) {
+                if (events.containsKey(eventId)) {
+                    eventEntities.add(events.get(eventId));
+                }
+            }
+            return eventEntities;
+        });
+
+        AgentHeartBeatNotifyComponent notifyComponent = Mockito.mock(AgentHeartBeatNotifyComponent.class);
+        Mockito.doAnswer(invocation -> {
+            events.values().stream().filter(eventEntity -> !eventEntity.isCompleted()).forEach(eventEntity -> {
+                eventEntity.setStatus(HeartBeatEventResultType.SUCCESS.name());
+                eventEntity.setCompleted(true);
+            });
+            return null;
+        }).when(notifyComponent).notifyNewEvent(ArgumentMatchers.anyLong());
+
+        DorisClusterInstanceManager eventInstanceManager = new DorisClusterInstanceManager();
+        ReflectionTestUtils.setField(eventInstanceManager, "clusterInstanceRepository", instanceRepository);
+        ReflectionTestUtils.setField(eventInstanceManager, "heartBeatEventRepository", eventRepository);
+        ReflectionTestUtils.setField(eventInstanceManager, "heartBeatNotifyComponent", notifyComponent);
+        return eventInstanceManager;
+    }
+
+    private void addBackend(long nodeId, boolean registered) {
+        ClusterInstanceEntity instanceEntity = instance(nodeId);
+        beInstances.add(instanceEntity);
+        if (registered) {
+            backends.put(instanceEntity.getAddress() + ":9050", 10L);
+        }
+    }
+
+    private ClusterInstanceEntity instance(long nodeId) {
+        ClusterInstanceEntity instanceEntity = new ClusterInstanceEntity(CLUSTER_ID, 100L, nodeId, "",
+                "10.0.0." + nodeId);
+        instanceEntity.setId(instanceId(nodeId));
+        return instanceEntity;
+    }
+
+    private long instanceId(long nodeId) {
+        return 1000L + nodeId;
+    }
+
+    private List<DorisClusterModuleResourceConfig> beConfig(Long... nodeIds) {
+        DorisClusterModuleResourceConfig nodeConfig = new DorisClusterModuleResourceConfig();
+        nodeConfig.setModuleName("be");
+        nodeConfig.setNodeIds(Sets.newHashSet(nodeIds));
+        return Lists.newArrayList(nodeConfig);
+    }
+
+    private void setExecutor(ExecutorService executor) {
+        ReflectionTestUtils.setField(resizeManager, "executor", executor);
+    }
+}
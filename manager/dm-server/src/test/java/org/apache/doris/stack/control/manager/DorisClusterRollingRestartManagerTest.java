@@ -0,0 +1,221 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.control.manager;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.apache.doris.stack.component.ModelControlRequestComponent;
+import org.apache.doris.stack.component.RequestProgressHub;
+import org.apache.doris.stack.control.ModelControlStatus;
+import org.apache.doris.stack.dao.ClusterInfoRepository;
+import org.apache.doris.stack.dao.ClusterInstanceRepository;
+import org.apache.doris.stack.dao.ClusterModuleRepository;
+import org.apache.doris.stack.dao.ClusterModuleServiceRepository;
+import org.apache.doris.stack.driver.JdbcSampleClient;
+import org.apache.doris.stack.entity.ClusterInfoEntity;
+import org.apache.doris.stack.entity.ClusterInstanceEntity;
+import org.apache.doris.stack.entity.ClusterModuleEntity;
+import org.apache.doris.stack.entity.ModelControlRequestEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+public class DorisClusterRollingRestartManagerTest {
+
+    private static final long CLUSTER_ID = 1L;
+
+    private static final long REQUEST_ID = 7L;
+
+    private ClusterModuleRepository moduleRepository;
+
+    private DorisClusterModuleManager clusterModuleManager;
+
+    private ModelControlRequestComponent requestComponent;
+
+    private DorisClusterResizeManager resizeManager;
+
+    private DorisClusterRollingRestartManager rollingRestartManager;
+
+    private List<ClusterInstanceEntity> beInstances = new ArrayList<>();
+
+    // host:heartbeat port -> alive of the backends registered in the cluster
+    private Map<String, Boolean> backends = new HashMap<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        ClusterInfoEntity clusterInfo = new ClusterInfoEntity();
+        clusterInfo.setId(CLUSTER_ID);
+        clusterInfo.setUser("admin");
+        clusterInfo.setAddress("10.0.0.100");
+        clusterInfo.setQueryPort(9030);
+        ClusterInfoRepository clusterRepository = Mockito.mock(ClusterInfoRepository.class);
+        Mockito.when(clusterRepository.findById(CLUSTER_ID)).thenReturn(Optional.of(clusterInfo));
+
+        ClusterModuleEntity beModule = new ClusterModuleEntity(CLUSTER_ID, "be");
+        beModule.setId(100L);
+        moduleRepository = Mockito.mock(ClusterModuleRepository.class);
+        Mockito.when(moduleRepository.getByClusterId(CLUSTER_ID)).thenReturn(Collections.singletonList(beModule));
+
+        ClusterInstanceRepository instanceRepository = Mockito.mock(ClusterInstanceRepository.class);
+        Mockito.when(instanceRepository.getByModuleId(100L)).thenReturn(beInstances);
+
+        DorisClusterInstanceManager instanceManager = Mockito.mock(DorisClusterInstanceManager.class);
+        Mockito.when(instanceManager.getEventsStatus(ArgumentMatchers.anyList()))
+                .thenReturn(HeartBeatEventResultType.SUCCESS);
+
+        JdbcSampleClient jdbcClient = Mockito.mock(JdbcSampleClient.class);
+        Statement stmt = Mockito.mock(Statement.class);
+        Mockito.when(jdbcClient.getStatement(ArgumentMatchers.any(), ArgumentMatchers.anyInt(), ArgumentMatchers.any(),
+                ArgumentMatchers.any())).thenReturn(stmt);
+        Mockito.when(jdbcClient.getNodesAlive(stmt, "'/backends'", "HeartbeatPort"))
+                .thenAnswer(invocation -> new HashMap<>(backends));
+
+        clusterModuleManager = Mockito.mock(DorisClusterModuleManager.class);
+        requestComponent = Mockito.mock(ModelControlRequestComponent.class);
+        Mockito.when(requestComponent.requestGet(REQUEST_ID)).thenReturn(new ModelControlRequestEntity());
+        resizeManager = Mockito.mock(DorisClusterResizeManager.class);
+
+        rollingRestartManager = new DorisClusterRollingRestartManager();
+        ReflectionTestUtils.setField(rollingRestartManager, "clusterRepository", clusterRepository);
+        ReflectionTestUtils.setField(rollingRestartManager, "moduleRepository", moduleRepository);
+        ReflectionTestUtils.setField(rollingRestartManager, "instanceRepository", instanceRepository);
+        ReflectionTestUtils.setField(rollingRestartManager, "serviceRepository",
+                Mockito.mock(ClusterModuleServiceRepository.class));
+        ReflectionTestUtils.setField(rollingRestartManager, "clusterModuleManager", clusterModuleManager);
+        ReflectionTestUtils.setField(rollingRestartManager, "instanceManager", instanceManager);
+        ReflectionTestUtils.setField(rollingRestartManager, "requestComponent", requestComponent);
+        ReflectionTestUtils.setField(rollingRestartManager, "progressHub", Mockito.mock(RequestProgressHub.class));
+        ReflectionTestUtils.setField(rollingRestartManager, "jdbcClient", jdbcClient);
+        ReflectionTestUtils.setField(rollingRestartManager, "resizeManager", resizeManager);
+        ReflectionTestUtils.setField(rollingRestartManager, "beBatchPercent", 50);
+        ReflectionTestUtils.setField(rollingRestartManager, "readyChecks", 1);
+        // a wave not alive at the first check times out
+        ReflectionTestUtils.setField(rollingRestartManager, "waveTimeoutSeconds", 0L);
+        ReflectionTestUtils.setField(rollingRestartManager, "checkIntervalMs", 1L);
+        // the rolling restart runs in the calling thread
+        setExecutor(MoreExecutors.newDirectExecutorService());
+    }
+
+    @Test
+    public void testRestartedInWaves() throws Exception {
+        addBackend("10.0.0.1");
+        addBackend("10.0.0.2");
+        // registered by its host name
+        addBackend("be3.doris");
+        backends.put("10.0.0.1:9050", true);
+        backends.put("10.0.0.2:9050", true);
+        backends.put("be3.doris:9050", true);
+
+        rollingRestartManager.restartOperation(CLUSTER_ID, REQUEST_ID);
+
+        Mockito.verify(clusterModuleManager, Mockito.times(2)).restartOperation(ArgumentMatchers.any(),
+                ArgumentMatchers.anyList(), ArgumentMatchers.eq(REQUEST_ID));
+        Mockito.verify(requestComponent).requestCompleted(ArgumentMatchers.any(),
+                ArgumentMatchers.eq(ModelControlStatus.SUCCESS));
+        Assertions.assertFalse(rollingRestartManager.isRolling(REQUEST_ID));
+    }
+
+    @Test
+    public void testWaveMatchedByPort() throws Exception {
+        addBackend("10.0.0.1");
+        addBackend("10.0.0.2");
+        backends.put("10.0.0.1:9050", true);
+        // another backend on the same host is alive, the restarted one is not
+        backends.put("10.0.0.2:9050", false);
+        backends.put("10.0.0.2:9051", true);
+
+        rollingRestartManager.restartOperation(CLUSTER_ID, REQUEST_ID);
+
+        // the second wave is not alive, no more waves are restarted
+        Mockito.verify(clusterModuleManager, Mockito.times(2)).restartOperation(ArgumentMatchers.any(),
+                ArgumentMatchers.anyList(), ArgumentMatchers.eq(REQUEST_ID));
+        Mockito.verify(requestComponent).requestCompleted(ArgumentMatchers.any(),
+                ArgumentMatchers.eq(ModelControlStatus.FAIL));
+    }
+
+    @Test
+    public void testRollingBeforeWavesPlanned() throws Exception {
+        addBackend("10.0.0.1");
+        // the waves are planned in the background
+        setExecutor(Mockito.mock(ExecutorService.class));
+
+        rollingRestartManager.restartOperation(CLUSTER_ID, REQUEST_ID);
+
+        Assertions.assertTrue(rollingRestartManager.isRolling(REQUEST_ID));
+        Assertions.assertTrue(rollingRestartManager.isClusterRolling(CLUSTER_ID));
+        Mockito.verifyNoInteractions(moduleRepository);
+    }
+
+    @Test
+    public void testPlanErrorFailsRequest() throws Exception {
+        Mockito.when(moduleRepository.getByClusterId(CLUSTER_ID)).thenThrow(new RuntimeException("database error"));
+
+        rollingRestartManager.restartOperation(CLUSTER_ID, REQUEST_ID);
+
+        Mockito.verifyNoInteractions(clusterModuleManager);
+        Mockito.verify(requestComponent).requestCompleted(ArgumentMatchers.any(),
+                ArgumentMatchers.eq(ModelControlStatus.FAIL));
+        Assertions.assertFalse(rollingRestartManager.isRolling(REQUEST_ID));
+    }
+
+    @Test
+    public void testRejectedWhileResizing() throws Exception {
+        Mockito.when(resizeManager.isClusterResizing(CLUSTER_ID)).thenReturn(true);
+
+        Exception e = Assertions.assertThrows(Exception.class,
+                () -> rollingRestartManager.restartOperation(CLUSTER_ID, REQUEST_ID));
+        Assertions.assertTrue(e.getMessage().contains("being resized"));
+        Assertions.assertFalse(rollingRestartManager.isRolling(REQUEST_ID));
+        Mockito.verifyNoInteractions(moduleRepository, clusterModuleManager);
+    }
+
+    @Test
+    public void testRejectedExecution() throws Exception {
+        ExecutorService executor = Mockito.mock(ExecutorService.class);
+        Mockito.doThrow(new RejectedExecutionException()).when(executor).execute(ArgumentMatchers.any());
+        setExecutor(executor);
+
+        Assertions.assertThrows(RejectedExecutionException.class,
+                () -> rollingRestartManager.restartOperation(CLUSTER_ID, REQUEST_ID));
+        Assertions.assertFalse(rollingRestartManager.isRolling(REQUEST_ID));
+    }
+
+    private void addBackend(String address) {
+        ClusterInstanceEntity instanceEntity = new ClusterInstanceEntity(CLUSTER_ID, 100L, beInstances.size() + 1L,
+                "", address);
+        instanceEntity.setId(1000L + beInstances.size());
+        beInstances.add(instanceEntity);
+    }
+
+    private void setExecutor(ExecutorService executor) {
+        ReflectionTestUtils.setField(rollingRestartManager, "executor", executor);
+    }
+}
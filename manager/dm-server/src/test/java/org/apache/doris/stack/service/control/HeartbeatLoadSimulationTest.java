@@ -0,0 +1,394 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.service.control;
+
+import com.alibaba.fastjson.JSON;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.doris.manager.common.heartbeat.HeartBeatContext;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventInfo;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResult;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventType;
+import org.apache.doris.manager.common.heartbeat.HeartBeatResult;
+import org.apache.doris.manager.common.heartbeat.InstanceInfo;
+import org.apache.doris.manager.common.heartbeat.InstanceStateResult;
+import org.apache.doris.manager.common.util.ServerAndAgentConstant;
+import org.apache.doris.stack.component.AgentHeartBeatNotifyComponent;
+import org.apache.doris.stack.component.AgentLivenessComponent;
+import org.apache.doris.stack.component.AgentPackageComponent;
+import org.apache.doris.stack.component.InstanceDeployDependencyComponent;
+import org.apache.doris.stack.component.RemoteNodeExecutor;
+import org.apache.doris.stack.component.RequestProgressHub;
+import org.apache.doris.stack.control.ModelControlState;
+import org.apache.doris.stack.control.manager.DorisClusterRollingRestartManager;
+import org.apache.doris.stack.control.manager.ResourceNodeAndAgentManager;
+import org.apache.doris.stack.controller.control.ResourceClusterNodeController;
+import org.apache.doris.stack.dao.ClusterInstanceRepository;
+import org.apache.doris.stack.dao.ClusterModuleRepository;
+import org.apache.doris.stack.dao.HeartBeatEventRepository;
+import org.apache.doris.stack.dao.ResourceNodeRepository;
+import org.apache.doris.stack.entity.ClusterInstanceEntity;
+import org.apache.doris.stack.entity.ClusterModuleEntity;
+import org.apache.doris.stack.entity.HeartBeatEventEntity;
+import org.apache.doris.stack.entity.ResourceNodeEntity;
+import org.apache.doris.stack.service.user.AuthenticationService;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.web.client.RestTemplate;
+
+import javax.persistence.EntityManagerFactory;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load simulation of the agent heartbeat path, it answers how many agents one manager can serve.
+ *
+ * N virtual agents heartbeat the manager started on a random port with an in-memory H2 database,
+ * each agent reports the state of its instances and the progress of its events like the real agent.
+ * After the warm up, the heartbeat latency, the jdbc statements per heartbeat and the cpu are reported.
+ *
+ * It only runs when heartbeat.simulation is true, such as:
+ * mvn test -pl dm-server -Dtest=HeartbeatLoadSimulationTest -Dheartbeat.simulation=true
+ *     -Dheartbeat.simulation.agents=500 -Dheartbeat.simulation.interval.ms=1000
+ * Set heartbeat.simulation.max.p99.ms to fail the run when the p99 latency regresses.
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "heartbeat.simulation", matches = "true")
+@SpringBootTest(classes = HeartbeatLoadSimulationTest.SimulationApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = {
+            "spring.datasource.url=jdbc:h2:mem:heartbeat_simulation;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+            "spring.datasource.driver-class-name=org.h2.Driver",
+            "spring.jpa.hibernate.ddl-auto=create",
+            "spring.jpa.hibernate.use-new-id-generator-mappings=false",
+            "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+            "spring.jpa.properties.hibernate.generate_statistics=true",
+            "spring.jpa.properties.hibernate.jdbc.batch_size=50",
+            "spring.jpa.properties.hibernate.order_updates=true",
+            "spring.cache.type=simple",
+            "server.tomcat.threads.max=200",
+            "logging.level.root=WARN",
+            "logging.level.org.apache.doris.stack.service.control.HeartbeatLoadSimulationTest=INFO"
+        })
+public class HeartbeatLoadSimulationTest {
+
+    private static final long DORIS_CLUSTER_ID = 1L;
+
+    private static final long RESOURCE_CLUSTER_ID = 1L;
+
+    private final int agentCount = Integer.getInteger("heartbeat.simulation.agents", 200);
+
+    private final int instancesPerAgent = Integer.getInteger("heartbeat.simulation.instances", 2);
+
+    private final long intervalMs = Long.getLong("heartbeat.simulation.interval.ms", 1000L);
+
+    private final long warmUpSeconds = Long.getLong("heartbeat.simulation.warmup.seconds", 5L);
+
+    private final long durationSeconds = Long.getLong("heartbeat.simulation.duration.seconds", 30L);
+
+    private final int clientThreads = Integer.getInteger("heartbeat.simulation.threads", 64);
+
+    // send the result and get the context in one request like the agent does by default
+    private final boolean combined = Boolean.parseBoolean(System.getProperty("heartbeat.simulation.combined", "true"));
+
+    // every n-th agent has an instance start event in progress at the beginning
+    private final int eventEvery = Integer.getInteger("heartbeat.simulation.event.every", 4);
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @EnableCaching
+    @EnableScheduling
+    @EntityScan(basePackageClasses = ResourceNodeEntity.class)
+    @EnableJpaRepositories(basePackageClasses = ResourceNodeRepository.class)
+    @Import({ResourceClusterNodeController.class, ResourceClusterNodeService.class, ModelRequestService.class,
+            ResourceNodeAndAgentManager.class, AgentHeartBeatNotifyComponent.class, AgentLivenessComponent.class,
+            RequestProgressHub.class, AgentPackageComponent.class, RemoteNodeExecutor.class,
+            InstanceDeployDependencyComponent.class})
+    static class SimulationApplication {
+    }
+
+    @MockBean
+    private AuthenticationService authenticationService;
+
+    @MockBean
+    private DorisClusterRollingRestartManager rollingRestartManager;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ResourceNodeRepository nodeRepository;
+
+    @Autowired
+    private ClusterModuleRepository moduleRepository;
+
+    @Autowired
+    private ClusterInstanceRepository instanceRepository;
+
+    @Autowired
+    private HeartBeatEventRepository eventRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private final RestTemplate restTemplate = new RestTemplate();
+
+    private final ConcurrentLinkedQueue<Long> latencyMicros = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong heartbeatCount = new AtomicLong();
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private volatile boolean measuring = false;
+
+    /**
+     * A virtual agent, it keeps the instances and the events of the last context,
+     * and reports them with the next heartbeat.
+     */
+    private class VirtualAgent implements Runnable {
+        private final long nodeId;
+
+        private String instanceVersion;
+
+        private List<InstanceInfo> instanceInfos = new ArrayList<>();
+
+        private List<HeartBeatEventInfo> events = new ArrayList<>();
+
+        // the number of heartbeats an event has been reported, the event completes after 3 heartbeats
+        private int eventRounds = 0;
+
+        VirtualAgent(long nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                heartbeat();
+                if (measuring) {
+                    latencyMicros.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                    heartbeatCount.incrementAndGet();
+                }
+            } catch (Exception e) {
+                if (measuring) {
+                    errorCount.incrementAndGet();
+                }
+                log.warn("agent {} heartbeat error: {}", nodeId, e.getMessage());
+            }
+        }
+
+        private void heartbeat() {
+            HeartBeatResult result = buildResult();
+            String nodeUrl = "http://127.0.0.1:" + port + "/api/control/node/" + nodeId;
+            String versionParam = instanceVersion == null ? "" : "?version=" + instanceVersion;
+            HeartBeatContext ctx;
+            if (combined) {
+                ctx = restTemplate.postForObject(nodeUrl + "/agent/heartbeat" + versionParam, result,
+                        HeartBeatContext.class);
+            } else {
+                restTemplate.postForObject(nodeUrl + "/agent/context", result, String.class);
+                ctx = restTemplate.getForObject(nodeUrl + "/agent/context" + versionParam, HeartBeatContext.class);
+            }
+            apply(ctx);
+        }
+
+        private HeartBeatResult buildResult() {
+            List<HeartBeatEventResult> eventResults = new ArrayList<>();
+            if (!events.isEmpty()) {
+                eventRounds++;
+            }
+            for (HeartBeatEventInfo eventInfo : events) {
+                HeartBeatEventResult eventResult = new HeartBeatEventResult(eventInfo);
+                eventResult.setEventStage(Math.min(eventRounds, 3));
+                eventResult.setCompleted(eventRounds >= 3);
+                eventResult.setResultType(eventRounds >= 3 ? HeartBeatEventResultType.SUCCESS
+                        : HeartBeatEventResultType.PROCESSING);
+                eventResult.setResultInfo("stage " + eventRounds);
+                eventResults.add(eventResult);
+            }
+
+            List<InstanceStateResult> stateResults = new ArrayList<>();
+            for (InstanceInfo instanceInfo : instanceInfos) {
+                InstanceStateResult stateResult = new InstanceStateResult(instanceInfo);
+                stateResult.setState(ModelControlState.RUNNING);
+                stateResults.add(stateResult);
+            }
+            return new HeartBeatResult(eventResults, stateResults);
+        }
+
+        private void apply(HeartBeatContext ctx) {
+            if (ctx == null) {
+                throw new IllegalStateException("empty heartbeat context");
+            }
+            if (ctx.isInstanceChanged()) {
+                instanceInfos = ctx.getInstanceInfos();
+            }
+            instanceVersion = ctx.getInstanceVersion();
+            events = ctx.getEvents() == null ? Collections.emptyList() : ctx.getEvents();
+            if (events.isEmpty()) {
+                eventRounds = 0;
+            }
+        }
+    }
+
+    @Test
+    public void simulateHeartbeatLoad() throws Exception {
+        List<VirtualAgent> agents = prepareAgents();
+        log.info("simulate {} agents with {} instances each, heartbeat every {}ms, combined {}",
+                agentCount, instancesPerAgent, intervalMs, combined);
+
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(clientThreads);
+        Random random = new Random(0);
+        for (VirtualAgent agent : agents) {
+            // spread the agents over the interval like agents started at different times
+            scheduler.scheduleWithFixedDelay(agent, random.nextInt((int) intervalMs), intervalMs,
+                    TimeUnit.MILLISECONDS);
+        }
+
+        TimeUnit.SECONDS.sleep(warmUpSeconds);
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        long startStatements = statistics.getPrepareStatementCount();
+        long startTransactions = statistics.getTransactionCount();
+        long startProcessCpu = getProcessCpuNanos();
+        long startServerCpu = getServerThreadsCpuNanos();
+        long startTime = System.nanoTime();
+        measuring = true;
+
+        TimeUnit.SECONDS.sleep(durationSeconds);
+
+        measuring = false;
+        long wallNanos = System.nanoTime() - startTime;
+        long statements = statistics.getPrepareStatementCount() - startStatements;
+        long transactions = statistics.getTransactionCount() - startTransactions;
+        long processCpu = getProcessCpuNanos() - startProcessCpu;
+        long serverCpu = getServerThreadsCpuNanos() - startServerCpu;
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(10, TimeUnit.SECONDS);
+
+        long heartbeats = heartbeatCount.get();
+        List<Long> latencies = new ArrayList<>(latencyMicros);
+        Collections.sort(latencies);
+        double seconds = wallNanos / 1e9;
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        log.info("heartbeat simulation result:");
+        log.info("  heartbeats {}, errors {}, throughput {} per second", heartbeats, errorCount.get(),
+                String.format("%.1f", heartbeats / seconds));
+        log.info("  latency p50 {}ms, p90 {}ms, p99 {}ms, max {}ms", percentileMs(latencies, 50),
+                percentileMs(latencies, 90), percentileMs(latencies, 99), percentileMs(latencies, 100));
+        log.info("  jdbc statements per heartbeat {}, transactions per heartbeat {}",
+                String.format("%.2f", (double) statements / Math.max(heartbeats, 1)),
+                String.format("%.2f", (double) transactions / Math.max(heartbeats, 1)));
+        log.info("  server threads cpu {}ms per heartbeat, process cpu {}% of {} cores (agents included)",
+                String.format("%.3f", serverCpu / 1e6 / Math.max(heartbeats, 1)),
+                String.format("%.1f", processCpu * 100.0 / wallNanos / cores), cores);
+
+        Assertions.assertTrue(heartbeats > 0, "no heartbeat is measured");
+        Assertions.assertEquals(0, errorCount.get(), "heartbeat errors");
+        String maxP99 = System.getProperty("heartbeat.simulation.max.p99.ms");
+        if (maxP99 != null) {
+            Assertions.assertTrue(Double.parseDouble(percentileMs(latencies, 99)) <= Double.parseDouble(maxP99),
+                    "p99 latency regression");
+        }
+    }
+
+    private List<VirtualAgent> prepareAgents() {
+        ClusterModuleEntity feModule = moduleRepository.save(
+                new ClusterModuleEntity(DORIS_CLUSTER_ID, ServerAndAgentConstant.FE_NAME));
+        ClusterModuleEntity beModule = moduleRepository.save(
+                new ClusterModuleEntity(DORIS_CLUSTER_ID, ServerAndAgentConstant.BE_NAME));
+
+        List<VirtualAgent> agents = new ArrayList<>();
+        for (int i = 0; i < agentCount; i++) {
+            String host = String.format("10.0.%d.%d", i / 250, i % 250 + 1);
+            ResourceNodeEntity nodeEntity = new ResourceNodeEntity(RESOURCE_CLUSTER_ID, host);
+            nodeEntity.setAgentPort(8001);
+            nodeEntity.setAgentInstallDir("/opt/doris");
+            nodeEntity = nodeRepository.save(nodeEntity);
+
+            for (int j = 0; j < instancesPerAgent; j++) {
+                ClusterModuleEntity module = j == 0 && i % 3 == 0 ? feModule : beModule;
+                ClusterInstanceEntity instanceEntity = new ClusterInstanceEntity(DORIS_CLUSTER_ID, module.getId(),
+                        nodeEntity.getId(), "/opt/doris", host);
+                if (j == 0 && i % eventEvery == 0) {
+                    HeartBeatEventEntity eventEntity = eventRepository.save(new HeartBeatEventEntity(
+                            HeartBeatEventType.INSTANCE_START.name(), HeartBeatEventResultType.INIT.name(),
+                            JSON.toJSONString(Collections.singletonMap("installDir", "/opt/doris")), 0L));
+                    instanceEntity.setCurrentEventId(eventEntity.getId());
+                }
+                instanceRepository.save(instanceEntity);
+            }
+            agents.add(new VirtualAgent(nodeEntity.getId()));
+        }
+        return agents;
+    }
+
+    private String percentileMs(List<Long> sortedMicros, int percentile) {
+        if (sortedMicros.isEmpty()) {
+            return "0";
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sortedMicros.size()) - 1;
+        long micros = sortedMicros.get(Math.max(0, Math.min(index, sortedMicros.size() - 1)));
+        return String.format("%.2f", micros / 1000.0);
+    }
+
+    private long getProcessCpuNanos() {
+        java.lang.management.OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) osBean).getProcessCpuTime();
+        }
+        return 0L;
+    }
+
+    // cpu time of the tomcat threads serving the heartbeats
+    private long getServerThreadsCpuNanos() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        long total = 0L;
+        for (ThreadInfo threadInfo : threadBean.getThreadInfo(threadBean.getAllThreadIds())) {
+            if (threadInfo != null && threadInfo.getThreadName().startsWith("http-nio")) {
+                total += Math.max(0L, threadBean.getThreadCpuTime(threadInfo.getThreadId()));
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,158 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.service.control;
+
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResult;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventResultType;
+import org.apache.doris.manager.common.heartbeat.HeartBeatEventType;
+import org.apache.doris.manager.common.heartbeat.HeartBeatResult;
+import org.apache.doris.stack.component.AgentHeartBeatNotifyComponent;
+import org.apache.doris.stack.component.AgentLivenessComponent;
+import org.apache.doris.stack.component.AgentPackageComponent;
+import org.apache.doris.stack.component.InstanceDeployDependencyComponent;
+import org.apache.doris.stack.component.RemoteNodeExecutor;
+import org.apache.doris.stack.component.RequestProgressHub;
+import org.apache.doris.stack.control.ModelControlLevel;
+import org.apache.doris.stack.control.ModelControlRequestType;
+import org.apache.doris.stack.control.ModelControlStatus;
+import org.apache.doris.stack.control.manager.DorisClusterRollingRestartManager;
+import org.apache.doris.stack.control.manager.ResourceNodeAndAgentManager;
+import org.apache.doris.stack.dao.HeartBeatEventRepository;
+import org.apache.doris.stack.dao.ModelControlRequestRepository;
+import org.apache.doris.stack.dao.ResourceNodeRepository;
+import org.apache.doris.stack.entity.HeartBeatEventEntity;
+import org.apache.doris.stack.entity.ModelControlRequestEntity;
+import org.apache.doris.stack.entity.ResourceNodeEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import java.util.Collections;
+
+/**
+ * A start/stop/restart request is completed by the heartbeat which completes its last event,
+ * the completion runs after the heartbeat transaction is committed and must be written to database.
+ */
+@SpringBootTest(classes = ModelRequestCompletionTest.CompletionApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+            "spring.datasource.url=jdbc:h2:mem:request_completion;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE",
+            "spring.datasource.driver-class-name=org.h2.Driver",
+            "spring.jpa.hibernate.ddl-auto=create",
+            "spring.jpa.hibernate.use-new-id-generator-mappings=false",
+            "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+            "spring.cache.type=simple",
+            // the requests must be completed by the heartbeats, not by the scan
+            "model.request.complete.scan.interval=3600000",
+            "logging.level.root=WARN"
+        })
+public class ModelRequestCompletionTest {
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    @EnableCaching
+    @EntityScan(basePackageClasses = ResourceNodeEntity.class)
+    @EnableJpaRepositories(basePackageClasses = ResourceNodeRepository.class)
+    @Import({ResourceClusterNodeService.class, ModelRequestService.class, ResourceNodeAndAgentManager.class,
+            AgentHeartBeatNotifyComponent.class, AgentLivenessComponent.class, RequestProgressHub.class,
+            AgentPackageComponent.class, RemoteNodeExecutor.class, InstanceDeployDependencyComponent.class})
+    static class CompletionApplication {
+    }
+
+    @MockBean
+    private DorisClusterRollingRestartManager rollingRestartManager;
+
+    @Autowired
+    private ResourceClusterNodeService nodeService;
+
+    @Autowired
+    private ModelControlRequestRepository requestRepository;
+
+    @Autowired
+    private HeartBeatEventRepository eventRepository;
+
+    @Test
+    public void testRequestCompletedByLastEventHeartbeat() {
+        ModelControlRequestEntity requestEntity = requestRepository.save(new ModelControlRequestEntity(
+                ModelControlLevel.DORIS_CLUSTER, 1L, ModelControlRequestType.START, "admin"));
+        HeartBeatEventEntity firstEvent = eventRepository.save(new HeartBeatEventEntity(
+                HeartBeatEventType.INSTANCE_START.name(), HeartBeatEventResultType.INIT.name(), "{}",
+                requestEntity.getId()));
+        HeartBeatEventEntity lastEvent = eventRepository.save(new HeartBeatEventEntity(
+                HeartBeatEventType.INSTANCE_START.name(), HeartBeatEventResultType.INIT.name(), "{}",
+                requestEntity.getId()));
+
+        nodeService.dealHeartbeatContext(completedResult(firstEvent));
+        Assertions.assertFalse(requestRepository.findById(requestEntity.getId()).get().isCompleted());
+
+        nodeService.dealHeartbeatContext(completedResult(lastEvent));
+        ModelControlRequestEntity completed = requestRepository.findById(requestEntity.getId()).get();
+        Assertions.assertTrue(completed.isCompleted());
+        Assertions.assertEquals(ModelControlStatus.SUCCESS, completed.getStatus());
+    }
+
+    @Test
+    public void testInterruptedRollingRestartFailed() {
+        ModelControlRequestEntity requestEntity = requestRepository.save(new ModelControlRequestEntity(
+                ModelControlLevel.DORIS_CLUSTER, 1L, ModelControlRequestType.RESTART, "admin"));
+        // the first wave was restarted before the manager restarted, the other waves never are
+        HeartBeatEventEntity firstWaveEvent = eventRepository.save(new HeartBeatEventEntity(
+                HeartBeatEventType.INSTANCE_RESTART.name(), HeartBeatEventResultType.INIT.name(), "{}",
+                requestEntity.getId()));
+        Mockito.when(rollingRestartManager.isInterrupted(ArgumentMatchers.any())).thenReturn(true);
+
+        nodeService.dealHeartbeatContext(completedResult(firstWaveEvent));
+        ModelControlRequestEntity completed = requestRepository.findById(requestEntity.getId()).get();
+        Assertions.assertTrue(completed.isCompleted());
+        Assertions.assertEquals(ModelControlStatus.FAIL, completed.getStatus());
+    }
+
+    @Test
+    public void testRestartCompletedByRollingRestart() {
+        ModelControlRequestEntity requestEntity = requestRepository.save(new ModelControlRequestEntity(
+                ModelControlLevel.DORIS_CLUSTER, 1L, ModelControlRequestType.RESTART, "admin"));
+        // the events of the first wave are done, the next wave is not restarted yet
+        HeartBeatEventEntity firstWaveEvent = eventRepository.save(new HeartBeatEventEntity(
+                HeartBeatEventType.INSTANCE_RESTART.name(), HeartBeatEventResultType.INIT.name(), "{}",
+                requestEntity.getId()));
+        Mockito.when(rollingRestartManager.isInterrupted(ArgumentMatchers.any())).thenReturn(false);
+
+        nodeService.dealHeartbeatContext(completedResult(firstWaveEvent));
+        Assertions.assertFalse(requestRepository.findById(requestEntity.getId()).get().isCompleted());
+    }
+
+    private HeartBeatResult completedResult(HeartBeatEventEntity eventEntity) {
+        HeartBeatEventResult eventResult = new HeartBeatEventResult();
+        eventResult.setEventId(eventEntity.getId());
+        eventResult.setEventType(HeartBeatEventType.INSTANCE_START);
+        eventResult.setEventStage(1);
+        eventResult.setResultType(HeartBeatEventResultType.SUCCESS);
+        eventResult.setCompleted(true);
+        return new HeartBeatResult(Collections.singletonList(eventResult), Collections.emptyList());
+    }
+}
@@ -0,0 +1,75 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.service.control;
+
+import org.apache.doris.stack.component.AgentPackageComponent;
+import org.apache.doris.stack.dao.ResourceNodeRepository;
+import org.apache.doris.stack.entity.ResourceNodeEntity;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+public class ResourceClusterNodeServiceTest {
+
+    private ResourceNodeRepository nodeRepository = Mockito.mock(ResourceNodeRepository.class);
+
+    private AgentPackageComponent agentPackageComponent = Mockito.mock(AgentPackageComponent.class);
+
+    private AgentPackageComponent.AgentPackage agentPackage = Mockito.mock(AgentPackageComponent.AgentPackage.class);
+
+    private ResourceClusterNodeService nodeService;
+
+    @BeforeEach
+    public void setUp() {
+        Mockito.when(agentPackageComponent.getPackage()).thenReturn(agentPackage);
+        nodeService = new ResourceClusterNodeService();
+        ReflectionTestUtils.setField(nodeService, "nodeRepository", nodeRepository);
+        ReflectionTestUtils.setField(nodeService, "agentPackageComponent", agentPackageComponent);
+    }
+
+    @Test
+    public void testAgentPackageForNodeHost() {
+        addNode(1L, "10.0.0.1");
+        // registered by its host name
+        addNode(2L, "localhost");
+
+        Assertions.assertSame(agentPackage, nodeService.getAgentPackage(1L, "10.0.0.1"));
+        Assertions.assertSame(agentPackage, nodeService.getAgentPackage(2L, "127.0.0.1"));
+    }
+
+    @Test
+    public void testAgentPackageNotForOtherHosts() {
+        addNode(1L, "10.0.0.1");
+
+        Assertions.assertNull(nodeService.getAgentPackage(1L, "10.0.0.2"));
+        // the node is not registered
+        Assertions.assertNull(nodeService.getAgentPackage(3L, "10.0.0.1"));
+        Mockito.verify(agentPackageComponent, Mockito.never()).getPackage();
+    }
+
+    private void addNode(long nodeId, String host) {
+        ResourceNodeEntity nodeEntity = new ResourceNodeEntity();
+        nodeEntity.setId(nodeId);
+        nodeEntity.setHost(host);
+        Mockito.when(nodeRepository.findById(nodeId)).thenReturn(Optional.of(nodeEntity));
+    }
+}
@@ -0,0 +1,96 @@
+// Licensed to the Apache Software Foundation (ASF) under one
+// or more contributor license agreements.  See the NOTICE file
+// distributed with this work for additional information
+// regarding copyright ownership.  The ASF licenses this file
+// to you under the Apache License, Version 2.0 (the
+// "License"); you may not use this file except in compliance
+// with the License.  You may obtain a copy of the License at
+//
+//   http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing,
+// software distributed under the License is distributed on an
+// "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+// KIND, either express or implied.  See the License for the
+// specific language governing permissions and limitations
+// under the License.
+
+package org.apache.doris.stack.shell;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+public class BaseCommandTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static class ShellCommand extends BaseCommand {
+        private final String script;
+
+        ShellCommand(String script) {
+            this.script = script;
+        }
+
+        @Override
+        protected void buildCommand() {
+            resultCommand = new String[] {"sh", "-c", script};
+        }
+    }
+
+    @Test
+    public void testTimeout() {
+        ShellCommand command = new ShellCommand("sleep 30");
+        long start = System.currentTimeMillis();
+
+        Assertions.assertFalse(command.run(500));
+        Assertions.assertEquals(124, command.getExitCode());
+        Assertions.assertTrue(System.currentTimeMillis() - start < 10000);
+    }
+
+    @Test
+    public void testTimeoutKillsDescendants() throws Exception {
+        // the sleep is a grandchild of the command, not a direct child
+        Path pidFile = tempDir.resolve("sleep.pid");
+        ShellCommand command = new ShellCommand("sh -c 'sleep 30 & echo $! > " + pidFile + "; wait' & wait");
+
+        Assertions.assertFalse(command.run(1000));
+        String pid = new String(Files.readAllBytes(pidFile), StandardCharsets.UTF_8).trim();
+        Path proc = Paths.get("/proc", pid);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (Files.exists(proc) && !isZombie(proc) && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(100);
+        }
+        Assertions.assertTrue(!Files.exists(proc) || isZombie(proc), "the grandchild is still running");
+    }
+
+    @Test
+    public void testStderrFlood() {
+        // much more than a pipe buffer, the command blocks if stderr is not drained while it runs
+        ShellCommand command = new ShellCommand(
+                "i=0; while [ $i -lt 20000 ]; do echo \"error line $i\" >&2; i=$((i+1)); done; echo done");
+
+        Assertions.assertTrue(command.run(30000));
+        Assertions.assertEquals("done", command.getStdoutResponse());
+        // only the last lines are kept
+        Assertions.assertFalse(command.getErrorResponse().startsWith("error line 0" + System.lineSeparator()));
+        Assertions.assertTrue(command.getErrorResponse().length() < 128 * 1024);
+        Assertions.assertTrue(command.getErrorResponse().endsWith("error line 19999"));
+    }
+
+    private boolean isZombie(Path proc) {
+        try {
+            String stat = new String(Files.readAllBytes(proc.resolve("stat")), StandardCharsets.UTF_8);
+            return stat.substring(stat.lastIndexOf(')') + 2).startsWith("Z");
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
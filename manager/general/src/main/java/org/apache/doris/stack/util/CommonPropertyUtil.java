@@ -144,6 +144,9 @@ public class CommonPropertyUtil {
         properties.put("spring.jpa.hibernate.naming-strategy", "org.hibernate.cfg.ImprovedNamingStrategy");
         properties.put("spring.data.jpa.repositories.enabled", true);
         properties.put("spring.jpa.hibernate.use-new-id-generator-mappings", false);
+        // send the updates of one transaction in jdbc batches, such as the heartbeat results of an agent
+        properties.put("spring.jpa.properties.hibernate.jdbc.batch_size", 50);
+        properties.put("spring.jpa.properties.hibernate.order_updates", true);
 
         properties.put("spring.cache.type", "ehcache");
         properties.put("spring.cache.ehcache.config", "classpath:cache/ehcache.xml");
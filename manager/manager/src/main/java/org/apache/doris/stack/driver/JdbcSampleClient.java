@@ -18,22 +18,29 @@
 package org.apache.doris.stack.driver;
 
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang.StringUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 @Component
 @Slf4j
 public class JdbcSampleClient {
 
+    private static final String HOST_NAME_COLUMN = "HostName";
+
     @Autowired
     public JdbcSampleClient() {
     }
@@ -145,15 +152,17 @@ public class JdbcSampleClient {
         }
     }
 
+    // All the backends are added in one statement
     public void addBe(List<String> beHostPorts, Statement stmt) throws Exception {
+        if (beHostPorts.isEmpty()) {
+            return;
+        }
         try {
-            for (String beHostPort : beHostPorts) {
-                String sql = "ALTER SYSTEM ADD BACKEND \"" + beHostPort + "\"";
+            String sql = "ALTER SYSTEM ADD BACKEND " + joinHostPorts(beHostPorts);
 
-                int result = stmt.executeUpdate(sql);
-                if (result == -1) {
-                    throw new Exception("failed to execute sql: " + sql + ", result is -1");
-                }
+            int result = stmt.executeUpdate(sql);
+            if (result == -1) {
+                throw new Exception("failed to execute sql: " + sql + ", result is -1");
             }
         } catch (Exception e) {
             log.error("Add be error {}.", e);
@@ -162,16 +171,11 @@ public class JdbcSampleClient {
     }
 
     public void addBrokerName(List<String> brokerHostPorts, Statement stmt) throws Exception {
+        if (brokerHostPorts.isEmpty()) {
+            return;
+        }
         try {
-            StringBuffer brokers = new StringBuffer();
-            for (String brokerHostPort : brokerHostPorts) {
-                brokers.append("\"");
-                brokers.append(brokerHostPort);
-                brokers.append("\",");
-            }
-            // Remove the comma at the end
-            brokers.deleteCharAt(brokers.length() - 1);
-            String sql = "ALTER SYSTEM ADD BROKER broker_name " + brokers.toString();
+            String sql = "ALTER SYSTEM ADD BROKER broker_name " + joinHostPorts(brokerHostPorts);
 
             int result = stmt.executeUpdate(sql);
             if (result == -1) {
@@ -202,6 +206,100 @@ public class JdbcSampleClient {
         }
     }
 
+    // The data of the backends are migrated to the others, then they are dropped by the fe
+    public void decommissionBe(List<String> beHostPorts, Statement stmt) throws Exception {
+        if (beHostPorts.isEmpty()) {
+            return;
+        }
+        try {
+            String sql = "ALTER SYSTEM DECOMMISSION BACKEND " + joinHostPorts(beHostPorts);
+
+            int result = stmt.executeUpdate(sql);
+            if (result == -1) {
+                throw new Exception("failed to execute sql: " + sql + ", result is -1");
+            }
+        } catch (Exception e) {
+            log.error("Decommission be error {}.", e);
+            throw e;
+        }
+    }
+
+    public void dropBrokerName(List<String> brokerHostPorts, Statement stmt) throws Exception {
+        if (brokerHostPorts.isEmpty()) {
+            return;
+        }
+        try {
+            String sql = "ALTER SYSTEM DROP BROKER broker_name " + joinHostPorts(brokerHostPorts);
+
+            int result = stmt.executeUpdate(sql);
+            if (result == -1) {
+                throw new Exception("failed to execute sql: " + sql + ", result is -1");
+            }
+        } catch (Exception e) {
+            log.error("Drop broker error {}.", e);
+            throw e;
+        }
+    }
+
+    // ip:heartbeat port and host name:heartbeat port -> number of tablets of the backends
+    public Map<String, Long> getBeTabletNums(Statement stmt) throws Exception {
+        try {
+            ResultSet result = stmt.executeQuery("SHOW PROC '/backends'");
+            boolean hasHostName = hasColumn(result, HOST_NAME_COLUMN);
+            Map<String, Long> tabletNums = new HashMap<>();
+            while (result.next()) {
+                for (String host : getHosts(result, hasHostName)) {
+                    tabletNums.put(host + ":" + result.getString("HeartbeatPort"), result.getLong("TabletNum"));
+                }
+            }
+            return tabletNums;
+        } catch (Exception e) {
+            log.error("get be tablet num by jdbc error {}.", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Get all the nodes registered in the cluster, whether they are alive or not
+     *
+     * @param stmt
+     * @param procPath such as '/backends'
+     * @param portColumn the port of the node address, such as HeartbeatPort
+     * @return ip:port and host name:port -> alive, a node may be registered by its host name
+     * @throws Exception
+     */
+    public Map<String, Boolean> getNodesAlive(Statement stmt, String procPath, String portColumn) throws Exception {
+        try {
+            ResultSet result = stmt.executeQuery("SHOW PROC " + procPath);
+            boolean hasHostName = hasColumn(result, HOST_NAME_COLUMN);
+            Map<String, Boolean> nodes = new HashMap<>();
+            while (result.next()) {
+                for (String host : getHosts(result, hasHostName)) {
+                    nodes.put(host + ":" + result.getString(portColumn), result.getBoolean("Alive"));
+                }
+            }
+            return nodes;
+        } catch (Exception e) {
+            log.error("get nodes of {} by jdbc error {}.", procPath, e);
+            throw e;
+        }
+    }
+
+    public String getFeMasterIp(Statement stmt) throws Exception {
+        try {
+            ResultSet result = stmt.executeQuery("SHOW PROC '/frontends'");
+            while (result.next()) {
+                if (result.getBoolean("IsMaster")) {
+                    return result.getString("IP");
+                }
+            }
+            return null;
+        } catch (Exception e) {
+            log.error("get fe master ip by jdbc error {}.", e);
+            throw e;
+        }
+    }
+
     // TODO: At present, only the simplest SQL query is implemented, there is no cache connection,
     //  and multiple SQL statements are not supported
     public ResultSet executeSql(Statement stmt, String sql) throws Exception {
@@ -214,11 +312,50 @@ public class JdbcSampleClient {
         }
     }
 
+    // The connection is closed together, it is opened only for the statement
     public void closeStatement(Statement stmt) {
         try {
+            Connection connection = stmt.getConnection();
             stmt.close();
+            connection.close();
         } catch (SQLException e) {
             log.error("close doris statement error.", e);
         }
     }
+
+    // The ip and the host name of the node, the host name is only shown by the newer fe
+    private List<String> getHosts(ResultSet result, boolean hasHostName) throws SQLException {
+        List<String> hosts = new ArrayList<>();
+        hosts.add(result.getString("IP"));
+        if (hasHostName) {
+            String hostName = result.getString(HOST_NAME_COLUMN);
+            if (StringUtils.isNotEmpty(hostName) && !hosts.contains(hostName)) {
+                hosts.add(hostName);
+            }
+        }
+        return hosts;
+    }
+
+    private boolean hasColumn(ResultSet result, String column) throws SQLException {
+        ResultSetMetaData metaData = result.getMetaData();
+        for (int i = 1; i <= metaData.getColumnCount(); i++) {
+            if (column.equalsIgnoreCase(metaData.getColumnLabel(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String joinHostPorts(List<String> hostPorts) {
+        StringBuffer buffer = new StringBuffer();
+        for (String hostPort : hostPorts) {
+            if (buffer.length() > 0) {
+                buffer.append(",");
+            }
+            buffer.append("\"");
+            buffer.append(hostPort);
+            buffer.append("\"");
+        }
+        return buffer.toString();
+    }
 }
@@ -43,6 +43,10 @@ public interface ClusterInstanceRepository extends JpaRepository<ClusterInstance
     @CacheEvict(value = "cluster_instance", key = "#result.nodeId")
     ClusterInstanceEntity save(ClusterInstanceEntity entity);
 
+    @Override
+    @CacheEvict(value = "cluster_instance", allEntries = true)
+    <S extends ClusterInstanceEntity> List<S> saveAll(Iterable<S> entities);
+
     @Override
     @CacheEvict(value = "cluster_instance", allEntries = true)
     void deleteById(Long id);
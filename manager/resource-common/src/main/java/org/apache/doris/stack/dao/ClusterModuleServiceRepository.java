@@ -24,6 +24,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ClusterModuleServiceRepository extends JpaRepository<ClusterModuleServiceEntity, Long> {
@@ -32,6 +33,10 @@ public interface ClusterModuleServiceRepository extends JpaRepository<ClusterMod
     List<ClusterModuleServiceEntity> getByClusterIdAndName(@Param("clusterId") long clusterId,
                                                            @Param("name") String name);
 
+    @Query("select c from ClusterModuleServiceEntity c where c.clusterId in :clusterIds and c.name in :names")
+    List<ClusterModuleServiceEntity> getByClusterIdsAndNames(@Param("clusterIds") Collection<Long> clusterIds,
+                                                             @Param("names") Collection<String> names);
+
     @Query("select c from ClusterModuleServiceEntity c where c.clusterId = :clusterId")
     List<ClusterModuleServiceEntity> getByClusterId(@Param("clusterId") long clusterId);
 
@@ -35,6 +35,12 @@ public interface HeartBeatEventRepository extends JpaRepository<HeartBeatEventEn
     List<HeartBeatEventEntity> getByRequestIdAndCompleted(@Param("requestId") long requestId,
                                                           @Param("completed") boolean completed);
 
+    @Query("select c from HeartBeatEventEntity c where c.requestId = :requestId")
+    List<HeartBeatEventEntity> getByRequestId(@Param("requestId") long requestId);
+
+    @Query("select count(c) from HeartBeatEventEntity c where c.requestId = :requestId and c.completed = :completed")
+    long countByRequestIdAndCompleted(@Param("requestId") long requestId, @Param("completed") boolean completed);
+
     @Query("select c.status from HeartBeatEventEntity c where c.requestId = :requestId")
     Set<String> getStatusByRequestId(@Param("requestId") long requestId);
 
@@ -24,6 +24,7 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.Collection;
 import java.util.List;
 
 public interface ModelControlRequestRepository extends JpaRepository<ModelControlRequestEntity, Long> {
@@ -44,4 +45,10 @@ public interface ModelControlRequestRepository extends JpaRepository<ModelContro
             + "c.completed = :completed")
     List<ModelControlRequestEntity> getByRequestTypeAndCompleted(@Param("requestType") ModelControlRequestType requestType,
                                                                  @Param("completed") boolean completed);
+
+    @Query("select c from ModelControlRequestEntity c where c.requestType in :requestTypes and "
+            + "c.completed = :completed")
+    List<ModelControlRequestEntity> getByRequestTypesAndCompleted(
+            @Param("requestTypes") Collection<ModelControlRequestType> requestTypes,
+            @Param("completed") boolean completed);
 }
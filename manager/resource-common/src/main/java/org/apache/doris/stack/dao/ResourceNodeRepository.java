@@ -27,6 +27,8 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -44,6 +46,12 @@ public interface ResourceNodeRepository extends JpaRepository<ResourceNodeEntity
     void deleteByResourceClusterIdAndHost(@Param("resourceClusterId") long resourceClusterId,
                                           @Param("host") String host);
 
+    // The cached node entities are not updated, the caller evicts them, such as AgentLivenessComponent
+    @Modifying
+    @Transactional
+    @Query("update ResourceNodeEntity c set c.lastHeartBeatTimestamp = :timestamp where c.id in :ids")
+    int updateLastHeartBeatTimestamp(@Param("ids") Collection<Long> ids, @Param("timestamp") Timestamp timestamp);
+
     @Override
     @CachePut(value = "node_agent", key = "#result.id")
     ResourceNodeEntity save(ResourceNodeEntity entity);